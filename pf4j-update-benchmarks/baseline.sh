@@ -0,0 +1,30 @@
+#!/bin/sh
+#
+# Builds pf4j-update and the benchmarks, runs every benchmark with the GC profiler and writes
+# a CSV report to reports/<name>.csv.
+#
+# Usage: ./baseline.sh <name> [extra JMH options]
+#   e.g. ./baseline.sh 2.3.0
+#        ./baseline.sh 2.4.0-SNAPSHOT -p pluginCount=100,10000
+#
+# Compare two reports with:
+#   java -cp target/benchmarks.jar org.pf4j.update.benchmarks.BaselineComparison reports/2.3.0.csv reports/2.4.0-SNAPSHOT.csv
+#
+set -e
+
+if [ -z "$1" ]; then
+    echo "Usage: $0 <name> [extra JMH options]"
+    exit 2
+fi
+NAME=$1
+shift
+
+cd "$(dirname "$0")"
+mvn -B -q -f ../pom.xml install -DskipTests
+mvn -B -q package
+
+mkdir -p reports
+java -Duser.language=en -Duser.country=US -jar target/benchmarks.jar \
+    -prof gc \
+    -rf csv -rff "reports/$NAME.csv" \
+    "$@"
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two JMH CSV reports (as written by {@code -rf csv}) and prints the relative change
+ * of every benchmark/parameter combination, including the secondary metrics of the GC profiler
+ * (e.g. {@code gc.alloc.rate.norm}).
+ * <p>
+ * Usage: {@code java -cp target/benchmarks.jar org.pf4j.update.benchmarks.BaselineComparison old.csv new.csv}
+ */
+public class BaselineComparison {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: BaselineComparison <baseline.csv> <candidate.csv>");
+            System.exit(2);
+        }
+
+        Map<String, Double> baseline = read(Paths.get(args[0]));
+        Map<String, Double> candidate = read(Paths.get(args[1]));
+
+        System.out.println(String.format("%-100s %15s %15s %9s", "Benchmark", "Baseline", "Candidate", "Change"));
+        for (Map.Entry<String, Double> entry : candidate.entrySet()) {
+            Double before = baseline.get(entry.getKey());
+            double after = entry.getValue();
+            String change = (before == null || before == 0) ? "new" : String.format("%+.1f%%", (after - before) * 100 / before);
+            System.out.println(String.format("%-100s %15.3f %15.3f %9s", entry.getKey(),
+                before == null ? Double.NaN : before, after, change));
+        }
+    }
+
+    /**
+     * Reads a JMH CSV report into a map whose key is the benchmark name, the unit and the
+     * parameter values, and whose value is the score.
+     */
+    static Map<String, Double> read(Path csv) throws IOException {
+        List<String> lines = Files.readAllLines(csv, StandardCharsets.UTF_8);
+        String[] header = split(lines.get(0));
+        Map<String, Double> scores = new LinkedHashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            String[] columns = split(line);
+            StringBuilder key = new StringBuilder(columns[0]).append(" [").append(columns[6]).append(']');
+            // parameter columns follow the fixed Benchmark, Mode, Threads, Samples, Score, Error, Unit columns
+            for (int i = 7; i < columns.length; i++) {
+                key.append(' ').append(header[i]).append('=').append(columns[i]);
+            }
+            scores.put(key.toString(), Double.parseDouble(columns[4]));
+        }
+
+        return scores;
+    }
+
+    private static String[] split(String line) {
+        String[] columns = line.split(",", -1);
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = columns[i].replace("\"", "").trim();
+        }
+
+        return columns;
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.benchmarks;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pf4j.update.FileVerifier;
+import org.pf4j.update.verifier.CompoundVerifier;
+import org.pf4j.update.verifier.Sha512SumVerifier;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link CompoundVerifier} with several {@link Sha512SumVerifier}s sharing one read of the file,
+ * against running the same verifiers one after another, each reading the file on its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompoundVerifierBenchmark {
+
+    @Param({"1048576", "67108864"})
+    public int artifactSize;
+
+    @Param({"1", "2", "4"})
+    public int verifierCount;
+
+    private Path artifact;
+    private List<FileVerifier> verifiers;
+    private CompoundVerifier singlePass;
+    private CompoundVerifier parallel;
+    private FileVerifier.Context context;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        artifact = Files.createTempFile("pf4j-update-bench", ".zip");
+        Random random = new Random(42);
+        byte[] buffer = new byte[64 * 1024];
+        try (OutputStream out = Files.newOutputStream(artifact)) {
+            for (int written = 0; written < artifactSize; written += buffer.length) {
+                random.nextBytes(buffer);
+                out.write(buffer, 0, Math.min(buffer.length, artifactSize - written));
+            }
+        }
+
+        String sha512sum;
+        try (InputStream in = Files.newInputStream(artifact)) {
+            sha512sum = DigestUtils.sha512Hex(in);
+        }
+        verifiers = new ArrayList<>();
+        for (int i = 0; i < verifierCount; i++) {
+            Sha512SumVerifier verifier = new Sha512SumVerifier();
+            verifier.setVerificationCache(null);
+            verifiers.add(verifier);
+        }
+        singlePass = new CompoundVerifier(verifiers);
+        parallel = new CompoundVerifier(verifiers);
+        parallel.setParallel(true);
+        context = new FileVerifier.Context("bench", new Date(), "1.0.0", null,
+            artifact.toUri().toString(), sha512sum);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(artifact);
+    }
+
+    @Benchmark
+    public void oneReadPerVerifier() throws IOException {
+        for (FileVerifier verifier : verifiers) {
+            verifier.verify(context, artifact);
+        }
+    }
+
+    @Benchmark
+    public void singlePass() throws IOException {
+        singlePass.verify(context, artifact);
+    }
+
+    @Benchmark
+    public void singlePassParallel() throws IOException {
+        parallel.verify(context, artifact);
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.benchmarks;
+
+import com.google.gson.stream.JsonReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pf4j.update.util.LenientDateTypeAdapter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link LenientDateTypeAdapter} for each supported date format. The adapter tries
+ * the formats in order, so the later formats (and unparsable dates) are the expensive ones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DateParsingBenchmark {
+
+    @Param({"local", "iso8601", "short", "invalid"})
+    public String format;
+
+    private LenientDateTypeAdapter adapter;
+    private String json;
+
+    @Setup
+    public void setup() {
+        adapter = new LenientDateTypeAdapter();
+        switch (format) {
+            case "local":
+                json = "\"Dec 3, 2019 3:42:57 PM\"";
+                break;
+            case "iso8601":
+                json = "\"2017-01-31T12:34:56Z\"";
+                break;
+            case "short":
+                json = "\"2019-12-03\"";
+                break;
+            default:
+                json = "\"not a date\"";
+        }
+    }
+
+    @Benchmark
+    public Date parse() throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(json));
+        // a bare string is not a valid JSON document for this version of Gson
+        reader.setLenient(true);
+
+        return adapter.read(reader);
+    }
+
+}
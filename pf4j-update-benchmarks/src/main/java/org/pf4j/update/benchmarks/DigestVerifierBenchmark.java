@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.benchmarks;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pf4j.update.FileVerifier;
+import org.pf4j.update.verifier.DigestVerifier;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Measures {@link DigestVerifier} with each single algorithm and with all of them in one pass,
+ * to pick the cheapest digest on the target hardware.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DigestVerifierBenchmark {
+
+    @Param({"1048576", "67108864"})
+    public int artifactSize;
+
+    @Param({"CRC32", "SHA256", "SHA512", "ALL"})
+    public String algorithm;
+
+    private Path artifact;
+    private DigestVerifier verifier;
+    private FileVerifier.Context context;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        artifact = Files.createTempFile("pf4j-update-bench", ".zip");
+        Random random = new Random(42);
+        byte[] content = new byte[artifactSize];
+        random.nextBytes(content);
+        try (OutputStream out = Files.newOutputStream(artifact)) {
+            out.write(content);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        context = new FileVerifier.Context("bench", new Date(), "1.0.0", null,
+            artifact.toUri().toString(), DigestUtils.sha512Hex(content));
+        context.sha256sum = DigestUtils.sha256Hex(content);
+        context.crc32 = String.format("%08x", crc.getValue());
+
+        verifier = new DigestVerifier();
+        verifier.setVerificationCache(null);
+        if ("ALL".equals(algorithm)) {
+            verifier.setAlgorithms(DigestVerifier.Algorithm.values());
+        } else {
+            verifier.setAlgorithms(DigestVerifier.Algorithm.valueOf(algorithm));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(artifact);
+    }
+
+    @Benchmark
+    public void verify() throws IOException {
+        verifier.verify(context, artifact);
+    }
+
+}
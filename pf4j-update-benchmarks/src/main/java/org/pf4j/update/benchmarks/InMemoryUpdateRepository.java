@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.benchmarks;
+
+import org.pf4j.update.FileDownloader;
+import org.pf4j.update.FileVerifier;
+import org.pf4j.update.PluginInfo;
+import org.pf4j.update.UpdateRepository;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * An {@link UpdateRepository} over a fixed, already parsed catalog, so that query
+ * benchmarks measure the {@link org.pf4j.update.UpdateManager} and not the parser.
+ */
+public class InMemoryUpdateRepository implements UpdateRepository {
+
+    private final String id;
+    private final Map<String, PluginInfo> plugins;
+
+    public InMemoryUpdateRepository(String id, Map<String, PluginInfo> plugins) {
+        this.id = id;
+        this.plugins = plugins;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public URL getUrl() {
+        try {
+            return new URL("http://localhost/" + id + "/");
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public Map<String, PluginInfo> getPlugins() {
+        return plugins;
+    }
+
+    @Override
+    public PluginInfo getPlugin(String id) {
+        return plugins.get(id);
+    }
+
+    @Override
+    public void refresh() {
+        // nothing to refresh
+    }
+
+    @Override
+    public FileDownloader getFileDownloader() {
+        return null;
+    }
+
+    @Override
+    public FileVerifier getFileVerifier() {
+        return null;
+    }
+
+}
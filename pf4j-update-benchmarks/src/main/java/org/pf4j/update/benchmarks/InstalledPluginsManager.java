@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.benchmarks;
+
+import org.pf4j.DefaultPluginDescriptor;
+import org.pf4j.DefaultPluginManager;
+import org.pf4j.PluginDescriptor;
+import org.pf4j.PluginWrapper;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * A plugin manager that pretends a number of plugins are installed (at their first release),
+ * without loading any code.
+ */
+public class InstalledPluginsManager extends DefaultPluginManager {
+
+    public InstalledPluginsManager(Path pluginsRoot, String systemVersion, List<String> installedIds) {
+        super(pluginsRoot);
+
+        setSystemVersion(systemVersion);
+        for (String id : installedIds) {
+            PluginDescriptor descriptor = new DefaultPluginDescriptor(id, null, null,
+                SyntheticCatalog.version(0), null, null, null);
+            plugins.put(id, new PluginWrapper(this, descriptor, pluginsRoot.resolve(id), getClass().getClassLoader()));
+        }
+    }
+
+}
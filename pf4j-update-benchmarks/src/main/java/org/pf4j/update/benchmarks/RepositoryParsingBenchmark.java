@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pf4j.update.DefaultUpdateRepository;
+import org.pf4j.update.PluginInfo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link DefaultUpdateRepository} reading and parsing a local {@code plugins.json}
+ * with 100, 10k and 100k plugins.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class RepositoryParsingBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int pluginCount;
+
+    @Param({"3"})
+    public int releasesPerPlugin;
+
+    private Path repositoryDir;
+    private DefaultUpdateRepository repository;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        repositoryDir = Files.createTempDirectory("pf4j-update-bench");
+        new SyntheticCatalog(pluginCount, releasesPerPlugin, 42).writeJson(repositoryDir.resolve("plugins.json"));
+        repository = new DefaultUpdateRepository("bench", repositoryDir.toUri().toURL());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(repositoryDir.resolve("plugins.json"));
+        Files.deleteIfExists(repositoryDir);
+    }
+
+    @Benchmark
+    public Map<String, PluginInfo> parsePluginsJson() {
+        repository.refresh();
+
+        return repository.getPlugins();
+    }
+
+}
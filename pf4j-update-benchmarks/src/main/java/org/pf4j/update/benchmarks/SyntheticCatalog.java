@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.benchmarks;
+
+import com.google.gson.stream.JsonWriter;
+import org.pf4j.update.PluginInfo;
+import org.pf4j.update.PluginInfo.PluginRelease;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates deterministic synthetic plugin catalogs, either in memory or as a {@code plugins.json} file.
+ * The same seed always yields the same catalog, so numbers are comparable between runs.
+ */
+public class SyntheticCatalog {
+
+    public static final String[] DATES = {
+        "2019-12-03",
+        "2017-01-31T12:34:56Z",
+        "Dec 3, 2019 3:42:57 PM",
+        "not a date"
+    };
+
+    public static final String[] REQUIRES = {
+        null,
+        ">=1.0.0",
+        ">=2.0.0 & <3.0.0",
+        "~1.5",
+        "^2.1.0"
+    };
+
+    private final int pluginCount;
+    private final int releasesPerPlugin;
+    private final long seed;
+
+    public SyntheticCatalog(int pluginCount, int releasesPerPlugin, long seed) {
+        this.pluginCount = pluginCount;
+        this.releasesPerPlugin = releasesPerPlugin;
+        this.seed = seed;
+    }
+
+    public static String pluginId(int index) {
+        return "plugin-" + index;
+    }
+
+    public static String version(int release) {
+        return "1." + release + ".0";
+    }
+
+    /**
+     * Writes the catalog as a {@code plugins.json} file with relative release URLs.
+     *
+     * @param file the target file
+     * @throws IOException if the file cannot be written
+     */
+    public void writeJson(Path file) throws IOException {
+        Random random = new Random(seed);
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+             JsonWriter json = new JsonWriter(writer)) {
+            json.beginArray();
+            for (int i = 0; i < pluginCount; i++) {
+                String id = pluginId(i);
+                json.beginObject();
+                json.name("id").value(id);
+                json.name("description").value("Synthetic plugin " + i);
+                json.name("provider").value("benchmark");
+                json.name("releases").beginArray();
+                for (int r = 0; r < releasesPerPlugin; r++) {
+                    json.beginObject();
+                    json.name("version").value(version(r));
+                    json.name("date").value(DATES[random.nextInt(DATES.length)]);
+                    String requires = REQUIRES[random.nextInt(REQUIRES.length)];
+                    if (requires != null) {
+                        json.name("requires").value(requires);
+                    }
+                    json.name("url").value(id + "/" + version(r) + "/" + id + "-" + version(r) + ".zip");
+                    json.name("sha512sum").value(fakeSha512(random));
+                    json.endObject();
+                }
+                json.endArray();
+                json.endObject();
+            }
+            json.endArray();
+        }
+    }
+
+    /**
+     * Builds the catalog in memory, as if it had been parsed from a repository.
+     *
+     * @param repositoryId the repository id to stamp on every plugin
+     * @return map of plugin id and plugin info
+     */
+    public Map<String, PluginInfo> toMap(String repositoryId) {
+        Random random = new Random(seed);
+        Map<String, PluginInfo> plugins = new HashMap<>(pluginCount);
+        for (int i = 0; i < pluginCount; i++) {
+            PluginInfo plugin = new PluginInfo();
+            plugin.id = pluginId(i);
+            plugin.description = "Synthetic plugin " + i;
+            plugin.releases = new ArrayList<>(releasesPerPlugin);
+            for (int r = 0; r < releasesPerPlugin; r++) {
+                PluginRelease release = new PluginRelease();
+                release.version = version(r);
+                release.date = new Date(random.nextInt() & 0xffffffffL);
+                release.requires = REQUIRES[random.nextInt(REQUIRES.length)];
+                release.url = "http://localhost/" + plugin.id + "/" + release.version + "/" + plugin.id + ".zip";
+                release.sha512sum = fakeSha512(random);
+                plugin.releases.add(release);
+            }
+            plugin.setRepositoryId(repositoryId);
+            plugins.put(plugin.id, plugin);
+        }
+
+        return plugins;
+    }
+
+    /**
+     * @return the ids of the first {@code count} plugins of the catalog
+     */
+    public List<String> pluginIds(int count) {
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(pluginId(i));
+        }
+
+        return ids;
+    }
+
+    private static String fakeSha512(Random random) {
+        StringBuilder sb = new StringBuilder(128);
+        for (int i = 0; i < 16; i++) {
+            sb.append(String.format("%016x", random.nextLong()));
+        }
+
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pf4j.update.PluginInfo;
+import org.pf4j.update.PluginInfo.PluginRelease;
+import org.pf4j.update.UpdateManager;
+import org.pf4j.update.UpdateRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the catalog queries of {@link UpdateManager} at varying catalog and installed sizes.
+ * The catalog is split over several in-memory repositories, as in a typical multi-repository setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class UpdateManagerQueryBenchmark {
+
+    private static final int REPOSITORIES = 4;
+
+    @Param({"100", "10000"})
+    public int catalogSize;
+
+    @Param({"10", "100"})
+    public int installedCount;
+
+    private UpdateManager updateManager;
+    private String[] installedIds;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        SyntheticCatalog catalog = new SyntheticCatalog(catalogSize, 3, 42);
+        Map<String, PluginInfo> all = catalog.toMap("bench");
+
+        // spread the catalog round-robin over the repositories
+        List<Map<String, PluginInfo>> parts = new ArrayList<>();
+        for (int r = 0; r < REPOSITORIES; r++) {
+            parts.add(new HashMap<>());
+        }
+        int i = 0;
+        for (PluginInfo plugin : all.values()) {
+            parts.get(i++ % REPOSITORIES).put(plugin.id, plugin);
+        }
+        List<UpdateRepository> repositories = new ArrayList<>();
+        for (int r = 0; r < REPOSITORIES; r++) {
+            repositories.add(new InMemoryUpdateRepository("repo-" + r, parts.get(r)));
+        }
+
+        List<String> installed = catalog.pluginIds(Math.min(installedCount, catalogSize));
+        installedIds = installed.toArray(new String[0]);
+        InstalledPluginsManager pluginManager = new InstalledPluginsManager(
+            Files.createTempDirectory("pf4j-update-bench"), "1.5.0", installed);
+        updateManager = new UpdateManager(pluginManager, repositories);
+    }
+
+    @Benchmark
+    public Map<String, PluginInfo> getPluginsMap() {
+        return updateManager.getPluginsMap();
+    }
+
+    @Benchmark
+    public List<PluginInfo> getUpdates() {
+        return updateManager.getUpdates();
+    }
+
+    /**
+     * Lookup of the last release, with the per-id cache of {@link UpdateManager} warmed up.
+     */
+    @Benchmark
+    public PluginRelease getLastPluginRelease() {
+        String id = installedIds[next++ % installedIds.length];
+
+        return updateManager.getLastPluginRelease(id);
+    }
+
+    /**
+     * Lookup of the last release right after a refresh, i.e. with a cold per-id cache.
+     */
+    @Benchmark
+    public PluginRelease getLastPluginReleaseCold() {
+        updateManager.refresh();
+        String id = installedIds[next++ % installedIds.length];
+
+        return updateManager.getLastPluginRelease(id);
+    }
+
+}
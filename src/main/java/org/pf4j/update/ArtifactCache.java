@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.pf4j.update.PluginInfo.PluginRelease;
+import org.pf4j.update.util.InterProcessLock;
+import org.pf4j.update.verifier.VerificationCache;
+import org.pf4j.util.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A content-addressed cache of verified plugin artifacts, so that reinstalling a release, installing it
+ * for another plugin manager or from another repository serving the same artifact does not download it again.
+ * <p>
+ * Artifacts are stored by the SHA-512 checksum of their release or, without an inline checksum,
+ * by their URL and release date. An artifact is added only after it was verified, with an atomic rename,
+ * and served by a hard link where possible, else a copy. As the artifacts may be linked to installed files,
+ * an artifact stored by its checksum is checked against it before it is served, hashed again only if it
+ * changed since it was last hashed (see {@link VerificationCache}). The least recently used artifacts are evicted
+ * when all of them together are larger than {@link #getMaxSize()}.
+ * <p>
+ * One cache (or directory) can be shared by several update managers, also of several processes:
+ * with {@link #lock(String)} one of them downloads an artifact while the others wait for it.
+ */
+public class ArtifactCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ArtifactCache.class);
+
+    public static final String DEFAULT_DIRECTORY = ".pf4j-update/cache";
+    public static final long DEFAULT_MAX_SIZE = 512L * 1024 * 1024;
+
+    static final String LOCKS_DIRECTORY = ".locks";
+
+    private static final String ARTIFACT_FILE_NAME = "artifact";
+    private static final String SHA512_KEY_PREFIX = "sha512-";
+    // half-written entries of crashed processes
+    private static final long MAX_TEMP_AGE = TimeUnit.HOURS.toMillis(1);
+
+    private final Path directory;
+    private long maxSize = DEFAULT_MAX_SIZE;
+    private VerificationCache verificationCache = VerificationCache.getShared();
+
+    public ArtifactCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param pluginsRoot the plugins folder
+     * @return an artifact cache in {@value #DEFAULT_DIRECTORY} below the plugins folder, on the same file system
+     */
+    public static ArtifactCache forPluginsRoot(Path pluginsRoot) {
+        return new ArtifactCache(pluginsRoot.resolve(DEFAULT_DIRECTORY));
+    }
+
+    /**
+     * Gets the key of the artifact of a release, its SHA-512 checksum if given inline,
+     * else derived from its URL and date.
+     *
+     * @param release the release
+     * @return the key, or null if the artifact of the release cannot be identified without downloading it
+     */
+    public static String getKey(PluginRelease release) {
+        String sha512sum = getInlineSha512sum(release);
+        if (sha512sum != null) {
+            return SHA512_KEY_PREFIX + sha512sum.toLowerCase(Locale.ROOT);
+        }
+
+        if (release.url == null || release.date == null) {
+            return null;
+        }
+
+        return "url-" + DigestUtils.sha256Hex(release.url + '\n' + release.date.getTime());
+    }
+
+    /**
+     * @param release the release
+     * @return the SHA-512 checksum of the release if given inline (not as URL of a checksum file), else null
+     */
+    static String getInlineSha512sum(PluginRelease release) {
+        String sha512sum = release.sha512sum;
+
+        return sha512sum != null && sha512sum.matches("[0-9a-fA-F]{128}") ? sha512sum : null;
+    }
+
+    /**
+     * Puts a cached artifact in place of a download, and marks it as recently used.
+     * An artifact stored by its checksum that does not match it anymore (e.g. an installed file
+     * it is linked to was changed) is evicted instead.
+     *
+     * @param key the key of the artifact
+     * @param target the file to create, it must not exist
+     * @return true if the artifact was cached, false if the target was not created
+     * @throws IOException if the cached artifact cannot be linked, copied or read
+     */
+    public boolean get(String key, Path target) throws IOException {
+        Path entry = directory.resolve(key);
+        Path artifact = entry.resolve(ARTIFACT_FILE_NAME);
+        try {
+            // the entry, not the artifact, carries the time of last use; the artifact may be linked to installed files
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            if (key.startsWith(SHA512_KEY_PREFIX) && !matchesChecksum(artifact, key.substring(SHA512_KEY_PREFIX.length()))) {
+                log.warn("Artifact '{}' in artifact cache does not match its checksum, evicting it", key);
+                FileUtils.delete(entry);
+                return false;
+            }
+            link(artifact, target);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        log.debug("Found '{}' in artifact cache", key);
+
+        return true;
+    }
+
+    // remembered with the same expectation as the SHA-512 verification of a download
+    private boolean matchesChecksum(Path artifact, String sha512sum) throws IOException {
+        String expectation = "sha512:" + sha512sum;
+        long started = System.currentTimeMillis();
+        VerificationCache.FileIdentity identity = null;
+        if (verificationCache != null) {
+            if (verificationCache.isVerified(artifact, expectation)) {
+                return true;
+            }
+            identity = VerificationCache.FileIdentity.of(artifact);
+        }
+
+        String actual;
+        try (InputStream in = Files.newInputStream(artifact)) {
+            actual = DigestUtils.sha512Hex(in);
+        }
+        if (!actual.equalsIgnoreCase(sha512sum)) {
+            return false;
+        }
+        if (identity != null) {
+            verificationCache.putVerified(identity, expectation, started);
+        }
+
+        return true;
+    }
+
+    /**
+     * Locks a key, between the threads of this process and other processes using the same directory,
+     * e.g. to download the artifact only once.
+     *
+     * @param key the key of the artifact
+     * @return the lock, to be closed to release it
+     * @throws IOException if the key cannot be locked
+     */
+    public InterProcessLock lock(String key) throws IOException {
+        return InterProcessLock.acquire(directory.resolve(LOCKS_DIRECTORY).resolve(key));
+    }
+
+    /**
+     * Adds a verified artifact, replacing nothing if the key is cached already (e.g. by another update manager).
+     * Then evicts the least recently used artifacts above the size limit.
+     *
+     * @param key the key of the artifact
+     * @param file the verified artifact, left in place
+     * @throws IOException if the artifact cannot be added
+     */
+    public void put(String key, Path file) throws IOException {
+        Path entry = directory.resolve(key);
+        if (Files.exists(entry)) {
+            return;
+        }
+
+        Files.createDirectories(directory);
+        Path tmp = Files.createTempDirectory(directory, "." + key);
+        try {
+            link(file, tmp.resolve(ARTIFACT_FILE_NAME));
+            try {
+                Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, entry);
+            }
+            log.debug("Added '{}' to artifact cache", key);
+        } catch (IOException e) {
+            if (!Files.isDirectory(entry)) {
+                throw e;
+            }
+            // added concurrently
+        } finally {
+            if (Files.exists(tmp)) {
+                FileUtils.delete(tmp);
+            }
+        }
+
+        evict();
+    }
+
+    /**
+     * Deletes the least recently used artifacts while all of them together are larger than {@link #getMaxSize()}.
+     */
+    public void evict() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                long lastUsed = Files.getLastModifiedTime(path).toMillis();
+                String name = path.getFileName().toString();
+                if (name.equals(LOCKS_DIRECTORY)) {
+                    continue;
+                }
+                if (name.startsWith(".")) {
+                    if (now - lastUsed > MAX_TEMP_AGE) {
+                        FileUtils.delete(path);
+                    }
+                    continue;
+                }
+
+                Path artifact = path.resolve(ARTIFACT_FILE_NAME);
+                entries.add(new Entry(path, lastUsed, Files.exists(artifact) ? Files.size(artifact) : 0));
+            }
+        } catch (IOException e) {
+            log.warn("Cannot list artifact cache '{}'", directory, e);
+            return;
+        }
+
+        entries.sort(Comparator.comparingLong(entry -> entry.lastUsed));
+        long totalSize = entries.stream().mapToLong(entry -> entry.size).sum();
+        for (Entry entry : entries) {
+            if (totalSize <= maxSize) {
+                break;
+            }
+
+            try {
+                FileUtils.delete(entry.path);
+                totalSize -= entry.size;
+                log.debug("Evicted '{}' from artifact cache", entry.path.getFileName());
+            } catch (IOException e) {
+                log.warn("Cannot evict '{}' from artifact cache", entry.path, e);
+            }
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param maxSize the size in bytes of all artifacts above which the least recently used are evicted
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public VerificationCache getVerificationCache() {
+        return verificationCache;
+    }
+
+    /**
+     * Sets where the artifacts that match their checksum are remembered, so that they are not hashed
+     * every time they are served. Defaults to {@link VerificationCache#getShared()}.
+     *
+     * @param verificationCache the cache, or null to hash every artifact served
+     */
+    public void setVerificationCache(VerificationCache verificationCache) {
+        this.verificationCache = verificationCache;
+    }
+
+    private static void link(Path source, Path target) throws IOException {
+        try {
+            Files.createLink(target, source);
+        } catch (FileAlreadyExistsException e) {
+            throw e;
+        } catch (IOException | UnsupportedOperationException e) {
+            // e.g. another file system
+            Files.copy(source, target);
+        }
+    }
+
+    private static class Entry {
+
+        final Path path;
+        final long lastUsed;
+        final long size;
+
+        Entry(Path path, long lastUsed, long size) {
+            this.path = path;
+            this.lastUsed = lastUsed;
+            this.size = size;
+        }
+
+    }
+
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Caches the plugins of any {@link UpdateRepository}, with the freshness windows of HTTP caching:
+ * <ul>
+ *   <li>for {@link #getTtl()} after a load the plugins are served as they are</li>
+ *   <li>for another {@link #getStaleWhileRevalidate()} they are still served, while they are reloaded in the background</li>
+ *   <li>after that, callers wait for a reload; if it fails, the plugins are served for {@link #getStaleIfError()}
+ *   after the TTL, then no plugins at all</li>
+ * </ul>
+ * Only the first load blocks when the windows are large enough. There is at most one reload at a time,
+ * concurrent callers share it, and after a failed reload the next one is not tried before the TTL has passed.
+ * {@link #refresh()} reloads in the background too, the cached plugins are served meanwhile.
+ * <p>
+ * A reload fails when the delegate throws. A {@link DefaultUpdateRepository} answers a failure with its
+ * last known plugins instead, so it is reloaded with {@link DefaultUpdateRepository#fetchPlugins()}.
+ */
+public class CachingUpdateRepository implements UpdateRepository {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingUpdateRepository.class);
+
+    public static final long DEFAULT_TTL = TimeUnit.MINUTES.toMillis(5);
+    public static final long DEFAULT_STALE_WHILE_REVALIDATE = TimeUnit.HOURS.toMillis(1);
+    public static final long DEFAULT_STALE_IF_ERROR = TimeUnit.HOURS.toMillis(24);
+
+    private final UpdateRepository delegate;
+    private final Executor executor;
+    private final LongSupplier nanoTime;
+
+    private long ttl = DEFAULT_TTL;
+    private long staleWhileRevalidate = DEFAULT_STALE_WHILE_REVALIDATE;
+    private long staleIfError = DEFAULT_STALE_IF_ERROR;
+
+    private volatile Map<String, PluginInfo> plugins;
+    private volatile long loadedAt;
+    private long failedAt;
+    private boolean failed;
+    // the reload in flight, shared by all callers
+    private CompletableFuture<Map<String, PluginInfo>> reload;
+
+    public CachingUpdateRepository(UpdateRepository delegate) {
+        this(delegate, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param delegate the repository to cache
+     * @param executor runs the background reloads
+     */
+    public CachingUpdateRepository(UpdateRepository delegate, Executor executor) {
+        this(delegate, executor, System::nanoTime);
+    }
+
+    CachingUpdateRepository(UpdateRepository delegate, Executor executor, LongSupplier nanoTime) {
+        this.delegate = delegate;
+        this.executor = executor;
+        this.nanoTime = nanoTime;
+    }
+
+    @Override
+    public String getId() {
+        return delegate.getId();
+    }
+
+    @Override
+    public URL getUrl() {
+        return delegate.getUrl();
+    }
+
+    @Override
+    public Map<String, PluginInfo> getPlugins() {
+        Map<String, PluginInfo> cached = plugins;
+        if (cached != null) {
+            long age = age(loadedAt);
+            if (age < ttl) {
+                return cached;
+            }
+
+            if (age < ttl + staleWhileRevalidate) {
+                reloadInBackground();
+                return cached;
+            }
+        }
+
+        CompletableFuture<Map<String, PluginInfo>> inFlight = startReload(false);
+        if (inFlight != null) {
+            try {
+                return inFlight.join();
+            } catch (CompletionException e) {
+                // logged by the reload
+            }
+        }
+
+        cached = plugins;
+        if (cached != null && age(loadedAt) < ttl + staleIfError) {
+            return cached;
+        }
+
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public PluginInfo getPlugin(String id) {
+        return getPlugins().get(id);
+    }
+
+    /**
+     * Reloads the plugins in the background, the cached plugins are served meanwhile.
+     */
+    @Override
+    public void refresh() {
+        synchronized (this) {
+            failed = false;
+        }
+        reloadInBackground();
+    }
+
+    @Override
+    public FileDownloader getFileDownloader() {
+        return delegate.getFileDownloader();
+    }
+
+    @Override
+    public FileVerifier getFileVerifier() {
+        return delegate.getFileVerifier();
+    }
+
+    public UpdateRepository getDelegate() {
+        return delegate;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * @param ttl how long in milliseconds loaded plugins are served without reloading them
+     */
+    public void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+    public long getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    /**
+     * @param staleWhileRevalidate how long in milliseconds after the TTL the plugins are served while they are reloaded
+     * in the background
+     */
+    public void setStaleWhileRevalidate(long staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
+    public long getStaleIfError() {
+        return staleIfError;
+    }
+
+    /**
+     * @param staleIfError how long in milliseconds after the TTL the plugins are served if they cannot be reloaded
+     */
+    public void setStaleIfError(long staleIfError) {
+        this.staleIfError = staleIfError;
+    }
+
+    private void reloadInBackground() {
+        CompletableFuture<Map<String, PluginInfo>> started = startReload(true);
+        if (started != null) {
+            executor.execute(() -> load(started));
+        }
+    }
+
+    /**
+     * @param background true to leave the load to the caller if a new reload is started
+     * @return the reload in flight, null if none may be started because the last one failed recently
+     */
+    private CompletableFuture<Map<String, PluginInfo>> startReload(boolean background) {
+        CompletableFuture<Map<String, PluginInfo>> started;
+        synchronized (this) {
+            if (reload != null) {
+                return background ? null : reload;
+            }
+            if (failed && age(failedAt) < ttl) {
+                return null;
+            }
+            reload = started = new CompletableFuture<>();
+        }
+
+        if (!background) {
+            load(started);
+        }
+
+        return started;
+    }
+
+    private void load(CompletableFuture<Map<String, PluginInfo>> started) {
+        try {
+            Map<String, PluginInfo> loaded;
+            if (delegate instanceof DefaultUpdateRepository) {
+                loaded = ((DefaultUpdateRepository) delegate).fetchPlugins();
+            } else {
+                delegate.refresh();
+                loaded = delegate.getPlugins();
+            }
+            if (loaded == null) {
+                throw new IllegalStateException("No plugins");
+            }
+            synchronized (this) {
+                plugins = loaded;
+                loadedAt = nanoTime.getAsLong();
+                failed = false;
+                reload = null;
+            }
+            started.complete(loaded);
+        } catch (RuntimeException e) {
+            log.warn("Cannot reload plugins of repository '{}'", getId(), e);
+            synchronized (this) {
+                failed = true;
+                failedAt = nanoTime.getAsLong();
+                reload = null;
+            }
+            started.completeExceptionally(e);
+        }
+    }
+
+    private long age(long since) {
+        return TimeUnit.NANOSECONDS.toMillis(nanoTime.getAsLong() - since);
+    }
+
+}
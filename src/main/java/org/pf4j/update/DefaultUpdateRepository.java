@@ -17,19 +17,43 @@ package org.pf4j.update;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.pf4j.PluginRuntimeException;
 import org.pf4j.update.PluginInfo.PluginRelease;
+import org.pf4j.update.downloader.MirrorFileDownloader;
+import org.pf4j.update.downloader.MirrorSelector;
+import org.pf4j.update.util.CircuitBreaker;
 import org.pf4j.update.util.LenientDateTypeAdapter;
+import org.pf4j.update.util.RetryPolicy;
+import org.pf4j.update.verifier.ChecksumManifest;
 import org.pf4j.update.verifier.CompoundVerifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
 import java.io.InputStreamReader;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * The default implementation of {@link UpdateRepository}.
@@ -42,12 +66,44 @@ public class DefaultUpdateRepository implements UpdateRepository {
     private static final Logger log = LoggerFactory.getLogger(DefaultUpdateRepository.class);
 
     public static final String DEFAULT_PLUGINS_JSON_FILENAME = "plugins.json";
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10_000;
+    public static final int DEFAULT_READ_TIMEOUT = 30_000;
+
+    // written into the snapshot, a snapshot of another format is ignored
+    static final int SNAPSHOT_FORMAT = 1;
+
+    // revalidates the plugins of a snapshot, not on the common pool that may be busy with other work
+    private static final Executor revalidator = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "pf4j-update-revalidate");
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    private static final Gson snapshotGson = new GsonBuilder()
+        .registerTypeAdapter(Date.class, new EpochMillisTypeAdapter())
+        .create();
 
     private final String id;
     private final URL url;
     private String pluginsJsonFileName;
+    private String checksumsFileName;
+    private List<URL> mirrors;
+    private Boolean hedgeRequests;
+
+    private Integer connectTimeout;
+    private Integer readTimeout;
+
+    private transient RetryPolicy retryPolicy;
+    private transient CircuitBreaker circuitBreaker;
+    private transient MirrorSelector mirrorSelector;
+    private transient SharedCache sharedCache;
+    private transient Path snapshotFile;
+    // the last successfully loaded plugins with their validators, served while the repository is unavailable
+    private transient volatile Snapshot snapshot;
+    private transient boolean snapshotRead;
 
-    private Map<String, PluginInfo> plugins;
+    private volatile Map<String, PluginInfo> plugins;
 
     /**
      * Instantiates a new default update repository. The default plugins JSON file
@@ -80,8 +136,11 @@ public class DefaultUpdateRepository implements UpdateRepository {
 
     @Override
     public Map<String, PluginInfo> getPlugins() {
-        if (plugins == null) {
-            initPlugins();
+        if (plugins == null && readSnapshot()) {
+            // serve the last known plugins right away, revalidate them in the background
+            revalidator.execute(this::initPlugins);
+        } else if (plugins == null) {
+            initPluginsIfNeeded();
         }
 
         return plugins;
@@ -93,24 +152,138 @@ public class DefaultUpdateRepository implements UpdateRepository {
     }
 
     protected InputStream openURL(URL url) throws IOException {
-        return url.openStream();
+        return openConnection(url).getInputStream();
+    }
+
+    protected URLConnection openConnection(URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(getConnectTimeout());
+        connection.setReadTimeout(getReadTimeout());
+
+        return connection;
     }
-    
-    private void initPlugins() {
-        Reader pluginsJsonReader;
+
+    // fetched once for all processes sharing the cache
+    private InputStream openMetadata(URL url) throws IOException {
+        if (sharedCache == null) {
+            return openURL(url);
+        }
+
+        return new ByteArrayInputStream(sharedCache.getMetadata(url, this::readURL));
+    }
+
+    private byte[] readURL(URL url) throws IOException {
+        try (InputStream in = openURL(url)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+
+            return out.toByteArray();
+        }
+    }
+
+    // a caller that waited for another load takes its result
+    private synchronized void initPluginsIfNeeded() {
+        if (plugins == null) {
+            initPlugins();
+        }
+    }
+
+    // one load at a time, e.g. a background revalidation and a load after refresh()
+    private synchronized void initPlugins() {
+        try {
+            fetchPlugins();
+        } catch (PluginRuntimeException e) {
+            log.error("{}, serving its last known plugins", e.getMessage(), e.getCause());
+            plugins = getLastGoodPlugins();
+        }
+    }
+
+    /**
+     * Loads the plugins from the repository (or one of its mirrors) now. Unlike {@link #getPlugins()},
+     * a failure is not answered with the last known plugins, e.g. for a cache that keeps its own.
+     *
+     * @return the plugins
+     * @throws PluginRuntimeException if the plugins cannot be loaded
+     */
+    public synchronized Map<String, PluginInfo> fetchPlugins() {
+        CircuitBreaker circuitBreaker = getCircuitBreaker();
+        if (!circuitBreaker.allowRequest()) {
+            throw new PluginRuntimeException("Repository '{}' is unavailable", id);
+        }
+
         try {
             URL pluginsUrl = new URL(getUrl(), getPluginsJsonFileName());
-            log.debug("Read plugins of '{}' repository from '{}'", id, pluginsUrl);
-            pluginsJsonReader = new InputStreamReader(openURL(pluginsUrl));
+            Snapshot loaded = getRetryPolicy().execute(() -> getMirrorSelector().execute(pluginsUrl, this::loadPlugins));
+            if (loaded != snapshot) {
+                snapshot = loaded;
+                writeSnapshot(loaded);
+            }
+            plugins = loaded.plugins;
+            circuitBreaker.recordSuccess();
+
+            return loaded.plugins;
         } catch (Exception e) {
-            log.error(e.getMessage(), e);
-            plugins = Collections.emptyMap();
-            return;
+            // a missing plugins.json is not a reason to give up on the repository
+            if (e instanceof FileNotFoundException) {
+                circuitBreaker.recordSuccess();
+            } else {
+                circuitBreaker.recordFailure();
+            }
+            throw new PluginRuntimeException(e, "Cannot load the plugins of repository '{}'", id);
+        }
+    }
+
+    private Map<String, PluginInfo> getLastGoodPlugins() {
+        readSnapshot();
+        Snapshot lastGood = snapshot;
+
+        return lastGood != null ? lastGood.plugins : Collections.<String, PluginInfo>emptyMap();
+    }
+
+    private Snapshot loadPlugins(URL pluginsUrl) throws IOException {
+        log.debug("Read plugins of '{}' repository from '{}'", id, pluginsUrl);
+        Snapshot lastGood = snapshot;
+        InputStream in;
+        String etag = null;
+        long lastModified = 0;
+        if (sharedCache == null && snapshotFile != null) {
+            // a conditional request, the plugins of the snapshot are still good if not modified
+            URLConnection connection = openConnection(pluginsUrl);
+            if (connection instanceof HttpURLConnection && lastGood != null && pluginsUrl.toString().equals(lastGood.url)) {
+                if (lastGood.etag != null) {
+                    connection.setRequestProperty("If-None-Match", lastGood.etag);
+                }
+                connection.setIfModifiedSince(lastGood.lastModified);
+                if (((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    log.debug("Plugins of '{}' repository not modified", id);
+                    ((HttpURLConnection) connection).disconnect();
+                    return lastGood;
+                }
+            }
+            in = connection.getInputStream();
+            etag = connection.getHeaderField("ETag");
+            lastModified = connection.getLastModified();
+        } else {
+            in = openMetadata(pluginsUrl);
         }
 
-        Gson gson = new GsonBuilder().registerTypeAdapter(Date.class, new LenientDateTypeAdapter()).create();
-        PluginInfo[] items = gson.fromJson(pluginsJsonReader, PluginInfo[].class);
-        plugins = new HashMap<>(items.length);
+        PluginInfo[] items;
+        try (Reader pluginsJsonReader = new InputStreamReader(in)) {
+            Gson gson = new GsonBuilder().registerTypeAdapter(Date.class, new LenientDateTypeAdapter()).create();
+            items = gson.fromJson(pluginsJsonReader, PluginInfo[].class);
+        } catch (JsonParseException e) {
+            // most likely an incomplete response, worth another try
+            throw new IOException("Failed to parse '" + pluginsUrl + "'", e);
+        }
+
+        ChecksumManifest checksums = checksumsFileName != null ? loadChecksums(pluginsUrl) : null;
+        String checksumsBase = checksums != null ? new URL(new URL(getUrl(), checksumsFileName), ".").toString() : null;
+
+        Map<String, PluginInfo> plugins = new HashMap<>(items.length);
         for (PluginInfo p : items) {
             for (PluginRelease r : p.releases) {
                 try {
@@ -118,6 +291,12 @@ public class DefaultUpdateRepository implements UpdateRepository {
                     if (r.date.getTime() == 0) {
                         log.warn("Illegal release date when parsing {}@{}, setting to epoch", p.id, r.version);
                     }
+                    if (checksums != null && !hasInlineChecksum(r) && r.url.startsWith(checksumsBase)) {
+                        String checksum = checksums.getChecksum(r.url.substring(checksumsBase.length()));
+                        if (checksum != null) {
+                            r.sha512sum = checksum;
+                        }
+                    }
                 } catch (MalformedURLException e) {
                     log.warn("Skipping release {} of plugin {} due to failure to build valid absolute URL. Url was {}{}", r.version, p.id, getUrl(), r.url);
                 }
@@ -126,6 +305,78 @@ public class DefaultUpdateRepository implements UpdateRepository {
             plugins.put(p.id, p);
         }
         log.debug("Found {} plugins in repository '{}'", plugins.size(), id);
+
+        return new Snapshot(pluginsUrl.toString(), etag, lastModified, plugins);
+    }
+
+    // once, unless loaded before; the snapshot is kept in memory after
+    private synchronized boolean readSnapshot() {
+        if (snapshotRead || snapshot != null || snapshotFile == null || !Files.exists(snapshotFile)) {
+            return false;
+        }
+
+        snapshotRead = true;
+        try (Reader in = Files.newBufferedReader(snapshotFile, StandardCharsets.UTF_8)) {
+            Snapshot read = snapshotGson.fromJson(in, Snapshot.class);
+            if (read == null || read.format != SNAPSHOT_FORMAT || read.plugins == null) {
+                // e.g. written by an incompatible version
+                log.warn("Ignoring snapshot '{}' of repository '{}' of another format", snapshotFile, id);
+                return false;
+            }
+            snapshot = read;
+            plugins = read.plugins;
+            log.debug("Read {} plugins of repository '{}' from snapshot '{}'", read.plugins.size(), id, snapshotFile);
+
+            return true;
+        } catch (IOException | JsonParseException e) {
+            log.warn("Cannot read snapshot '{}' of repository '{}'", snapshotFile, id, e);
+            return false;
+        }
+    }
+
+    private void writeSnapshot(Snapshot snapshot) {
+        if (snapshotFile == null) {
+            return;
+        }
+
+        try {
+            Files.createDirectories(snapshotFile.toAbsolutePath().getParent());
+            Path tmp = Files.createTempFile(snapshotFile.toAbsolutePath().getParent(), snapshotFile.getFileName().toString(), ".tmp");
+            try {
+                try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                    snapshotGson.toJson(snapshot, out);
+                }
+                try {
+                    Files.move(tmp, snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            log.warn("Cannot write snapshot '{}' of repository '{}'", snapshotFile, id, e);
+        }
+    }
+
+    // the manifest is optional, without it the checksums are fetched per release
+    private ChecksumManifest loadChecksums(URL pluginsUrl) {
+        try {
+            URL checksumsUrl = new URL(pluginsUrl, checksumsFileName);
+            log.debug("Read checksums of '{}' repository from '{}'", id, checksumsUrl);
+            ChecksumManifest checksums = ChecksumManifest.read(openMetadata(checksumsUrl), checksumsFileName.endsWith(".gz"));
+            log.debug("Found {} checksums in repository '{}'", checksums.size(), id);
+
+            return checksums;
+        } catch (IOException e) {
+            log.warn("Cannot read checksums '{}' of repository '{}': {}", checksumsFileName, id, e.getMessage());
+            return null;
+        }
+    }
+
+    private static boolean hasInlineChecksum(PluginRelease release) {
+        return release.sha512sum != null && !release.sha512sum.equalsIgnoreCase(".sha512")
+            && !release.sha512sum.startsWith("http");
     }
 
     /**
@@ -136,9 +387,21 @@ public class DefaultUpdateRepository implements UpdateRepository {
         plugins = null;
     }
 
+    /**
+     * Returns a {@link MirrorFileDownloader} if the repository has mirrors,
+     * a {@link SimpleFileDownloader} otherwise.
+     */
     @Override
     public FileDownloader getFileDownloader() {
-        return new SimpleFileDownloader();
+        SimpleFileDownloader fileDownloader = new SimpleFileDownloader();
+        if (getMirrors().isEmpty()) {
+            return fileDownloader;
+        }
+
+        // failing over to another mirror comes first, the mirror downloader retries the whole round
+        fileDownloader.setRetryPolicy(RetryPolicy.none());
+
+        return new MirrorFileDownloader(getMirrorSelector(), fileDownloader);
     }
 
     /**
@@ -164,6 +427,166 @@ public class DefaultUpdateRepository implements UpdateRepository {
         return pluginsJsonFileName;
     }
 
+    /**
+     * Gets the name of the checksum manifest of this repository, e.g. {@code SHA512SUMS} or {@code SHA512SUMS.gz}.
+     * The manifest is read together with the plugins json file; releases without an inline
+     * SHA-512 checksum get their checksum from it instead of fetching a checksum file per release.
+     *
+     * @return the file name (relative to the repository URL), or null if the repository has no manifest
+     */
+    public String getChecksumsFileName() {
+        return checksumsFileName;
+    }
+
+    /**
+     * @param checksumsFileName the name of the checksum manifest, gzip compressed if it ends with {@code .gz},
+     *                          or null for none
+     */
+    public void setChecksumsFileName(String checksumsFileName) {
+        this.checksumsFileName = checksumsFileName;
+    }
+
+    /**
+     * Gets the URLs of the mirrors of this repository, in addition to {@link #getUrl()}.
+     * Release URLs below the repository URL are served from the same path below the mirror URLs.
+     *
+     * @return the mirror URLs, never null
+     */
+    public List<URL> getMirrors() {
+        return mirrors != null ? mirrors : Collections.<URL>emptyList();
+    }
+
+    public void setMirrors(List<URL> mirrors) {
+        this.mirrors = mirrors;
+        mirrorSelector = null;
+    }
+
+    /**
+     * @return true if a hedged request is sent to a second mirror when the best one is slow
+     */
+    public boolean isHedgeRequests() {
+        return hedgeRequests != null && hedgeRequests;
+    }
+
+    public void setHedgeRequests(boolean hedgeRequests) {
+        this.hedgeRequests = hedgeRequests;
+        mirrorSelector = null;
+    }
+
+    /**
+     * Gets the selector of the best mirror, which keeps the latency and failure statistics of the mirrors.
+     *
+     * @return the mirror selector, the primary mirror is {@link #getUrl()}
+     */
+    public synchronized MirrorSelector getMirrorSelector() {
+        if (mirrorSelector == null) {
+            List<URL> urls = new ArrayList<>();
+            urls.add(url);
+            for (URL mirror : getMirrors()) {
+                if (!mirror.toString().equals(url.toString())) {
+                    urls.add(mirror);
+                }
+            }
+            mirrorSelector = new MirrorSelector(urls).setHedging(isHedgeRequests());
+        }
+
+        return mirrorSelector;
+    }
+
+    /**
+     * Gets the connect timeout for reading the plugins json file.
+     *
+     * @return the timeout in milliseconds
+     */
+    public int getConnectTimeout() {
+        return connectTimeout != null ? connectTimeout : DEFAULT_CONNECT_TIMEOUT;
+    }
+
+    /**
+     * @param connectTimeout the timeout in milliseconds, 0 for infinite
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * Gets the read timeout for reading the plugins json file.
+     *
+     * @return the timeout in milliseconds
+     */
+    public int getReadTimeout() {
+        return readTimeout != null ? readTimeout : DEFAULT_READ_TIMEOUT;
+    }
+
+    /**
+     * @param readTimeout the timeout in milliseconds, 0 for infinite
+     */
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Gets the policy to retry reading the plugins json file. Defaults to {@link RetryPolicy}.
+     *
+     * @return the retry policy
+     */
+    public RetryPolicy getRetryPolicy() {
+        if (retryPolicy == null) {
+            retryPolicy = new RetryPolicy();
+        }
+
+        return retryPolicy;
+    }
+
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Gets the circuit breaker of this repository. While it is open, the repository
+     * is not asked and the last known plugins are served instead.
+     *
+     * @return the circuit breaker
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        if (circuitBreaker == null) {
+            circuitBreaker = new CircuitBreaker(id);
+        }
+
+        return circuitBreaker;
+    }
+
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public Path getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    /**
+     * Keeps the last good plugins of this repository, with the validators of {@code plugins.json}, in a file.
+     * Read at the first {@link #getPlugins()}, the plugins of the snapshot are served right away while they are
+     * revalidated (with a conditional request) in the background, and whenever the repository is unavailable.
+     *
+     * @param snapshotFile the snapshot file, or null for no snapshot
+     */
+    public void setSnapshotFile(Path snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+    public SharedCache getSharedCache() {
+        return sharedCache;
+    }
+
+    /**
+     * @param sharedCache the cache to share {@code plugins.json} and the checksum manifest with other processes,
+     * or null to always fetch them
+     */
+    public void setSharedCache(SharedCache sharedCache) {
+        this.sharedCache = sharedCache;
+    }
+
     /**
      * Choose another file name than {@code plugins.json}.
      *
@@ -174,4 +597,47 @@ public class DefaultUpdateRepository implements UpdateRepository {
         this.pluginsJsonFileName = pluginsJsonFileName;
     }
 
+    // the parsed plugins.json, with its validators, written as JSON
+    private static class Snapshot {
+
+        final int format;
+        final String url;
+        final String etag;
+        final long lastModified;
+        final Map<String, PluginInfo> plugins;
+
+        Snapshot(String url, String etag, long lastModified, Map<String, PluginInfo> plugins) {
+            this.format = SNAPSHOT_FORMAT;
+            this.url = url;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.plugins = plugins;
+        }
+
+    }
+
+    // exact and independent of the locale, unlike the dates of plugins.json
+    private static class EpochMillisTypeAdapter extends TypeAdapter<Date> {
+
+        @Override
+        public void write(JsonWriter out, Date value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+            } else {
+                out.value(value.getTime());
+            }
+        }
+
+        @Override
+        public Date read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            return new Date(in.nextLong());
+        }
+
+    }
+
 }
@@ -36,4 +36,19 @@ public interface FileDownloader {
      */
     Path downloadFile(URL fileUrl) throws IOException;
 
+    /**
+     * Downloads a range of a file again into a file downloaded before, e.g. to replace a damaged chunk.
+     * Not supported by default.
+     *
+     * @param fileUrl the URL representing the file to download
+     * @param file the file downloaded before by {@link #downloadFile(URL)}
+     * @param offset the offset of the range in bytes
+     * @param length the length of the range in bytes
+     * @return true if the range was written to the file, false if ranges are not supported
+     * @throws IOException if there was an IO problem during download
+     */
+    default boolean downloadRange(URL fileUrl, Path file, long offset, long length) throws IOException {
+        return false;
+    }
+
 }
@@ -15,6 +15,8 @@
  */
 package org.pf4j.update;
 
+import org.pf4j.update.util.CancellationToken;
+
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Date;
@@ -36,6 +38,15 @@ public interface FileVerifier {
      */
     void verify(Context context, Path file) throws IOException, VerifyException;
 
+    /**
+     * Called when the download of the file starts, so that the verifier can fetch what it needs
+     * (e.g. a checksum file) in parallel with the download. Does nothing by default.
+     *
+     * @param context the file verifier context object
+     */
+    default void prepare(Context context) {
+    }
+
     /**
      * Context to be passed to file verifiers
      */
@@ -47,7 +58,13 @@ public interface FileVerifier {
         public String requires;
         public String url;
         public String sha512sum;
+        public String sha256sum;
+        public String crc32;
+        public String chunks;
+        public String chunksRoot;
         public Map<String, Object> meta = new HashMap<>();
+        // stops the verification (e.g. hashing, fetching a checksum file) when cancelled, null if it cannot be cancelled
+        public CancellationToken cancellationToken;
 
         public Context(String id, PluginInfo.PluginRelease pluginRelease) {
             this.id = id;
@@ -56,6 +73,10 @@ public interface FileVerifier {
             this.requires = pluginRelease.requires;
             this.url = pluginRelease.url;
             this.sha512sum = pluginRelease.sha512sum;
+            this.sha256sum = pluginRelease.sha256sum;
+            this.crc32 = pluginRelease.crc32;
+            this.chunks = pluginRelease.chunks;
+            this.chunksRoot = pluginRelease.chunksRoot;
         }
 
         public Context(String id, Date date, String version, String requires, String url, String sha512sum) {
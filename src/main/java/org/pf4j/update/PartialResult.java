@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update;
+
+import java.util.List;
+
+/**
+ * The result of a query of the repositories under a deadline, from the repositories that answered in time.
+ *
+ * @param <T> the type of the result
+ */
+public class PartialResult<T> {
+
+    private final T result;
+    private final List<String> timedOutRepositories;
+
+    public PartialResult(T result, List<String> timedOutRepositories) {
+        this.result = result;
+        this.timedOutRepositories = timedOutRepositories;
+    }
+
+    /**
+     * @return the result from the repositories that answered in time
+     */
+    public T getResult() {
+        return result;
+    }
+
+    /**
+     * @return the ids of the repositories that did not answer in time, they keep loading in the background
+     */
+    public List<String> getTimedOutRepositories() {
+        return timedOutRepositories;
+    }
+
+    /**
+     * @return true if all repositories answered in time
+     */
+    public boolean isComplete() {
+        return timedOutRepositories.isEmpty();
+    }
+
+}
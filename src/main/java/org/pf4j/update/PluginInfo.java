@@ -80,6 +80,32 @@ public class PluginInfo implements Serializable, Comparable<PluginInfo> {
          */
         public String sha512sum;
 
+        /**
+         * Optional sha256 digest checksum (hex), cheaper to compute than sha512 on CPUs with SHA extensions.
+         */
+        public String sha256sum;
+
+        /**
+         * Optional CRC32 checksum (hex), a fast pre-check against damaged downloads that offers no protection
+         * against tampering.
+         */
+        public String crc32;
+
+        /**
+         * Optional chunk hash manifest (see {@code ChunkManifest}), to verify large files chunk by chunk
+         * in parallel and to fetch only damaged chunks again. Can be one of
+         * <ul>
+         *   <li>URL to the manifest</li>
+         *   <li>".chunks" as a shortcut for saying download a &lt;filename&gt;.chunks file next to the zip/jar file</li>
+         * </ul>
+         */
+        public String chunks;
+
+        /**
+         * Optional root hash (hex) of the chunk manifest, so that the manifest cannot be exchanged.
+         */
+        public String chunksRoot;
+
         @Override
         public String toString() {
             return "PluginRelease{" +
@@ -88,6 +114,10 @@ public class PluginInfo implements Serializable, Comparable<PluginInfo> {
                 ", requires='" + requires + '\'' +
                 ", url='" + url + '\'' +
                 ", sha512sum='" + sha512sum + '\'' +
+                ", sha256sum='" + sha256sum + '\'' +
+                ", crc32='" + crc32 + '\'' +
+                ", chunks='" + chunks + '\'' +
+                ", chunksRoot='" + chunksRoot + '\'' +
                 '}';
         }
 
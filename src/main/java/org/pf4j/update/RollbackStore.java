@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the artifacts of the last versions of every plugin, so that a plugin can be rolled back
+ * without downloading and verifying an old release again.
+ * <p>
+ * Artifacts are stored by their SHA-512 checksum, an artifact kept for several versions or plugins is stored once.
+ * They are hard linked into the store and out of it again if possible, else copied. A restored version stays
+ * kept until it is {@link #remove(String, String) removed}, e.g. once the restored artifact is installed.
+ * Of every plugin the last {@link #getMaxVersions()} versions are kept.
+ */
+public class RollbackStore {
+
+    private static final Logger log = LoggerFactory.getLogger(RollbackStore.class);
+
+    public static final String DEFAULT_DIRECTORY = ".pf4j-update/rollback";
+    public static final int DEFAULT_MAX_VERSIONS = 3;
+
+    private static final String INDEX_FILE_NAME = "index.json";
+    private static final String ARTIFACTS_DIRECTORY = "artifacts";
+
+    private final Path directory;
+    private int maxVersions = DEFAULT_MAX_VERSIONS;
+    // plugin id -> kept versions, most recently kept first
+    private Map<String, List<Entry>> index;
+
+    public RollbackStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param pluginsRoot the plugins folder
+     * @return a rollback store in {@value #DEFAULT_DIRECTORY} below the plugins folder, on the same file system
+     */
+    public static RollbackStore forPluginsRoot(Path pluginsRoot) {
+        return new RollbackStore(pluginsRoot.resolve(DEFAULT_DIRECTORY));
+    }
+
+    /**
+     * Keeps the artifact of a plugin version, replacing the one kept for the same version before.
+     * The oldest versions of the plugin above {@link #getMaxVersions()} are dropped.
+     *
+     * @param pluginId the id of the plugin
+     * @param version the version of the plugin
+     * @param artifact the installed zip or jar of the plugin, left in place
+     * @param expectedSha512sum the SHA-512 checksum (hex) the release was verified with, or null if not known
+     * @return true if kept, false if the artifact does not match the expected checksum
+     * @throws IOException if the artifact cannot be read or stored
+     */
+    public synchronized boolean keep(String pluginId, String version, Path artifact, String expectedSha512sum) throws IOException {
+        String checksum = checksum(artifact);
+        if (expectedSha512sum != null && !expectedSha512sum.equalsIgnoreCase(checksum)) {
+            log.warn("Artifact '{}' of plugin '{}@{}' does not match its release, not kept", artifact, pluginId, version);
+            return false;
+        }
+
+        Path stored = getArtifactsDirectory().resolve(checksum);
+        if (!Files.exists(stored)) {
+            Files.createDirectories(stored.getParent());
+            Path tmp = Files.createTempFile(stored.getParent(), checksum, ".tmp");
+            try {
+                Files.delete(tmp);
+                try {
+                    Files.createLink(tmp, artifact);
+                } catch (IOException | UnsupportedOperationException e) {
+                    Files.copy(artifact, tmp);
+                }
+                rename(tmp, stored);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+
+        List<Entry> entries = getIndex().computeIfAbsent(pluginId, id -> new ArrayList<>());
+        entries.removeIf(entry -> entry.version.equals(version));
+        entries.add(0, new Entry(version, checksum, artifact.getFileName().toString()));
+        List<Entry> dropped = new ArrayList<>();
+        while (entries.size() > maxVersions) {
+            dropped.add(entries.remove(entries.size() - 1));
+        }
+        writeIndex();
+        for (Entry entry : dropped) {
+            deleteIfUnused(entry.checksum);
+        }
+        log.debug("Kept '{}' for rollback of plugin '{}@{}'", artifact, pluginId, version);
+
+        return true;
+    }
+
+    /**
+     * Links (or copies) a kept artifact out of the store. The version stays kept, so that it is not lost
+     * if installing the restored artifact fails; {@link #remove(String, String) remove} it once installed.
+     *
+     * @param pluginId the id of the plugin
+     * @param version the version to restore, or null for the most recently kept one
+     * @param directory the directory to restore the artifact to, with the file name it was installed with
+     * @return the restored artifact, or null if the version is not kept
+     * @throws IOException if the artifact cannot be linked or copied
+     */
+    public synchronized Path restore(String pluginId, String version, Path directory) throws IOException {
+        Entry entry = find(getIndex().get(pluginId), version);
+        if (entry == null) {
+            return null;
+        }
+
+        Path stored = getArtifactsDirectory().resolve(entry.checksum);
+        Path restored = directory.resolve(entry.fileName);
+        Files.deleteIfExists(restored);
+        try {
+            Files.createLink(restored, stored);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(stored, restored);
+        }
+        log.debug("Restored plugin '{}@{}' to '{}'", pluginId, entry.version, restored);
+
+        return restored;
+    }
+
+    /**
+     * Stops keeping a version of a plugin. The artifact is deleted unless it is kept for another version too.
+     *
+     * @param pluginId the id of the plugin
+     * @param version the version, or null for the most recently kept one
+     * @return true if the version was kept
+     * @throws IOException if the index cannot be written
+     */
+    public synchronized boolean remove(String pluginId, String version) throws IOException {
+        List<Entry> entries = getIndex().get(pluginId);
+        Entry entry = find(entries, version);
+        if (entry == null) {
+            return false;
+        }
+
+        entries.remove(entry);
+        writeIndex();
+        deleteIfUnused(entry.checksum);
+
+        return true;
+    }
+
+    /**
+     * @param pluginId the id of the plugin
+     * @return the kept versions of the plugin, most recently kept first
+     */
+    public synchronized List<String> getVersions(String pluginId) {
+        List<Entry> entries = getIndex().get(pluginId);
+        if (entries == null) {
+            return new ArrayList<>();
+        }
+
+        return entries.stream().map(entry -> entry.version).collect(Collectors.toList());
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public int getMaxVersions() {
+        return maxVersions;
+    }
+
+    /**
+     * @param maxVersions the number of versions kept of every plugin
+     */
+    public void setMaxVersions(int maxVersions) {
+        this.maxVersions = maxVersions;
+    }
+
+    private Path getArtifactsDirectory() {
+        return directory.resolve(ARTIFACTS_DIRECTORY);
+    }
+
+    private Map<String, List<Entry>> getIndex() {
+        if (index == null) {
+            index = readIndex();
+        }
+
+        return index;
+    }
+
+    private Map<String, List<Entry>> readIndex() {
+        Path file = directory.resolve(INDEX_FILE_NAME);
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                Map<String, List<Entry>> entries = new Gson().fromJson(reader, new TypeToken<HashMap<String, List<Entry>>>() {}.getType());
+                if (entries != null) {
+                    // artifacts may have been deleted by hand
+                    for (List<Entry> list : entries.values()) {
+                        list.removeIf(entry -> !Files.exists(getArtifactsDirectory().resolve(entry.checksum)));
+                    }
+
+                    return entries;
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn("Cannot read rollback index '{}', starting empty", file, e);
+            }
+        }
+
+        return new HashMap<>();
+    }
+
+    private void writeIndex() throws IOException {
+        Files.createDirectories(directory);
+        Path tmp = Files.createTempFile(directory, INDEX_FILE_NAME, ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                new Gson().toJson(index, writer);
+            }
+            rename(tmp, directory.resolve(INDEX_FILE_NAME));
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private Entry find(List<Entry> entries, String version) {
+        if (entries == null || entries.isEmpty()) {
+            return null;
+        }
+
+        if (version == null) {
+            return entries.get(0);
+        }
+
+        for (Entry entry : entries) {
+            if (entry.version.equals(version)) {
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+    private boolean isUsed(String checksum) {
+        for (List<Entry> entries : getIndex().values()) {
+            for (Entry entry : entries) {
+                if (entry.checksum.equals(checksum)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private void deleteIfUnused(String checksum) {
+        if (isUsed(checksum)) {
+            return;
+        }
+
+        try {
+            Files.deleteIfExists(getArtifactsDirectory().resolve(checksum));
+        } catch (IOException e) {
+            log.warn("Cannot delete artifact '{}' from rollback store", checksum, e);
+        }
+    }
+
+    private static void rename(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String checksum(Path file) throws IOException {
+        MessageDigest digest = DigestUtils.getSha512Digest();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    private static class Entry {
+
+        String version;
+        String checksum;
+        String fileName;
+
+        Entry(String version, String checksum, String fileName) {
+            this.version = version;
+            this.checksum = checksum;
+            this.fileName = fileName;
+        }
+
+    }
+
+}
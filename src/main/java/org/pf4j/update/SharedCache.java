@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.pf4j.update.util.InterProcessLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cache directory shared by the update managers of several processes on a host, for repository metadata
+ * ({@code plugins.json}, checksum manifests) and verified artifacts. Of concurrent fetches of the same
+ * metadata or artifact one process fetches, the others wait for it and reuse its result.
+ * <p>
+ * Processes coordinate with file locks in {@code .locks}, results are published with atomic renames.
+ * The directory should be on a local file system, file locks on network file systems are not reliable.
+ *
+ * @see UpdateManager#setSharedCache(SharedCache)
+ */
+public class SharedCache {
+
+    private static final Logger log = LoggerFactory.getLogger(SharedCache.class);
+
+    public static final long DEFAULT_METADATA_MAX_AGE = TimeUnit.MINUTES.toMillis(1);
+
+    private final Path directory;
+    private final ArtifactCache artifactCache;
+    private long metadataMaxAge = DEFAULT_METADATA_MAX_AGE;
+
+    /**
+     * Fetches metadata, e.g. by opening the URL.
+     */
+    public interface MetadataLoader {
+
+        byte[] load(URL url) throws IOException;
+
+    }
+
+    public SharedCache(Path directory) {
+        this.directory = directory;
+        artifactCache = new ArtifactCache(directory.resolve("artifacts"));
+    }
+
+    /**
+     * Gets metadata fetched by any process less than {@link #getMetadataMaxAge()} ago, else fetches it.
+     * While another process fetches the same URL, waits for its result.
+     *
+     * @param url the URL of the metadata
+     * @param loader fetches the metadata if needed
+     * @return the metadata
+     * @throws IOException if the metadata cannot be fetched
+     */
+    @SuppressWarnings("try")
+    public byte[] getMetadata(URL url, MetadataLoader loader) throws IOException {
+        String key = DigestUtils.sha256Hex(url.toString());
+        Path file = directory.resolve("metadata").resolve(key);
+        try (InterProcessLock lock = InterProcessLock.acquire(directory.resolve(ArtifactCache.LOCKS_DIRECTORY).resolve("metadata-" + key))) {
+            if (Files.exists(file) && System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis() < metadataMaxAge) {
+                log.debug("Reuse '{}' from shared cache", url);
+                return Files.readAllBytes(file);
+            }
+
+            byte[] metadata = loader.load(url);
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), key, ".tmp");
+            try {
+                Files.write(tmp, metadata);
+                try {
+                    Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+
+            return metadata;
+        }
+    }
+
+    /**
+     * @return the cache of verified artifacts in {@code artifacts}, locking between processes
+     */
+    public ArtifactCache getArtifactCache() {
+        return artifactCache;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getMetadataMaxAge() {
+        return metadataMaxAge;
+    }
+
+    /**
+     * @param metadataMaxAge how long in milliseconds metadata fetched by any process is reused
+     */
+    public void setMetadataMaxAge(long metadataMaxAge) {
+        this.metadataMaxAge = metadataMaxAge;
+    }
+
+}
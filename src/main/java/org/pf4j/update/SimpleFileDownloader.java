@@ -16,32 +16,70 @@
 package org.pf4j.update;
 
 import org.pf4j.PluginRuntimeException;
+import org.pf4j.update.downloader.BandwidthLimiter;
+import org.pf4j.update.downloader.DownloadPriority;
+import org.pf4j.update.downloader.DownloadScheduler;
+import org.pf4j.update.util.CancellationToken;
+import org.pf4j.update.util.CancelledException;
+import org.pf4j.update.util.CircuitBreaker;
+import org.pf4j.update.util.CircuitBreakerOpenException;
+import org.pf4j.update.util.CircuitBreakerRegistry;
+import org.pf4j.update.util.RetryPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileOutputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.ConnectException;
 import java.net.HttpURLConnection;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.FileTime;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * Downloads a file from a URL.
  *
  * @author Decebal Suiu
  */
-public class SimpleFileDownloader implements FileDownloader {
+public class SimpleFileDownloader implements FileDownloader, Cloneable {
 
     private static final Logger log = LoggerFactory.getLogger(SimpleFileDownloader.class);
 
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10_000;
+    public static final int DEFAULT_READ_TIMEOUT = 30_000;
+
+    // closing a connection can block until a pending read returns, so never on the thread that cancels
+    private static final Executor disconnector = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "pf4j-update-disconnect");
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private int readTimeout = DEFAULT_READ_TIMEOUT;
+    private RetryPolicy retryPolicy = new RetryPolicy();
+    private CircuitBreakerRegistry circuitBreakers;
+    private BandwidthLimiter bandwidthLimiter;
+    private DownloadScheduler downloadScheduler;
+    private DownloadPriority priority = DownloadPriority.USER;
+    private String repositoryId;
+    private StagingArea stagingArea;
+    private CancellationToken cancellationToken;
+
     /**
      * Downloads a file. If HTTP(S) or FTP, stream content, if local file:/ do a simple filesystem copy to tmp folder.
      * Other protocols not supported.
@@ -73,8 +111,7 @@ public class SimpleFileDownloader implements FileDownloader {
      * @throws PluginRuntimeException in case of other problems
      */
     protected Path copyLocalFile(URL fileUrl) throws IOException {
-        Path destination = Files.createTempDirectory("pf4j-update-downloader");
-        destination.toFile().deleteOnExit();
+        Path destination = createDestination();
 
         try {
             Path fromFile = Paths.get(fileUrl.toURI());
@@ -97,57 +134,501 @@ public class SimpleFileDownloader implements FileDownloader {
      * @throws IOException if IO problems
      * @throws PluginRuntimeException if validation fails or any other problems
      */
+    @SuppressWarnings("try")
     protected Path downloadFileHttp(URL fileUrl) throws IOException {
-        Path destination = Files.createTempDirectory("pf4j-update-downloader");
-        destination.toFile().deleteOnExit();
+        Path destination = createDestination();
 
         String path = fileUrl.getPath();
         String fileName = path.substring(path.lastIndexOf('/') + 1);
         Path file = destination.resolve(fileName);
 
+        long lastModified;
+        // stops waiting for a permit, a retry or the off-peak window when cancelled
+        try (CancellationToken.Registration ignored = interruptOnCancel()) {
+            Transfer transfer;
+            while ((transfer = retryPolicy.execute(() -> transferFileHttp(fileUrl, file))).isDeferred()) {
+                // without a permit and without a connection
+                bandwidthLimiter.awaitTransferWindow(transfer.size);
+            }
+            lastModified = transfer.lastModified;
+        } catch (IOException e) {
+            Files.deleteIfExists(file);
+            if (stagingArea != null) {
+                stagingArea.release(destination);
+            }
+            throw e;
+        }
+
+        log.debug("Set last modified of '{}' to '{}'", file, lastModified);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(lastModified));
+
+        return file;
+    }
+
+    /**
+     * Creates the directory to download a file to, in the staging area if set, else in the system temp folder.
+     *
+     * @return the new directory
+     * @throws IOException if the directory cannot be created
+     */
+    protected Path createDestination() throws IOException {
+        if (stagingArea != null) {
+            return stagingArea.createDirectory("download-");
+        }
+
+        Path destination = Files.createTempDirectory("pf4j-update-downloader");
+        destination.toFile().deleteOnExit();
+
+        return destination;
+    }
+
+    /**
+     * One attempt to transfer a file from HTTP or FTP.
+     *
+     * @param fileUrl source file
+     * @param file the target file, overwritten if it exists
+     * @return the last modified time of the remote file, or the size of a transfer deferred to the off-peak window
+     * @throws IOException if IO problems, also if the body is shorter than announced
+     */
+    @SuppressWarnings("try")
+    private Transfer transferFileHttp(URL fileUrl, Path file) throws IOException {
+        throwIfCancelled();
+        DownloadScheduler.Permit permit = downloadScheduler != null
+            ? downloadScheduler.acquire(priority, repositoryId, fileUrl.getHost())
+            : null;
+
+        CircuitBreaker circuitBreaker = circuitBreakers != null ? circuitBreakers.get(fileUrl.getHost()) : null;
+        if (circuitBreaker != null) {
+            try {
+                circuitBreaker.checkRequest();
+            } catch (CircuitBreakerOpenException e) {
+                if (permit != null) {
+                    permit.close();
+                }
+                throw e;
+            }
+        }
+
         // set up the URL connection
         URLConnection connection = fileUrl.openConnection();
+        connection.setConnectTimeout(capTimeout(connectTimeout));
+        connection.setReadTimeout(capTimeout(readTimeout));
+        // whether the circuit breaker got the outcome of the request
+        boolean reported = false;
+        try (CancellationToken.Registration ignored = disconnectOnCancel(connection)) {
+            // connect to the remote site (may takes some time)
+            connection.connect();
+
+            // check for http authorization
+            if (connection instanceof HttpURLConnection
+                && ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_UNAUTHORIZED) {
+                throw new ConnectException("HTTP Authorization failure");
+            }
+
+            // large transfers may have to wait for the off-peak window (don't keep the connection open meanwhile)
+            long contentLength = connection.getContentLengthLong();
+            if (bandwidthLimiter != null && !bandwidthLimiter.getTransferDelay(contentLength).isZero()) {
+                disconnect(connection);
+                if (circuitBreaker != null) {
+                    circuitBreaker.recordSuccess();
+                    reported = true;
+                }
+
+                return Transfer.deferred(contentLength);
+            }
+
+            // try to get the server-specified last-modified date of this artifact
+            long lastModified = connection.getHeaderFieldDate("Last-Modified", System.currentTimeMillis());
+
+            // read from remote resource and write to the local file
+            long count = 0;
+            InputStream is = connection.getInputStream();
+            if (bandwidthLimiter != null) {
+                is = bandwidthLimiter.throttle(is, repositoryId, fileUrl);
+            }
+            try (InputStream in = is; OutputStream os = Files.newOutputStream(file)) {
+                byte[] buffer = new byte[1024];
+                int length;
+                while ((length = in.read(buffer)) >= 0) {
+                    throwIfCancelled();
+                    os.write(buffer, 0, length);
+                    count += length;
+                }
+            }
+            if (contentLength >= 0 && count != contentLength) {
+                throw new EOFException("Premature end of '" + fileUrl + "', got " + count + " of " + contentLength + " bytes");
+            }
+
+            if (circuitBreaker != null) {
+                circuitBreaker.recordSuccess();
+                reported = true;
+            }
+            if (permit != null) {
+                permit.recordSuccess(count);
+            }
 
-        // connect to the remote site (may takes some time)
-        connection.connect();
+            return Transfer.done(lastModified);
+        } catch (IOException e) {
+            disconnect(connection);
+            if (isCancelled()) {
+                // not the fault of the host, and not worth a retry
+                throw new CancelledException("Transfer of '" + fileUrl + "' cancelled", e);
+            }
+            log.debug("Transfer of '{}' failed: {}", fileUrl, e.getMessage());
+            if (circuitBreaker != null) {
+                // a missing file is not the fault of the host
+                if (e instanceof FileNotFoundException) {
+                    circuitBreaker.recordSuccess();
+                } else {
+                    circuitBreaker.recordFailure();
+                }
+                reported = true;
+            }
+            if (permit != null && !(e instanceof FileNotFoundException)) {
+                permit.recordFailure();
+            }
+            throw e;
+        } finally {
+            if (circuitBreaker != null && !reported) {
+                // cancelled or failed unexpectedly, a probe must not keep the circuit half-open
+                circuitBreaker.releaseProbe();
+            }
+            if (permit != null) {
+                permit.close();
+            }
+        }
+    }
 
-        // check for http authorization
-        HttpURLConnection httpConnection = (HttpURLConnection) connection;
-        if (httpConnection.getResponseCode() == HttpURLConnection.HTTP_UNAUTHORIZED) {
-            throw new ConnectException("HTTP Authorization failure");
+    /**
+     * Downloads a range of a file from HTTP(S) again, with a {@code Range} request.
+     * Ranges of other protocols are not supported.
+     *
+     * @param fileUrl source file
+     * @param file the file downloaded before
+     * @param offset the offset of the range in bytes
+     * @param length the length of the range in bytes
+     * @return true if the range was written to the file, false if not supported
+     * @throws IOException if IO problems, also if the server ignores the range
+     */
+    @Override
+    public boolean downloadRange(URL fileUrl, Path file, long offset, long length) throws IOException {
+        if (!fileUrl.getProtocol().startsWith("http")) {
+            return false;
         }
 
-        // try to get the server-specified last-modified date of this artifact
-        long lastModified = httpConnection.getHeaderFieldDate("Last-Modified", System.currentTimeMillis());
+        retryPolicy.execute(() -> transferRangeHttp(fileUrl, file, offset, length));
+
+        return true;
+    }
+
+    // takes a permit and is throttled like a whole transfer, but never waits for the off-peak window
+    @SuppressWarnings("try")
+    private Void transferRangeHttp(URL fileUrl, Path file, long offset, long length) throws IOException {
+        throwIfCancelled();
+        DownloadScheduler.Permit permit = downloadScheduler != null
+            ? downloadScheduler.acquire(priority, repositoryId, fileUrl.getHost())
+            : null;
 
-        // try to get the input stream (three times)
-        InputStream is = null;
-        for (int i = 0; i < 3; i++) {
+        CircuitBreaker circuitBreaker = circuitBreakers != null ? circuitBreakers.get(fileUrl.getHost()) : null;
+        if (circuitBreaker != null) {
             try {
-                is = connection.getInputStream();
-                break;
-            } catch (IOException e) {
-                log.error(e.getMessage(), e);
+                circuitBreaker.checkRequest();
+            } catch (CircuitBreakerOpenException e) {
+                if (permit != null) {
+                    permit.close();
+                }
+                throw e;
+            }
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) fileUrl.openConnection();
+        connection.setConnectTimeout(capTimeout(connectTimeout));
+        connection.setReadTimeout(capTimeout(readTimeout));
+        connection.setRequestProperty("Range", "bytes=" + offset + "-" + (offset + length - 1));
+        boolean reported = false;
+        try (CancellationToken.Registration ignored = disconnectOnCancel(connection)) {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("Range request for '" + fileUrl + "' answered with " + connection.getResponseCode());
+            }
+
+            long count = 0;
+            InputStream is = connection.getInputStream();
+            if (bandwidthLimiter != null) {
+                is = bandwidthLimiter.throttle(is, repositoryId, fileUrl);
+            }
+            try (InputStream in = is;
+                 FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while (count < length && (read = in.read(buffer, 0, (int) Math.min(buffer.length, length - count))) >= 0) {
+                    throwIfCancelled();
+                    ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+                    while (data.hasRemaining()) {
+                        channel.write(data, offset + count + data.position());
+                    }
+                    count += read;
+                }
+            }
+            if (count != length) {
+                throw new EOFException("Premature end of range of '" + fileUrl + "', got " + count + " of " + length + " bytes");
+            }
+
+            if (circuitBreaker != null) {
+                circuitBreaker.recordSuccess();
+                reported = true;
+            }
+            if (permit != null) {
+                permit.recordSuccess(count);
+            }
+
+            return null;
+        } catch (IOException e) {
+            connection.disconnect();
+            if (isCancelled()) {
+                throw new CancelledException("Range transfer of '" + fileUrl + "' cancelled", e);
+            }
+            log.debug("Range transfer of '{}' failed: {}", fileUrl, e.getMessage());
+            if (circuitBreaker != null) {
+                circuitBreaker.recordFailure();
+                reported = true;
+            }
+            if (permit != null) {
+                permit.recordFailure();
+            }
+            throw e;
+        } finally {
+            if (circuitBreaker != null && !reported) {
+                circuitBreaker.releaseProbe();
+            }
+            if (permit != null) {
+                permit.close();
             }
         }
-        if (is == null) {
-            throw new ConnectException("Can't get '" + fileUrl + " to '" + file + "'");
+    }
+
+    private boolean isCancelled() {
+        return cancellationToken != null && cancellationToken.isCancelled();
+    }
+
+    private void throwIfCancelled() throws CancelledException {
+        if (cancellationToken != null) {
+            cancellationToken.throwIfCancelled();
         }
+    }
+
+    private int capTimeout(int timeout) {
+        return cancellationToken != null ? cancellationToken.capTimeout(timeout) : timeout;
+    }
 
-        // reade from remote resource and write to the local file
-        FileOutputStream fos = new FileOutputStream(file.toFile());
-        byte[] buffer = new byte[1024];
-        int length;
-        while ((length = is.read(buffer)) >= 0) {
-            fos.write(buffer, 0, length);
+    private CancellationToken.Registration interruptOnCancel() {
+        return cancellationToken != null ? cancellationToken.interruptOnCancel() : () -> { };
+    }
+
+    // a connect or a wait for the response fails right away, a read stalled mid-body at the (capped) read timeout
+    private CancellationToken.Registration disconnectOnCancel(URLConnection connection) {
+        if (cancellationToken == null) {
+            return () -> { };
         }
-        fos.close();
-        is.close();
 
-        log.debug("Set last modified of '{}' to '{}'", file, lastModified);
-        Files.setLastModifiedTime(file, FileTime.fromMillis(lastModified));
+        // not kept alive, so that closing it does not wait for the rest of the body
+        connection.setRequestProperty("Connection", "close");
+
+        return cancellationToken.onCancel(() -> disconnector.execute(() -> disconnect(connection)));
+    }
+
+    private static void disconnect(URLConnection connection) {
+        if (connection instanceof HttpURLConnection) {
+            ((HttpURLConnection) connection).disconnect();
+        }
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * @param connectTimeout the connect timeout in milliseconds, 0 for infinite
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * @param readTimeout the maximum time to wait for data in milliseconds, 0 for infinite
+     */
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets how failed HTTP(S) and FTP transfers are retried. A transfer is always retried as a whole.
+     *
+     * @param retryPolicy the retry policy, use {@link RetryPolicy#none()} for no retries
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public CircuitBreakerRegistry getCircuitBreakers() {
+        return circuitBreakers;
+    }
+
+    /**
+     * Fails fast for hosts that failed repeatedly, using one circuit breaker per host.
+     * Pass the same registry to every downloader to share the state of the hosts.
+     *
+     * @param circuitBreakers the circuit breakers per host, or null for none
+     */
+    public void setCircuitBreakers(CircuitBreakerRegistry circuitBreakers) {
+        this.circuitBreakers = circuitBreakers;
+    }
+
+    public DownloadScheduler getDownloadScheduler() {
+        return downloadScheduler;
+    }
+
+    /**
+     * Makes every transfer wait for a permit of the scheduler before it connects.
+     *
+     * @param downloadScheduler the scheduler, or null to connect right away
+     */
+    public void setDownloadScheduler(DownloadScheduler downloadScheduler) {
+        this.downloadScheduler = downloadScheduler;
+    }
+
+    public DownloadPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * @param priority the priority of the downloads with the {@link DownloadScheduler}
+     */
+    public void setPriority(DownloadPriority priority) {
+        this.priority = priority;
+    }
+
+    public BandwidthLimiter getBandwidthLimiter() {
+        return bandwidthLimiter;
+    }
+
+    /**
+     * Throttles HTTP(S) and FTP transfers with the given limiter. Local file copies are never throttled.
+     *
+     * @param bandwidthLimiter the limiter, or null for no throttling
+     */
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        this.bandwidthLimiter = bandwidthLimiter;
+    }
+
+    public StagingArea getStagingArea() {
+        return stagingArea;
+    }
+
+    /**
+     * Downloads to the given staging area instead of the system temp folder.
+     *
+     * @param stagingArea the staging area, or null for the system temp folder
+     */
+    public void setStagingArea(StagingArea stagingArea) {
+        this.stagingArea = stagingArea;
+    }
+
+    public String getRepositoryId() {
+        return repositoryId;
+    }
+
+    /**
+     * Sets the id of the repository this downloader downloads from, used to apply per-repository limits.
+     *
+     * @param repositoryId the repository id
+     */
+    public void setRepositoryId(String repositoryId) {
+        this.repositoryId = repositoryId;
+    }
+
+    public CancellationToken getCancellationToken() {
+        return cancellationToken;
+    }
+
+    /**
+     * Stops the downloads when the token is cancelled: connect and read timeouts are capped to its deadline,
+     * open connections are closed and waits (e.g. for a permit or a retry) end. The partial file is deleted.
+     *
+     * @param cancellationToken the token, or null if the downloads cannot be cancelled
+     */
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+    }
+
+    /**
+     * Copies this downloader with another cancellation token, e.g. to cancel one of several concurrent
+     * downloads of the same file on its own.
+     *
+     * @param cancellationToken the token of the copy, or null
+     * @return the copy
+     */
+    public SimpleFileDownloader withCancellationToken(CancellationToken cancellationToken) {
+        SimpleFileDownloader copy = copy();
+        copy.setCancellationToken(cancellationToken);
+
+        return copy;
+    }
+
+    /**
+     * Copies this downloader with another priority, e.g. for one download with a downloader that is shared.
+     *
+     * @param priority the priority of the copy
+     * @return the copy
+     */
+    public SimpleFileDownloader withPriority(DownloadPriority priority) {
+        SimpleFileDownloader copy = copy();
+        copy.setPriority(priority);
+
+        return copy;
+    }
+
+    /**
+     * @return a copy of this downloader with the same settings, to be changed without affecting this one
+     */
+    public SimpleFileDownloader copy() {
+        try {
+            return (SimpleFileDownloader) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // the outcome of one attempt
+    private static final class Transfer {
+
+        final long lastModified;
+        final long size;
+
+        private Transfer(long lastModified, long size) {
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        static Transfer done(long lastModified) {
+            return new Transfer(lastModified, -1);
+        }
+
+        static Transfer deferred(long size) {
+            return new Transfer(0, size);
+        }
+
+        boolean isDeferred() {
+            return size >= 0;
+        }
 
-        return file;
     }
 
 }
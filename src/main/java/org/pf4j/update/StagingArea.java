@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update;
+
+import org.pf4j.update.util.InterProcessLock;
+import org.pf4j.util.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * A directory where downloads are prepared before they are moved into the plugins folder.
+ * On the same file system as the plugins folder, the final move is an atomic rename instead of a copy.
+ * <p>
+ * Every download gets its own subdirectory. Subdirectories that are no longer in use are evicted
+ * when they are older than {@link #getMaxAge()}, and the oldest ones when all of them together
+ * are larger than {@link #getMaxSize()}.
+ * <p>
+ * A subdirectory in use is locked with an {@link InterProcessLock} (the lock files are next to the staging
+ * directory, in {@code <directory>.locks}), so that other staging areas in the same directory
+ * (e.g. of another update manager or process) do not evict it.
+ */
+public class StagingArea {
+
+    private static final Logger log = LoggerFactory.getLogger(StagingArea.class);
+
+    public static final String DEFAULT_DIRECTORY = ".pf4j-update/staging";
+    public static final long DEFAULT_MAX_SIZE = 1024L * 1024 * 1024;
+    public static final long DEFAULT_MAX_AGE = TimeUnit.HOURS.toMillis(24);
+
+    /**
+     * When staged files are forced to the storage device.
+     */
+    public enum SyncPolicy {
+
+        /**
+         * Leave it to the operating system, fastest.
+         */
+        NONE,
+
+        /**
+         * Force the content of a file before it is renamed into place.
+         */
+        FILE,
+
+        /**
+         * Also force the directories after the rename, so that the rename survives a crash.
+         */
+        FILE_AND_DIRECTORY
+
+    }
+
+    private final Path directory;
+    // the subdirectories in use with their locks
+    private final Map<Path, InterProcessLock> inUse = new ConcurrentHashMap<>();
+    private long maxSize = DEFAULT_MAX_SIZE;
+    private long maxAge = DEFAULT_MAX_AGE;
+    private SyncPolicy syncPolicy = SyncPolicy.FILE_AND_DIRECTORY;
+
+    public StagingArea(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param pluginsRoot the plugins folder
+     * @return a staging area in {@value #DEFAULT_DIRECTORY} below the plugins folder, on the same file system
+     */
+    public static StagingArea forPluginsRoot(Path pluginsRoot) {
+        return new StagingArea(pluginsRoot.resolve(DEFAULT_DIRECTORY));
+    }
+
+    /**
+     * Creates a new directory for a download, evicting old ones first.
+     *
+     * @param prefix the prefix of the directory name
+     * @return the new directory, in use until {@link #release(Path)}
+     * @throws IOException if the directory cannot be created
+     */
+    public Path createDirectory(String prefix) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            Files.createDirectories(directory);
+            hide(directory.getParent());
+        }
+        evict();
+
+        Path staged = Files.createTempDirectory(directory, prefix);
+        try {
+            inUse.put(staged, InterProcessLock.acquire(getLockFile(staged)));
+        } catch (IOException e) {
+            FileUtils.delete(staged);
+            throw e;
+        }
+
+        return staged;
+    }
+
+    /**
+     * Deletes a directory created by {@link #createDirectory(String)} with all that is left in it.
+     *
+     * @param staged the directory, or a file in it
+     */
+    public void release(Path staged) {
+        Path dir = toEntry(staged);
+        if (dir == null) {
+            return;
+        }
+
+        InterProcessLock lock = inUse.remove(dir);
+        try {
+            FileUtils.delete(dir);
+        } catch (IOException e) {
+            log.warn("Cannot delete staged '{}'", dir, e);
+        } finally {
+            unlock(dir, lock);
+        }
+    }
+
+    /**
+     * Moves a staged file or directory into place, with an atomic rename if possible.
+     * The source is forced to the storage device before, according to the {@link SyncPolicy}.
+     *
+     * @param source the staged file or directory
+     * @param target the final path, replaced if it exists (unless a non-empty directory)
+     * @return the target
+     * @throws IOException if the move fails
+     */
+    public Path commit(Path source, Path target) throws IOException {
+        sync(source);
+
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            log.debug("Cannot rename '{}' to '{}', copying", source, target);
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        if (syncPolicy == SyncPolicy.FILE_AND_DIRECTORY) {
+            syncDirectory(target.toAbsolutePath().getParent());
+            syncDirectory(source.toAbsolutePath().getParent());
+        }
+
+        return target;
+    }
+
+    /**
+     * Deletes the subdirectories not in use (here or by another staging area in the same directory)
+     * that are too old or, oldest first, exceed the size limit.
+     */
+    public void evict() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                if (!inUse.containsKey(path)) {
+                    entries.add(new Entry(path, Files.getLastModifiedTime(path).toMillis(), size(path)));
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Cannot list staging area '{}'", directory, e);
+            return;
+        }
+
+        entries.sort(Comparator.comparingLong(entry -> entry.modified));
+        long totalSize = entries.stream().mapToLong(entry -> entry.size).sum();
+        long now = System.currentTimeMillis();
+        for (Entry entry : entries) {
+            if (now - entry.modified <= maxAge && totalSize <= maxSize) {
+                break;
+            }
+
+            InterProcessLock lock = null;
+            try {
+                lock = InterProcessLock.tryAcquire(getLockFile(entry.path));
+                if (lock == null) {
+                    log.debug("Not evicting '{}', in use by another staging area", entry.path);
+                    continue;
+                }
+                FileUtils.delete(entry.path);
+                totalSize -= entry.size;
+                log.debug("Evicted '{}' from staging area", entry.path);
+            } catch (IOException e) {
+                log.warn("Cannot evict '{}' from staging area", entry.path, e);
+            } finally {
+                unlock(entry.path, lock);
+            }
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param maxSize the size in bytes of all subdirectories not in use above which the oldest are evicted
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * @param maxAge the age in milliseconds after which a subdirectory not in use is evicted
+     */
+    public void setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    public SyncPolicy getSyncPolicy() {
+        return syncPolicy;
+    }
+
+    public void setSyncPolicy(SyncPolicy syncPolicy) {
+        this.syncPolicy = syncPolicy;
+    }
+
+    private Path getLockFile(Path entry) {
+        return directory.resolveSibling(directory.getFileName() + ".locks").resolve(entry.getFileName().toString());
+    }
+
+    // the lock file goes with the subdirectory, while still locked so that no one else uses it meanwhile
+    private void unlock(Path entry, InterProcessLock lock) {
+        if (lock == null) {
+            return;
+        }
+
+        try {
+            Files.deleteIfExists(getLockFile(entry));
+        } catch (IOException e) {
+            log.debug("Cannot delete lock of '{}'", entry, e);
+        }
+        try {
+            lock.close();
+        } catch (IOException e) {
+            log.warn("Cannot unlock '{}'", entry, e);
+        }
+    }
+
+    // the subdirectory of the staging area that contains the path
+    private Path toEntry(Path path) {
+        Path absolute = path.toAbsolutePath().normalize();
+        Path root = directory.toAbsolutePath().normalize();
+        if (!absolute.startsWith(root) || absolute.equals(root)) {
+            return null;
+        }
+
+        return root.resolve(root.relativize(absolute).getName(0));
+    }
+
+    /**
+     * Forces a staged file, or all files of a staged directory, to the storage device according to the
+     * {@link SyncPolicy}. Done by {@link #commit(Path, Path)} anyway, but it is cheaper there if done before.
+     *
+     * @param path the staged file or directory
+     * @throws IOException if forcing fails
+     */
+    public void sync(Path path) throws IOException {
+        if (syncPolicy != SyncPolicy.NONE) {
+            force(path);
+        }
+    }
+
+    private static void force(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> files = Files.walk(path)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    if (Files.isRegularFile(file)) {
+                        syncFile(file);
+                    }
+                }
+            }
+        } else {
+            syncFile(path);
+        }
+    }
+
+    private static void syncFile(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private static void syncDirectory(Path dir) {
+        if (dir == null) {
+            return;
+        }
+
+        // not possible on every platform (e.g. Windows), the rename is done anyway
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.trace("Cannot sync directory '{}'", dir, e);
+        }
+    }
+
+    private static long size(Path path) throws IOException {
+        try (Stream<Path> files = Files.walk(path)) {
+            long size = 0;
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (Files.isRegularFile(file)) {
+                    size += Files.size(file);
+                }
+            }
+
+            return size;
+        }
+    }
+
+    // so that plugin repositories that do not skip dot files skip it on Windows too
+    private static void hide(Path dir) {
+        if (dir != null && dir.getFileName() != null && dir.getFileName().toString().startsWith(".")) {
+            try {
+                Files.setAttribute(dir, "dos:hidden", true);
+            } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+                // not a DOS file system
+            }
+        }
+    }
+
+    private static class Entry {
+
+        final Path path;
+        final long modified;
+        final long size;
+
+        Entry(Path path, long modified, long size) {
+            this.path = path;
+            this.modified = modified;
+            this.size = size;
+        }
+
+    }
+
+}
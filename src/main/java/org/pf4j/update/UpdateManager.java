@@ -23,7 +23,21 @@ import org.pf4j.PluginState;
 import org.pf4j.PluginWrapper;
 import org.pf4j.VersionManager;
 import org.pf4j.update.PluginInfo.PluginRelease;
+import org.pf4j.update.downloader.BandwidthLimiter;
+import org.pf4j.update.downloader.DownloadCoalescer;
+import org.pf4j.update.downloader.DownloadPriority;
+import org.pf4j.update.downloader.DownloadScheduler;
+import org.pf4j.update.downloader.MirrorFileDownloader;
+import org.pf4j.update.util.CancellationToken;
+import org.pf4j.update.util.CancelledException;
+import org.pf4j.update.util.CircuitBreakerRegistry;
+import org.pf4j.update.util.InterProcessLock;
+import org.pf4j.update.verifier.ChunkManifest;
+import org.pf4j.update.verifier.ChunkVerifyException;
 import org.pf4j.update.verifier.CompoundVerifier;
+import org.pf4j.update.verifier.DescriptorVerifier;
+import org.pf4j.util.FileUtils;
+import org.pf4j.util.Unzip;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,12 +47,23 @@ import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
@@ -59,10 +84,31 @@ public class UpdateManager {
     private final VersionManager versionManager;
     private final String systemVersion;
     private Path repositoriesJson;
+    private BandwidthLimiter bandwidthLimiter;
+    private CircuitBreakerRegistry circuitBreakers = new CircuitBreakerRegistry();
+    private DownloadCoalescer downloadCoalescer = new DownloadCoalescer();
+    private DownloadScheduler downloadScheduler = new DownloadScheduler();
+    private FileVerifier descriptorVerifier;
+    private StagingArea stagingArea;
+    private boolean defaultStagingArea = true;
+    private boolean preExtract = true;
+    private RollbackStore rollbackStore;
+    private boolean defaultRollbackStore = true;
+    private ArtifactCache artifactCache;
+    private boolean defaultArtifactCache = true;
+    private SharedCache sharedCache;
+    private Path snapshotDirectory;
+    private final Map<String, Duration> swapWindows = new ConcurrentHashMap<>();
 
     // cache last plugin release per plugin id (the key)
     private Map<String, PluginRelease> lastPluginRelease = new HashMap<>();
 
+    // loads of repositories under a deadline, which may go on in the background
+    private final Map<UpdateRepository, CompletableFuture<Map<String, PluginInfo>>> loads = new HashMap<>();
+    // the plugins of the last of these loads, served while a repository is loading again
+    private final Map<UpdateRepository, Map<String, PluginInfo>> loaded = new ConcurrentHashMap<>();
+    private Executor loadExecutor;
+
     protected List<UpdateRepository> repositories;
 
     public UpdateManager(PluginManager pluginManager) {
@@ -152,12 +198,123 @@ public class UpdateManager {
     public Map<String, PluginInfo> getPluginsMap() {
         Map<String, PluginInfo> pluginsMap = new HashMap<>();
         for (UpdateRepository repository : getRepositories()) {
-            pluginsMap.putAll(repository.getPlugins());
+            CompletableFuture<Map<String, PluginInfo>> load;
+            synchronized (loads) {
+                load = loads.get(repository);
+            }
+            if (load == null || load.isDone()) {
+                pluginsMap.putAll(repository.getPlugins());
+            } else if (loaded.containsKey(repository)) {
+                // reloading, the previous result is good enough
+                pluginsMap.putAll(loaded.get(repository));
+            } else {
+                try {
+                    pluginsMap.putAll(load.join());
+                } catch (CompletionException e) {
+                    // loaded again to fail like a repository that was not loaded in the background
+                    pluginsMap.putAll(repository.getPlugins());
+                }
+            }
         }
 
         return pluginsMap;
     }
 
+    /**
+     * Gets the plugins from the repositories that answer before a deadline.
+     * The others keep loading in the background and are merged into later results; until then,
+     * queries without a deadline get the plugins of their previous load, or wait for the first load.
+     *
+     * @param timeout the time to wait for the repositories
+     * @return the plugins from the repositories that answered in time, and the ids of those that did not
+     */
+    public PartialResult<List<PluginInfo>> getPlugins(Duration timeout) {
+        PartialResult<Map<String, PluginInfo>> pluginsMap = getPluginsMap(timeout);
+        List<PluginInfo> list = new ArrayList<>(pluginsMap.getResult().values());
+        Collections.sort(list);
+
+        return new PartialResult<>(list, pluginsMap.getTimedOutRepositories());
+    }
+
+    /**
+     * Gets the newer versions of installed plugins from the repositories that answer before a deadline,
+     * e.g. for a health check that must not depend on the slowest repository.
+     *
+     * @param timeout the time to wait for the repositories
+     * @return the plugins that have updates, and the ids of the repositories that did not answer in time
+     */
+    public PartialResult<List<PluginInfo>> getUpdates(Duration timeout) {
+        PartialResult<Map<String, PluginInfo>> pluginsMap = getPluginsMap(timeout);
+        List<PluginInfo> updates = new ArrayList<>();
+        for (PluginWrapper installed : pluginManager.getPlugins()) {
+            PluginInfo pluginInfo = pluginsMap.getResult().get(installed.getPluginId());
+            PluginRelease last = pluginInfo != null ? findLastRelease(pluginInfo) : null;
+            if (last != null && versionManager.compareVersions(last.version, installed.getDescriptor().getVersion()) > 0) {
+                updates.add(pluginInfo);
+            }
+        }
+
+        return new PartialResult<>(updates, pluginsMap.getTimedOutRepositories());
+    }
+
+    /**
+     * Refreshes all repositories like {@link #refresh()}, then waits for them until a deadline.
+     *
+     * @param timeout the time to wait for the repositories
+     * @return the plugins from the repositories that answered in time, and the ids of those that did not
+     */
+    public PartialResult<List<PluginInfo>> refresh(Duration timeout) {
+        refresh();
+
+        return getPlugins(timeout);
+    }
+
+    private PartialResult<Map<String, PluginInfo>> getPluginsMap(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        Map<UpdateRepository, CompletableFuture<Map<String, PluginInfo>>> started = new LinkedHashMap<>();
+        for (UpdateRepository repository : getRepositories()) {
+            started.put(repository, load(repository));
+        }
+        // e.g. replaced when reading repositories.json again
+        synchronized (loads) {
+            loads.keySet().retainAll(started.keySet());
+        }
+        loaded.keySet().retainAll(started.keySet());
+
+        Map<String, PluginInfo> pluginsMap = new HashMap<>();
+        List<String> timedOut = new ArrayList<>();
+        for (Map.Entry<UpdateRepository, CompletableFuture<Map<String, PluginInfo>>> entry : started.entrySet()) {
+            String repositoryId = entry.getKey().getId();
+            try {
+                pluginsMap.putAll(entry.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                log.debug("Repository '{}' did not answer within {} ms", repositoryId, timeout.toMillis());
+                timedOut.add(repositoryId);
+            } catch (ExecutionException e) {
+                log.warn("Cannot load plugins of repository '{}'", repositoryId, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                timedOut.add(repositoryId);
+            }
+        }
+
+        return new PartialResult<>(pluginsMap, timedOut);
+    }
+
+    // joins a load in progress
+    private CompletableFuture<Map<String, PluginInfo>> load(UpdateRepository repository) {
+        synchronized (loads) {
+            CompletableFuture<Map<String, PluginInfo>> load = loads.get(repository);
+            if (load == null || load.isDone()) {
+                load = CompletableFuture.supplyAsync(repository::getPlugins, getLoadExecutor());
+                load.thenAccept(plugins -> loaded.put(repository, plugins));
+                loads.put(repository, load);
+            }
+
+            return load;
+        }
+    }
+
     public List<UpdateRepository> getRepositories() {
         if (repositories == null && repositoriesJson != null) {
             refresh();
@@ -173,6 +330,7 @@ public class UpdateManager {
      */
     public void setRepositories(List<UpdateRepository> repositories) {
         this.repositories = repositories;
+        repositories.forEach(this::configureRepository);
         refresh();
     }
 
@@ -188,7 +346,9 @@ public class UpdateManager {
                 throw new RuntimeException("Repository with id " + id + " already exists");
             }
         }
-        repositories.add(new DefaultUpdateRepository(id, url));
+        DefaultUpdateRepository newRepo = new DefaultUpdateRepository(id, url);
+        configureRepository(newRepo);
+        repositories.add(newRepo);
     }
 
     /**
@@ -203,6 +363,7 @@ public class UpdateManager {
             }
         }
         newRepo.refresh();
+        configureRepository(newRepo);
         repositories.add(newRepo);
     }
 
@@ -242,22 +403,65 @@ public class UpdateManager {
      * @return true if installation successful and plugin started
      * @exception PluginRuntimeException if plugin does not exist in repos or problems during
      */
-    public synchronized boolean installPlugin(String id, String version) {
-        // Download to temporary location
-        Path downloaded = downloadPlugin(id, version);
+    public boolean installPlugin(String id, String version) {
+        return installPlugin(id, version, DownloadPriority.USER);
+    }
 
-        Path pluginsRoot = pluginManager.getPluginsRoot();
-        Path file = pluginsRoot.resolve(downloaded.getFileName());
-        try {
-            Files.move(downloaded, file, REPLACE_EXISTING);
-        } catch (IOException e) {
-            throw new PluginRuntimeException(e, "Failed to write file '{}' to plugins folder", file);
+    /**
+     * Installs a plugin by id and version, downloading it with the given priority.
+     *
+     * @param id the id of plugin to install
+     * @param version the version of plugin to install, on SemVer format, or null for latest
+     * @param priority the priority of the download with the {@link DownloadScheduler}
+     * @return true if installation successful and plugin started
+     * @exception PluginRuntimeException if plugin does not exist in repos or problems during
+     */
+    public boolean installPlugin(String id, String version, DownloadPriority priority) {
+        return installPlugin(id, version, priority, null);
+    }
+
+    /**
+     * Installs a plugin by id and version, unless cancelled before it was downloaded and verified.
+     * A cancelled installation leaves no partial download behind.
+     *
+     * @param id the id of plugin to install
+     * @param version the version of plugin to install, on SemVer format, or null for latest
+     * @param priority the priority of the download with the {@link DownloadScheduler}
+     * @param cancellationToken stops the download and verification when cancelled, or null
+     * @return true if installation successful and plugin started
+     * @exception PluginRuntimeException if plugin does not exist in repos, problems during or cancelled
+     *     (caused by a {@link CancelledException})
+     */
+    public boolean installPlugin(String id, String version, DownloadPriority priority, CancellationToken cancellationToken) {
+        // Download to temporary location, without holding up other installs (e.g. while waiting for the off-peak window)
+        Path downloaded = downloadPlugin(id, version, priority, cancellationToken);
+
+        synchronized (this) {
+            Path pluginsRoot = getPluginsRoot();
+            Path file = pluginsRoot.resolve(downloaded.getFileName());
+            try {
+                moveToPluginsRoot(downloaded, file);
+            } catch (IOException e) {
+                throw new PluginRuntimeException(e, "Failed to write file '{}' to plugins folder", file);
+            }
+
+            String pluginId = pluginManager.loadPlugin(file);
+            PluginState state = pluginManager.startPlugin(pluginId);
+
+            return PluginState.STARTED.equals(state);
         }
+    }
 
-        String pluginId = pluginManager.loadPlugin(file);
-        PluginState state = pluginManager.startPlugin(pluginId);
+    // a rename if the download was staged on the same file system
+    private void moveToPluginsRoot(Path downloaded, Path file) throws IOException {
+        StagingArea stagingArea = getStagingArea();
+        if (stagingArea == null) {
+            Files.move(downloaded, file, REPLACE_EXISTING);
+            return;
+        }
 
-        return PluginState.STARTED.equals(state);
+        stagingArea.commit(downloaded, file);
+        stagingArea.release(downloaded);
     }
 
     /**
@@ -270,14 +474,211 @@ public class UpdateManager {
      * @throws PluginRuntimeException if download failed
      */
     protected Path downloadPlugin(String id, String version) {
-        try {
+        return downloadPlugin(id, version, DownloadPriority.USER);
+    }
+
+    /**
+     * Downloads a plugin with given coordinates and priority, runs all {@link FileVerifier}s
+     * and returns a path to the downloaded file.
+     *
+     * @param id of plugin
+     * @param version of plugin or null to download latest
+     * @param priority the priority of the download with the {@link DownloadScheduler}
+     * @return Path to file which will reside in a temporary folder in the system default temp area
+     * @throws PluginRuntimeException if download failed
+     */
+    protected Path downloadPlugin(String id, String version, DownloadPriority priority) {
+        return downloadPlugin(id, version, priority, null);
+    }
+
+    /**
+     * Downloads a plugin with given coordinates and priority, runs all {@link FileVerifier}s
+     * and returns a path to the downloaded file, unless cancelled meanwhile.
+     * The token reaches the connection set-up, the transfer, the checksum and manifest fetches and the hashing,
+     * and interrupts the current thread while it waits (e.g. for a permit, a retry or a lock).
+     *
+     * @param id of plugin
+     * @param version of plugin or null to download latest
+     * @param priority the priority of the download with the {@link DownloadScheduler}
+     * @param cancellationToken stops the download and verification when cancelled, or null
+     * @return Path to file which will reside in a temporary folder in the system default temp area
+     * @throws PluginRuntimeException if download failed or was cancelled (caused by a {@link CancelledException})
+     */
+    @SuppressWarnings("try")
+    protected Path downloadPlugin(String id, String version, DownloadPriority priority, CancellationToken cancellationToken) {
+        Path downloaded;
+        try (CancellationToken.Registration ignored = interruptOnCancel(cancellationToken)) {
             PluginRelease release = findReleaseForPlugin(id, version);
-            Path downloaded = getFileDownloader(id).downloadFile(new URL(release.url));
-            getFileVerifier(id).verify(new FileVerifier.Context(id, release), downloaded);
-            return downloaded;
+            if (downloadCoalescer == null || cancellationToken != null) {
+                // a cancelled download must not fail the downloads that joined it
+                downloaded = downloadAndVerify(id, release, priority, cancellationToken);
+            } else {
+                // concurrent downloads of the same release share one transfer and verification
+                String key = release.url + '#' + release.sha512sum;
+                downloaded = downloadCoalescer.download(key, () -> downloadAndVerify(id, release, priority, null));
+            }
         } catch (IOException e) {
+            if (cancellationToken != null && cancellationToken.isCancelled()) {
+                throw cancelled(id, cancellationToken, e);
+            }
             throw new PluginRuntimeException(e, "Error during download of plugin {}", id);
+        } catch (PluginRuntimeException e) {
+            // e.g. a verifier that could not fetch a checksum file
+            if (cancellationToken != null && cancellationToken.isCancelled()) {
+                throw cancelled(id, cancellationToken, e);
+            }
+            throw e;
+        }
+
+        if (cancellationToken != null && cancellationToken.isCancelled()) {
+            discardDownload(downloaded);
+            throw cancelled(id, cancellationToken, null);
+        }
+
+        return downloaded;
+    }
+
+    private static CancellationToken.Registration interruptOnCancel(CancellationToken cancellationToken) {
+        return cancellationToken != null ? cancellationToken.interruptOnCancel() : () -> { };
+    }
+
+    private static PluginRuntimeException cancelled(String id, CancellationToken cancellationToken, Exception cause) {
+        String reason = cancellationToken.isExpired() ? "deadline exceeded" : "cancelled";
+        CancelledException cancelled = new CancelledException("Download of plugin " + id + " " + reason, cause);
+
+        return new PluginRuntimeException(cancelled, "Download of plugin {} was {}", id, reason);
+    }
+
+    // the file and the staging directory it was downloaded to
+    private void discardDownload(Path downloaded) {
+        try {
+            Files.deleteIfExists(downloaded);
+        } catch (IOException e) {
+            log.warn("Cannot delete download '{}'", downloaded, e);
+        }
+        StagingArea stagingArea = getStagingArea();
+        if (stagingArea != null) {
+            stagingArea.release(downloaded);
+        }
+    }
+
+    @SuppressWarnings("try")
+    private Path downloadAndVerify(String id, PluginRelease release, DownloadPriority priority,
+                                   CancellationToken cancellationToken) throws IOException {
+        FileVerifier.Context context = new FileVerifier.Context(id, release);
+        context.cancellationToken = cancellationToken;
+        ArtifactCache artifactCache = getArtifactCache();
+        String cacheKey = artifactCache != null ? ArtifactCache.getKey(release) : null;
+        if (cacheKey == null) {
+            return fetchAndVerify(id, release, priority, context);
+        }
+
+        Path cached = getFromArtifactCache(artifactCache, cacheKey, new URL(release.url));
+        if (cached == null) {
+            // another thread or process may be downloading it, wait for it rather than download it too
+            try (InterProcessLock lock = artifactCache.lock(cacheKey)) {
+                cached = getFromArtifactCache(artifactCache, cacheKey, new URL(release.url));
+                if (cached == null) {
+                    Path downloaded = fetchAndVerify(id, release, priority, context);
+                    try {
+                        artifactCache.put(cacheKey, downloaded);
+                    } catch (IOException e) {
+                        log.warn("Cannot add '{}' to artifact cache", release.url, e);
+                    }
+
+                    return downloaded;
+                }
+            }
+        }
+
+        // verified before it was cached, only the descriptor depends on this plugin manager
+        if (descriptorVerifier != null) {
+            try {
+                descriptorVerifier.verify(context, cached);
+            } catch (IOException | RuntimeException e) {
+                discardDownload(cached);
+                throw e;
+            }
+        }
+
+        return cached;
+    }
+
+    private Path fetchAndVerify(String id, PluginRelease release, DownloadPriority priority, FileVerifier.Context context) throws IOException {
+        FileVerifier fileVerifier = getFileVerifier(id);
+        // e.g. fetch a checksum file while downloading
+        fileVerifier.prepare(context);
+        FileDownloader fileDownloader = withCancellationToken(getFileDownloader(id, priority), context.cancellationToken);
+        Path downloaded = fileDownloader.downloadFile(new URL(release.url));
+        try {
+            try {
+                fileVerifier.verify(context, downloaded);
+            } catch (ChunkVerifyException e) {
+                // fetch only the damaged chunks again, once
+                if (!downloadChunks(fileDownloader, new URL(release.url), downloaded, e)) {
+                    throw e;
+                }
+                fileVerifier.verify(context, downloaded);
+            }
+            if (descriptorVerifier != null) {
+                descriptorVerifier.verify(context, downloaded);
+            }
+        } catch (IOException | RuntimeException e) {
+            discardDownload(downloaded);
+            throw e;
+        }
+
+        return downloaded;
+    }
+
+    // in a directory of its own, like a download
+    private Path getFromArtifactCache(ArtifactCache artifactCache, String cacheKey, URL url) {
+        StagingArea stagingArea = getStagingArea();
+        Path directory = null;
+        try {
+            directory = stagingArea != null ? stagingArea.createDirectory("cached-") : Files.createTempDirectory("pf4j-update-cached");
+            String path = url.getPath();
+            Path file = directory.resolve(path.substring(path.lastIndexOf('/') + 1));
+            if (artifactCache.get(cacheKey, file)) {
+                return file;
+            }
+        } catch (IOException e) {
+            log.warn("Cannot get '{}' from artifact cache", url, e);
+        }
+        if (stagingArea != null && directory != null) {
+            stagingArea.release(directory);
+        }
+
+        return null;
+    }
+
+    // a copy for this download, the repository may hand out the same downloader to concurrent downloads
+    private static FileDownloader withCancellationToken(FileDownloader fileDownloader, CancellationToken cancellationToken) {
+        if (fileDownloader instanceof MirrorFileDownloader) {
+            return ((MirrorFileDownloader) fileDownloader).withCancellationToken(cancellationToken);
+        }
+        if (fileDownloader instanceof SimpleFileDownloader) {
+            return ((SimpleFileDownloader) fileDownloader).withCancellationToken(cancellationToken);
+        }
+
+        return fileDownloader;
+    }
+
+    private boolean downloadChunks(FileDownloader fileDownloader, URL url, Path file, ChunkVerifyException e) {
+        ChunkManifest manifest = e.getManifest();
+        log.info("Download {} damaged chunks of '{}' again", e.getCorruptChunks().size(), url);
+        try {
+            for (int chunk : e.getCorruptChunks()) {
+                if (!fileDownloader.downloadRange(url, file, manifest.getChunkOffset(chunk), manifest.getChunkLength(chunk))) {
+                    return false;
+                }
+            }
+        } catch (IOException ioe) {
+            log.warn("Cannot download damaged chunks of '{}' again: {}", url, ioe.getMessage());
+            return false;
         }
+
+        return true;
     }
 
     /**
@@ -287,13 +688,67 @@ public class UpdateManager {
      * @return FileDownloader instance
      */
     protected FileDownloader getFileDownloader(String pluginId) {
+        return getFileDownloader(pluginId, DownloadPriority.USER);
+    }
+
+    /**
+     * Finds the {@link FileDownloader} to use for this repository, set up for a download with the given priority.
+     *
+     * @param pluginId the plugin we wish to download
+     * @param priority the priority of the download
+     * @return FileDownloader instance
+     */
+    protected FileDownloader getFileDownloader(String pluginId, DownloadPriority priority) {
         for (UpdateRepository ur : repositories) {
-            if (ur.getPlugin(pluginId) != null && ur.getFileDownloader() != null) {
-                return ur.getFileDownloader();
+            if (ur.getPlugin(pluginId) != null) {
+                FileDownloader fileDownloader = ur.getFileDownloader();
+                if (fileDownloader != null) {
+                    return configureFileDownloader(fileDownloader, ur.getId(), priority);
+                }
+            }
+        }
+
+        return configureFileDownloader(new SimpleFileDownloader(), null, priority);
+    }
+
+    /**
+     * Applies the settings of this update manager (e.g. the {@link BandwidthLimiter},
+     * the {@link DownloadScheduler} and the per host circuit breakers) to a downloader.
+     * Only {@link SimpleFileDownloader}s (also behind a {@link MirrorFileDownloader}) are configured,
+     * on a copy for this download, as the repository may hand out the same downloader to concurrent downloads.
+     * Other downloaders are returned as is.
+     *
+     * @param fileDownloader the downloader returned by the repository
+     * @param repositoryId the id of the repository, or null if none
+     * @param priority the priority of the download
+     * @return the downloader to use
+     */
+    protected FileDownloader configureFileDownloader(FileDownloader fileDownloader, String repositoryId, DownloadPriority priority) {
+        if (fileDownloader instanceof MirrorFileDownloader) {
+            MirrorFileDownloader mirrorFileDownloader = (MirrorFileDownloader) fileDownloader;
+            return mirrorFileDownloader.withDelegate(configureFileDownloader(mirrorFileDownloader.getDelegate(), repositoryId, priority));
+        }
+        if (fileDownloader instanceof SimpleFileDownloader) {
+            SimpleFileDownloader simpleFileDownloader = ((SimpleFileDownloader) fileDownloader).withPriority(priority);
+            simpleFileDownloader.setRepositoryId(repositoryId);
+            if (bandwidthLimiter != null) {
+                simpleFileDownloader.setBandwidthLimiter(bandwidthLimiter);
+            }
+            if (circuitBreakers != null) {
+                simpleFileDownloader.setCircuitBreakers(circuitBreakers);
             }
+            if (downloadScheduler != null) {
+                simpleFileDownloader.setDownloadScheduler(downloadScheduler);
+            }
+            StagingArea stagingArea = getStagingArea();
+            if (stagingArea != null) {
+                simpleFileDownloader.setStagingArea(stagingArea);
+            }
+
+            return simpleFileDownloader;
         }
 
-        return new SimpleFileDownloader();
+        return fileDownloader;
     }
 
     /**
@@ -350,6 +805,37 @@ public class UpdateManager {
      * @exception PluginRuntimeException in case the given version is not available, plugin id not already installed etc
     */
     public boolean updatePlugin(String id, String version) {
+        return updatePlugin(id, version, DownloadPriority.USER);
+    }
+
+    /**
+     * Updates a plugin id to given version or to latest version if {@code version == null},
+     * downloading it with the given priority (e.g. {@link DownloadPriority#SECURITY} for security fixes).
+     *
+     * @param id the id of plugin to update
+     * @param version the version to update to, on SemVer format, or null for latest
+     * @param priority the priority of the download with the {@link DownloadScheduler}
+     * @return true if update successful
+     * @exception PluginRuntimeException in case the given version is not available, plugin id not already installed etc
+     */
+    public boolean updatePlugin(String id, String version, DownloadPriority priority) {
+        return updatePlugin(id, version, priority, null);
+    }
+
+    /**
+     * Updates a plugin id to given version or to latest version if {@code version == null},
+     * unless cancelled before the new version was downloaded and verified.
+     * The installed version is not touched by a cancelled update, and no partial download is left behind.
+     *
+     * @param id the id of plugin to update
+     * @param version the version to update to, on SemVer format, or null for latest
+     * @param priority the priority of the download with the {@link DownloadScheduler}
+     * @param cancellationToken stops the download and verification when cancelled, or null
+     * @return true if update successful
+     * @exception PluginRuntimeException in case the given version is not available, plugin id not already installed,
+     *     cancelled (caused by a {@link CancelledException}) etc
+     */
+    public boolean updatePlugin(String id, String version, DownloadPriority priority, CancellationToken cancellationToken) {
         if (pluginManager.getPlugin(id) == null) {
             throw new PluginRuntimeException("Plugin {} cannot be updated since it is not installed", id);
         }
@@ -365,16 +851,135 @@ public class UpdateManager {
         }
 
         // Download to temp folder
-        Path downloaded = downloadPlugin(id, version);
+        Path downloaded = downloadPlugin(id, version, priority, cancellationToken);
 
-        if (!pluginManager.deletePlugin(id)) {
+        return PluginState.STARTED.equals(swapPlugin(id, downloaded));
+    }
+
+    /**
+     * Rolls a plugin back to the version it was updated from, restored from the {@link RollbackStore}
+     * without a download. The replaced version is kept in the store, to roll forward again.
+     *
+     * @param id the id of plugin to roll back
+     * @return true if rollback successful and plugin started
+     * @exception PluginRuntimeException if plugin is not installed or no previous version is kept
+     */
+    public boolean rollbackPlugin(String id) {
+        return rollbackPlugin(id, null);
+    }
+
+    /**
+     * Rolls a plugin back, or forward, to a version restored from the {@link RollbackStore} without a download.
+     * The replaced version is kept in the store.
+     *
+     * @param id the id of plugin to roll back
+     * @param version the kept version to restore, or null for the version it was updated from
+     * @return true if rollback successful and plugin started
+     * @exception PluginRuntimeException if plugin is not installed or the version is not kept
+     * @see #getRollbackVersions(String)
+     */
+    public synchronized boolean rollbackPlugin(String id, String version) {
+        if (pluginManager.getPlugin(id) == null) {
+            throw new PluginRuntimeException("Plugin {} cannot be rolled back since it is not installed", id);
+        }
+
+        RollbackStore rollbackStore = getRollbackStore();
+        if (rollbackStore == null) {
+            throw new PluginRuntimeException("Plugin {} cannot be rolled back without a rollback store", id);
+        }
+
+        // resolved now, the swap keeps the replaced version as the most recent one
+        List<String> versions = rollbackStore.getVersions(id);
+        String restoredVersion = version != null ? version : versions.isEmpty() ? null : versions.get(0);
+        StagingArea stagingArea = getStagingArea();
+        Path restored;
+        try {
+            Path directory = stagingArea != null ? stagingArea.createDirectory(id + "-rollback-") : Files.createTempDirectory("pf4j-update-rollback");
+            restored = restoredVersion != null ? rollbackStore.restore(id, restoredVersion, directory) : null;
+            if (restored == null) {
+                if (stagingArea != null) {
+                    stagingArea.release(directory);
+                }
+                throw new PluginRuntimeException("Plugin {} cannot be rolled back since version {} is not kept", id, version != null ? version : "before the update");
+            }
+        } catch (IOException e) {
+            throw new PluginRuntimeException(e, "Failed to restore plugin {} from rollback store", id);
+        }
+
+        // the version stays kept until the restored artifact is installed
+        PluginState state = swapPlugin(id, restored);
+        if (state == null) {
             return false;
         }
+        try {
+            rollbackStore.remove(id, restoredVersion);
+        } catch (IOException e) {
+            log.warn("Cannot remove plugin '{}@{}' from rollback store", id, restoredVersion, e);
+        }
+
+        return PluginState.STARTED.equals(state);
+    }
+
+    /**
+     * @param id the id of the plugin
+     * @return the versions of the plugin {@link #rollbackPlugin(String, String)} can restore, most recent first
+     */
+    public List<String> getRollbackVersions(String id) {
+        RollbackStore rollbackStore = getRollbackStore();
+
+        return rollbackStore != null ? rollbackStore.getVersions(id) : Collections.emptyList();
+    }
+
+    // replaces the installed version of the plugin with a staged one, null if the installed version stays;
+    // the staged files are discarded unless installed
+    private PluginState swapPlugin(String id, Path downloaded) {
+        // unpack while the old version is still running
+        Path extracted = preExtract(downloaded);
+        try {
+            PluginState state = swapPlugin(id, downloaded, extracted);
+            if (state == null) {
+                discardSwap(downloaded, extracted);
+            }
+
+            return state;
+        } catch (RuntimeException e) {
+            discardSwap(downloaded, extracted);
+            throw e;
+        }
+    }
+
+    private PluginState swapPlugin(String id, Path downloaded, Path extracted) {
+        PluginWrapper installed = pluginManager.getPlugin(id);
+        // the artifact goes with the plugin, kept only once the plugin is deleted
+        Path artifact = linkForRollback(installed);
+        try {
+            long swapStart = System.nanoTime();
+            if (!pluginManager.deletePlugin(id)) {
+                return null;
+            }
+            keepForRollback(installed, artifact);
+
+            return moveIntoPlace(id, downloaded, extracted, swapStart);
+        } finally {
+            if (artifact != null) {
+                discardDownload(artifact);
+            }
+        }
+    }
 
-        Path pluginsRoot = pluginManager.getPluginsRoot();
+    // installs the staged files in place of the deleted plugin
+    private PluginState moveIntoPlace(String id, Path downloaded, Path extracted, long swapStart) {
+        Path pluginsRoot = getPluginsRoot();
         Path file = pluginsRoot.resolve(downloaded.getFileName());
         try {
-            Files.move(downloaded, file, REPLACE_EXISTING);
+            if (extracted != null) {
+                Path directory = pluginsRoot.resolve(extracted.getFileName());
+                if (Files.exists(directory)) {
+                    FileUtils.delete(directory);
+                }
+                getStagingArea().commit(extracted, directory);
+            }
+            moveToPluginsRoot(downloaded, file);
         } catch (IOException e) {
             throw new PluginRuntimeException("Failed to write plugin file {} to plugin folder", file);
         }
@@ -382,7 +987,132 @@ public class UpdateManager {
         String newPluginId = pluginManager.loadPlugin(file);
         PluginState state = pluginManager.startPlugin(newPluginId);
 
-        return PluginState.STARTED.equals(state);
+        Duration swapWindow = Duration.ofNanos(System.nanoTime() - swapStart);
+        swapWindows.put(id, swapWindow);
+        log.info("Plugin '{}' was unavailable for {} ms while it was swapped", id, swapWindow.toMillis());
+
+        return state;
+    }
+
+    private void discardSwap(Path downloaded, Path extracted) {
+        if (extracted != null && Files.exists(extracted)) {
+            try {
+                FileUtils.delete(extracted);
+            } catch (IOException e) {
+                log.warn("Cannot delete unpacked '{}'", extracted, e);
+            }
+        }
+        discardDownload(downloaded);
+    }
+
+    // a staged link to (or copy of) the installed artifact, with the name it was installed with
+    private Path linkForRollback(PluginWrapper plugin) {
+        RollbackStore rollbackStore = getRollbackStore();
+        Path artifact = findArtifact(plugin.getPluginPath());
+        if (rollbackStore == null || artifact == null) {
+            return null;
+        }
+
+        StagingArea stagingArea = getStagingArea();
+        try {
+            String prefix = plugin.getPluginId() + "-replaced-";
+            Path directory = stagingArea != null ? stagingArea.createDirectory(prefix) : Files.createTempDirectory("pf4j-update-replaced");
+            Path link = directory.resolve(artifact.getFileName());
+            try {
+                Files.createLink(link, artifact);
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(artifact, link);
+            }
+
+            return link;
+        } catch (IOException e) {
+            log.warn("Cannot keep plugin '{}@{}' for rollback", plugin.getPluginId(), plugin.getDescriptor().getVersion(), e);
+            return null;
+        }
+    }
+
+    private void keepForRollback(PluginWrapper plugin, Path artifact) {
+        RollbackStore rollbackStore = getRollbackStore();
+        if (rollbackStore == null || artifact == null) {
+            return;
+        }
+
+        String id = plugin.getPluginId();
+        String version = plugin.getDescriptor().getVersion();
+        try {
+            rollbackStore.keep(id, version, artifact, getInlineSha512sum(id, version));
+        } catch (IOException e) {
+            log.warn("Cannot keep plugin '{}@{}' for rollback", id, version, e);
+        }
+    }
+
+    // the zip or jar the plugin was loaded from, null if it was loaded from a folder only
+    private static Path findArtifact(Path pluginPath) {
+        if (Files.isRegularFile(pluginPath)) {
+            return pluginPath;
+        }
+
+        for (String extension : new String[] { ".zip", ".ZIP", ".Zip" }) {
+            Path zip = pluginPath.resolveSibling(pluginPath.getFileName() + extension);
+            if (Files.isRegularFile(zip)) {
+                return zip;
+            }
+        }
+
+        return null;
+    }
+
+    private String getInlineSha512sum(String id, String version) {
+        PluginInfo pluginInfo = getPluginsMap().get(id);
+        if (pluginInfo == null || pluginInfo.releases == null) {
+            return null;
+        }
+
+        for (PluginRelease release : pluginInfo.releases) {
+            if (version.equals(release.version)) {
+                return ArtifactCache.getInlineSha512sum(release);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Unpacks a staged zip plugin next to it, the way the plugin manager would when loading it,
+     * so that loading it from the plugins folder does not unpack it again.
+     *
+     * @param downloaded the staged plugin
+     * @return the unpacked plugin, or null if not unpacked (not a zip, no staging area or failed)
+     */
+    protected Path preExtract(Path downloaded) {
+        StagingArea stagingArea = getStagingArea();
+        if (!preExtract || stagingArea == null || !FileUtils.isZipFile(downloaded)) {
+            return null;
+        }
+
+        String fileName = downloaded.getFileName().toString();
+        Path directory = downloaded.resolveSibling(fileName.substring(0, fileName.lastIndexOf('.')));
+        try {
+            long start = System.nanoTime();
+            new Unzip(downloaded.toFile(), directory.toFile()).extract();
+            // not older than the zip, or the plugin manager unpacks it again
+            FileTime zipTime = Files.getLastModifiedTime(downloaded);
+            FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+            Files.setLastModifiedTime(directory, zipTime.compareTo(now) > 0 ? zipTime : now);
+            stagingArea.sync(directory);
+            stagingArea.sync(downloaded);
+            log.debug("Unpacked '{}' in {} ms", downloaded, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+            return directory;
+        } catch (IOException e) {
+            log.warn("Cannot unpack '{}' in the staging area, the plugin manager will unpack it", downloaded, e);
+            try {
+                FileUtils.delete(directory);
+            } catch (IOException ignored) {
+                // evicted with the staging directory
+            }
+            return null;
+        }
     }
 
     public boolean uninstallPlugin(String id) {
@@ -400,21 +1130,31 @@ public class UpdateManager {
             return null;
         }
 
-        if (!lastPluginRelease.containsKey(id)) {
-            for (PluginRelease release : pluginInfo.releases) {
-                if (systemVersion.equals("0.0.0") || versionManager.checkVersionConstraint(systemVersion, release.requires)) {
-                    if (lastPluginRelease.get(id) == null) {
-                        lastPluginRelease.put(id, release);
-                    } else if (versionManager.compareVersions(release.version, lastPluginRelease.get(id).version) > 0) {
-                        lastPluginRelease.put(id, release);
-                    }
-                }
+        // also if the plugins were loaded again meanwhile, e.g. revalidated in the background
+        if (!lastPluginRelease.containsKey(id) || !pluginInfo.releases.contains(lastPluginRelease.get(id))) {
+            lastPluginRelease.remove(id);
+            PluginRelease last = findLastRelease(pluginInfo);
+            if (last != null) {
+                lastPluginRelease.put(id, last);
             }
         }
 
         return lastPluginRelease.get(id);
     }
 
+    private PluginRelease findLastRelease(PluginInfo pluginInfo) {
+        PluginRelease last = null;
+        for (PluginRelease release : pluginInfo.releases) {
+            if (systemVersion.equals("0.0.0") || versionManager.checkVersionConstraint(systemVersion, release.requires)) {
+                if (last == null || versionManager.compareVersions(release.version, last.version) > 0) {
+                    last = release;
+                }
+            }
+        }
+
+        return last;
+    }
+
     /**
      * Finds whether the newer version of the plugin.
      *
@@ -432,12 +1172,254 @@ public class UpdateManager {
         return last != null && versionManager.compareVersions(last.version, installedVersion) > 0;
     }
 
+    public BandwidthLimiter getBandwidthLimiter() {
+        return bandwidthLimiter;
+    }
+
+    /**
+     * Throttles all plugin downloads with the given limiter. The limits of the limiter
+     * can be changed at any time, also while downloads are in progress.
+     *
+     * @param bandwidthLimiter the limiter, or null for no throttling
+     */
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        this.bandwidthLimiter = bandwidthLimiter;
+    }
+
+    public CircuitBreakerRegistry getCircuitBreakers() {
+        return circuitBreakers;
+    }
+
+    /**
+     * Sets the circuit breakers shared by all plugin downloads, one per host.
+     * After repeated failures a host is not contacted for a while and downloads
+     * from it fail fast.
+     *
+     * @param circuitBreakers the circuit breakers, or null to always contact the hosts
+     */
+    public void setCircuitBreakers(CircuitBreakerRegistry circuitBreakers) {
+        this.circuitBreakers = circuitBreakers;
+    }
+
+    public DownloadScheduler getDownloadScheduler() {
+        return downloadScheduler;
+    }
+
+    /**
+     * Sets the scheduler that orders downloads by priority and caps the connections globally and per host.
+     * Share one scheduler between update managers to share the caps.
+     *
+     * @param downloadScheduler the scheduler, or null to download without any caps
+     */
+    public void setDownloadScheduler(DownloadScheduler downloadScheduler) {
+        this.downloadScheduler = downloadScheduler;
+    }
+
+    // plugins are installed into the first plugins folder, as PluginManager.getPluginsRoot() (deprecated) returns
+    private Path getPluginsRoot() {
+        return pluginManager.getPluginsRoots().get(0);
+    }
+
+    /**
+     * Gets the staging area downloads are prepared in, by default {@link StagingArea#forPluginsRoot(Path)}.
+     *
+     * @return the staging area, or null if downloads go to the system temp folder
+     */
+    public synchronized StagingArea getStagingArea() {
+        if (stagingArea == null && defaultStagingArea) {
+            stagingArea = StagingArea.forPluginsRoot(getPluginsRoot());
+        }
+
+        return stagingArea;
+    }
+
+    /**
+     * @param stagingArea the staging area, or null to download to the system temp folder
+     */
+    public synchronized void setStagingArea(StagingArea stagingArea) {
+        this.stagingArea = stagingArea;
+        defaultStagingArea = false;
+    }
+
+    /**
+     * Gets the store of the versions replaced by updates, by default {@link RollbackStore#forPluginsRoot(Path)}.
+     *
+     * @return the rollback store, or null if replaced versions are not kept
+     */
+    public synchronized RollbackStore getRollbackStore() {
+        if (rollbackStore == null && defaultRollbackStore) {
+            rollbackStore = RollbackStore.forPluginsRoot(getPluginsRoot());
+        }
+
+        return rollbackStore;
+    }
+
+    /**
+     * @param rollbackStore the rollback store, or null to not keep replaced versions
+     */
+    public synchronized void setRollbackStore(RollbackStore rollbackStore) {
+        this.rollbackStore = rollbackStore;
+        defaultRollbackStore = false;
+    }
+
+    /**
+     * Gets the cache of verified artifacts checked before downloading, by default {@link ArtifactCache#forPluginsRoot(Path)}.
+     *
+     * @return the artifact cache, or null if every install downloads
+     */
+    public synchronized ArtifactCache getArtifactCache() {
+        if (artifactCache == null && defaultArtifactCache) {
+            artifactCache = ArtifactCache.forPluginsRoot(getPluginsRoot());
+        }
+
+        return artifactCache;
+    }
+
+    /**
+     * @param artifactCache the artifact cache, e.g. one shared with other update managers, or null to always download
+     */
+    public synchronized void setArtifactCache(ArtifactCache artifactCache) {
+        this.artifactCache = artifactCache;
+        defaultArtifactCache = false;
+    }
+
+    public SharedCache getSharedCache() {
+        return sharedCache;
+    }
+
+    /**
+     * Shares repository metadata and verified artifacts with the update managers of other processes on this host
+     * (see {@link SharedCache}). Replaces the artifact cache by the one of the shared cache.
+     *
+     * @param sharedCache the shared cache, or null to stop sharing (and use the default artifact cache)
+     */
+    public synchronized void setSharedCache(SharedCache sharedCache) {
+        this.sharedCache = sharedCache;
+        artifactCache = sharedCache != null ? sharedCache.getArtifactCache() : null;
+        defaultArtifactCache = sharedCache == null;
+        if (getRepositories() != null) {
+            getRepositories().forEach(this::configureRepository);
+        }
+    }
+
+    public Path getSnapshotDirectory() {
+        return snapshotDirectory;
+    }
+
+    /**
+     * Keeps a snapshot of the plugins of every {@link DefaultUpdateRepository} in a directory, so that after a restart
+     * they are available right away (and revalidated in the background) and also while a repository is down.
+     *
+     * @param snapshotDirectory the directory, e.g. {@code .pf4j-update/snapshots} below the plugins folder,
+     * or null for no snapshots
+     * @see DefaultUpdateRepository#setSnapshotFile(Path)
+     */
+    public synchronized void setSnapshotDirectory(Path snapshotDirectory) {
+        this.snapshotDirectory = snapshotDirectory;
+        if (getRepositories() != null) {
+            getRepositories().forEach(this::configureRepository);
+        }
+    }
+
+    private void configureRepository(UpdateRepository repository) {
+        if (repository instanceof DefaultUpdateRepository) {
+            DefaultUpdateRepository defaultRepository = (DefaultUpdateRepository) repository;
+            defaultRepository.setSharedCache(sharedCache);
+            Path snapshotFile = null;
+            if (snapshotDirectory != null) {
+                snapshotFile = snapshotDirectory.resolve(repository.getId().replaceAll("[^\\w.-]", "_") + ".snapshot");
+            }
+            defaultRepository.setSnapshotFile(snapshotFile);
+        }
+    }
+
+    /**
+     * Gets the executor that loads repositories for the methods with a deadline,
+     * by default a pool of daemon threads that is not bounded (loads block on I/O).
+     *
+     * @return the executor
+     */
+    public synchronized Executor getLoadExecutor() {
+        if (loadExecutor == null) {
+            loadExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "pf4j-update-load");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        return loadExecutor;
+    }
+
+    public synchronized void setLoadExecutor(Executor loadExecutor) {
+        this.loadExecutor = loadExecutor;
+    }
+
+    public boolean isPreExtract() {
+        return preExtract;
+    }
+
+    /**
+     * Unpacks zip plugins in the staging area before an update stops the old version,
+     * so that the plugin is unavailable only while it is swapped. On by default.
+     *
+     * @param preExtract false to let the plugin manager unpack zip plugins when loading them
+     */
+    public void setPreExtract(boolean preExtract) {
+        this.preExtract = preExtract;
+    }
+
+    /**
+     * Gets how long a plugin was unavailable during its last update or rollback, from stopping the old version
+     * until the new version was started.
+     *
+     * @param id the id of the plugin
+     * @return the duration, or null if the plugin was not updated by this update manager
+     */
+    public Duration getLastSwapWindow(String id) {
+        return swapWindows.get(id);
+    }
+
+    public FileVerifier getDescriptorVerifier() {
+        return descriptorVerifier;
+    }
+
+    /**
+     * Sets a verifier that runs on every downloaded plugin after the verifiers of its repository,
+     * e.g. a {@link DescriptorVerifier} to check the plugin descriptor against the release and this plugin manager
+     * before the installed version is replaced.
+     *
+     * @param descriptorVerifier the verifier, or null for none
+     */
+    public void setDescriptorVerifier(FileVerifier descriptorVerifier) {
+        this.descriptorVerifier = descriptorVerifier;
+    }
+
+    public DownloadCoalescer getDownloadCoalescer() {
+        return downloadCoalescer;
+    }
+
+    /**
+     * Sets where concurrent downloads of the same plugin release (same URL and checksum) are coalesced.
+     * By default, only the downloads of this update manager are coalesced.
+     * <p>
+     * A coalescer shared with other update managers (e.g. {@link DownloadCoalescer#getShared()}) hands out
+     * files verified by the verifiers of the manager that ran the download, copied next to its staging area.
+     * Share one only between managers with the same verifiers and staging area.
+     *
+     * @param downloadCoalescer the coalescer, or null to download every time
+     */
+    public void setDownloadCoalescer(DownloadCoalescer downloadCoalescer) {
+        this.downloadCoalescer = downloadCoalescer;
+    }
+
     protected synchronized void initRepositoriesFromJson() {
         log.debug("Read repositories from '{}'", repositoriesJson);
         try (FileReader reader = new FileReader(repositoriesJson.toFile())) {
             Gson gson = new GsonBuilder().create();
             UpdateRepository[] items = gson.fromJson(reader, DefaultUpdateRepository[].class);
             repositories = Arrays.asList(items);
+            repositories.forEach(this::configureRepository);
         } catch (IOException e) {
             e.printStackTrace();
             repositories = Collections.emptyList();
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.downloader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Adjusts the number of concurrent downloads per host to the observed throughput and errors (AIMD).
+ * <p>
+ * Every transfer reports its size, its duration and the number of transfers that ran concurrently
+ * with it on the same host, which gives an estimate of the aggregate throughput of the host.
+ * While the limit is fully used and the estimate holds up, the limit grows by one per round of
+ * transfers (additive increase). When the estimate drops well below the best recent one, the extra
+ * concurrency only causes congestion and the limit shrinks a bit; a failed transfer (e.g. a timeout)
+ * halves it (multiplicative decrease). Transfers smaller than {@link #getMinSampleBytes()} are too
+ * short to measure throughput and only count as successes.
+ */
+public class AdaptiveConcurrencyLimit {
+
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveConcurrencyLimit.class);
+
+    public static final int DEFAULT_INITIAL_LIMIT = 2;
+    public static final int DEFAULT_MAX_LIMIT = 32;
+    public static final long DEFAULT_MIN_SAMPLE_BYTES = 64 * 1024;
+
+    // the limit is multiplied with these on a failure and on a throughput drop
+    static final double FAILURE_BACKOFF = 0.5;
+    static final double CONGESTION_BACKOFF = 0.9;
+    // a throughput below this share of the best recent one is a drop
+    static final double CONGESTION_THRESHOLD = 0.7;
+    // the best throughput fades with every sample, so that it follows a link that got slower
+    static final double BEST_THROUGHPUT_DECAY = 0.95;
+
+    private final int initialLimit;
+    private final int maxLimit;
+    private long minSampleBytes = DEFAULT_MIN_SAMPLE_BYTES;
+    private final Map<String, Host> hosts = new HashMap<>();
+
+    public AdaptiveConcurrencyLimit() {
+        this(DEFAULT_INITIAL_LIMIT, DEFAULT_MAX_LIMIT);
+    }
+
+    /**
+     * @param initialLimit the limit of a host before any feedback
+     * @param maxLimit the limit never grows beyond this
+     */
+    public AdaptiveConcurrencyLimit(int initialLimit, int maxLimit) {
+        this.maxLimit = Math.max(1, maxLimit);
+        this.initialLimit = Math.max(1, Math.min(initialLimit, this.maxLimit));
+    }
+
+    /**
+     * @param host the host name
+     * @return the current concurrency limit of the host
+     */
+    public synchronized int getLimit(String host) {
+        Host state = hosts.get(normalize(host));
+
+        return state != null ? (int) state.limit : initialLimit;
+    }
+
+    /**
+     * @return the current concurrency limits of the hosts with feedback, for monitoring
+     */
+    public synchronized Map<String, Integer> getLimits() {
+        Map<String, Integer> limits = new TreeMap<>();
+        for (Map.Entry<String, Host> entry : hosts.entrySet()) {
+            limits.put(entry.getKey(), (int) entry.getValue().limit);
+        }
+
+        return limits;
+    }
+
+    public synchronized long getMinSampleBytes() {
+        return minSampleBytes;
+    }
+
+    public synchronized AdaptiveConcurrencyLimit setMinSampleBytes(long minSampleBytes) {
+        this.minSampleBytes = minSampleBytes;
+
+        return this;
+    }
+
+    /**
+     * Reports a completed transfer.
+     *
+     * @param host the host name
+     * @param bytes the size of the transfer
+     * @param nanos the duration of the transfer
+     * @param concurrency the number of transfers from the host when it completed, including itself
+     */
+    public synchronized void onSuccess(String host, long bytes, long nanos, int concurrency) {
+        Host state = getHost(host);
+        if (bytes >= minSampleBytes && nanos > 0) {
+            double throughput = bytes * 1e9 / nanos * Math.max(1, concurrency);
+            state.bestThroughput = Math.max(throughput, state.bestThroughput * BEST_THROUGHPUT_DECAY);
+            if (concurrency > 1 && throughput < state.bestThroughput * CONGESTION_THRESHOLD) {
+                decrease(host, state, CONGESTION_BACKOFF, "throughput dropped");
+                return;
+            }
+        }
+
+        // grow only if the limit is actually in use
+        if (concurrency >= (int) state.limit && state.limit < maxLimit) {
+            int before = (int) state.limit;
+            state.limit = Math.min(maxLimit, state.limit + 1 / state.limit);
+            if ((int) state.limit > before) {
+                log.debug("Concurrency limit of '{}' is up to {}", host, (int) state.limit);
+            }
+        }
+    }
+
+    /**
+     * Reports a failed transfer, e.g. a timeout or a dropped connection.
+     *
+     * @param host the host name
+     */
+    public synchronized void onFailure(String host) {
+        decrease(host, getHost(host), FAILURE_BACKOFF, "transfer failed");
+    }
+
+    private void decrease(String host, Host state, double factor, String reason) {
+        int before = (int) state.limit;
+        state.limit = Math.max(1, state.limit * factor);
+        if ((int) state.limit < before) {
+            log.debug("Concurrency limit of '{}' is down to {} ({})", host, (int) state.limit, reason);
+        }
+    }
+
+    private Host getHost(String host) {
+        return hosts.computeIfAbsent(normalize(host), h -> new Host(initialLimit));
+    }
+
+    private static String normalize(String host) {
+        return host == null ? "" : host.toLowerCase(Locale.ROOT);
+    }
+
+    private static class Host {
+
+        double limit;
+        double bestThroughput;
+
+        Host(double limit) {
+            this.limit = limit;
+        }
+
+    }
+
+}
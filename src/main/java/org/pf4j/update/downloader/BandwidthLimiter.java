@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.downloader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the download bandwidth globally, per repository and per host, using one {@link TokenBucket} each.
+ * A transfer is slowed down to the most restrictive of the limits that apply to it.
+ * All limits are in bytes per second, can be changed at runtime (also for transfers in progress)
+ * and {@code 0} removes a limit.
+ * <p>
+ * Large transfers can also be shifted into an off-peak window: a transfer of at least
+ * {@link #setOffPeakWindow(LocalTime, LocalTime, long) the threshold size} that is about to start
+ * outside of the window waits for the window to open.
+ * <p>
+ * As long as no limit has ever been set, streams are not wrapped at all.
+ */
+public class BandwidthLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(BandwidthLimiter.class);
+
+    private final TokenBucket global = new TokenBucket(0);
+    private final Map<String, TokenBucket> repositories = new ConcurrentHashMap<>();
+    private final Map<String, TokenBucket> hosts = new ConcurrentHashMap<>();
+    private volatile boolean limited;
+
+    private volatile LocalTime offPeakStart;
+    private volatile LocalTime offPeakEnd;
+    private volatile long offPeakThreshold;
+    private Clock clock = Clock.systemDefaultZone();
+
+    public long getGlobalLimit() {
+        return global.getBytesPerSecond();
+    }
+
+    public BandwidthLimiter setGlobalLimit(long bytesPerSecond) {
+        global.setBytesPerSecond(bytesPerSecond);
+        limited |= bytesPerSecond > 0;
+
+        return this;
+    }
+
+    public long getRepositoryLimit(String repositoryId) {
+        TokenBucket bucket = repositories.get(repositoryId);
+
+        return bucket != null ? bucket.getBytesPerSecond() : 0;
+    }
+
+    public BandwidthLimiter setRepositoryLimit(String repositoryId, long bytesPerSecond) {
+        setLimit(repositories, repositoryId, bytesPerSecond);
+
+        return this;
+    }
+
+    public long getHostLimit(String host) {
+        TokenBucket bucket = hosts.get(host.toLowerCase());
+
+        return bucket != null ? bucket.getBytesPerSecond() : 0;
+    }
+
+    public BandwidthLimiter setHostLimit(String host, long bytesPerSecond) {
+        setLimit(hosts, host.toLowerCase(), bytesPerSecond);
+
+        return this;
+    }
+
+    private void setLimit(Map<String, TokenBucket> buckets, String key, long bytesPerSecond) {
+        // keep buckets with limit 0, so that transfers in progress pick up a new limit later
+        buckets.computeIfAbsent(key, k -> new TokenBucket(0)).setBytesPerSecond(bytesPerSecond);
+        limited |= bytesPerSecond > 0;
+    }
+
+    /**
+     * Defers transfers of at least {@code thresholdBytes} to the window between {@code start} and {@code end}
+     * (local time, the window may span midnight). Use {@code null} values to remove the window.
+     *
+     * @param start the start of the off-peak window
+     * @param end the end of the off-peak window
+     * @param thresholdBytes the minimum size of a transfer to be deferred
+     * @return this limiter
+     */
+    public BandwidthLimiter setOffPeakWindow(LocalTime start, LocalTime end, long thresholdBytes) {
+        if ((start == null) != (end == null)) {
+            throw new IllegalArgumentException("Both start and end of the off-peak window must be set");
+        }
+
+        offPeakStart = start;
+        offPeakEnd = end;
+        offPeakThreshold = thresholdBytes;
+
+        return this;
+    }
+
+    void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Wraps the stream of a transfer so that it honors the limits for the repository and the host of the URL.
+     *
+     * @param in the stream to throttle
+     * @param repositoryId the repository the transfer is for, may be null
+     * @param url the URL of the transfer
+     * @return the throttled stream, or {@code in} itself if no limit was ever set
+     */
+    public InputStream throttle(InputStream in, String repositoryId, URL url) {
+        if (!limited) {
+            return in;
+        }
+
+        List<TokenBucket> buckets = new ArrayList<>(3);
+        buckets.add(global);
+        TokenBucket bucket = repositoryId != null ? repositories.get(repositoryId) : null;
+        if (bucket != null) {
+            buckets.add(bucket);
+        }
+        bucket = url.getHost() != null ? hosts.get(url.getHost().toLowerCase()) : null;
+        if (bucket != null) {
+            buckets.add(bucket);
+        }
+
+        return new ThrottledInputStream(in, buckets);
+    }
+
+    /**
+     * Returns how long a transfer of the given size has to wait for the off-peak window.
+     *
+     * @param size the size of the transfer in bytes, negative if unknown
+     * @return the delay, {@link Duration#ZERO} if the transfer can start now
+     */
+    public Duration getTransferDelay(long size) {
+        LocalTime start = offPeakStart;
+        LocalTime end = offPeakEnd;
+        if (start == null || size < 0 || size < offPeakThreshold) {
+            return Duration.ZERO;
+        }
+
+        LocalDateTime now = LocalDateTime.now(clock);
+        LocalTime time = now.toLocalTime();
+        boolean inWindow = start.isBefore(end)
+            ? !time.isBefore(start) && time.isBefore(end)
+            : !time.isBefore(start) || time.isBefore(end);
+        if (inWindow) {
+            return Duration.ZERO;
+        }
+
+        LocalDateTime next = now.with(start);
+        if (!next.isAfter(now)) {
+            next = next.plusDays(1);
+        }
+
+        return Duration.between(now, next);
+    }
+
+    /**
+     * Waits until a transfer of the given size may start.
+     *
+     * @param size the size of the transfer in bytes, negative if unknown
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public void awaitTransferWindow(long size) throws InterruptedIOException {
+        Duration delay = getTransferDelay(size);
+        if (delay.isZero()) {
+            return;
+        }
+
+        log.info("Defer transfer of {} bytes by {} to the off-peak window", size, delay);
+        try {
+            TimeUnit.MILLISECONDS.sleep(delay.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the off-peak window");
+        }
+    }
+
+}
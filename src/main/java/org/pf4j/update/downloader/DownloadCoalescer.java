@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.downloader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Coalesces concurrent downloads of the same file (single flight).
+ * <p>
+ * The first caller for a key runs the download; callers that arrive while it is in flight wait for it
+ * and share its result instead of downloading the file again. Every caller gets a file of its own
+ * (a hard link to the shared file where the file system allows it, a copy otherwise), so callers
+ * can move or delete their file freely. Failures are reported to every caller of the flight.
+ * <p>
+ * Downloads that are not concurrent are not affected: a caller that is alone in its flight gets the
+ * downloaded file itself.
+ */
+public class DownloadCoalescer {
+
+    private static final Logger log = LoggerFactory.getLogger(DownloadCoalescer.class);
+
+    private static final DownloadCoalescer shared = new DownloadCoalescer();
+
+    private final Map<String, Flight> flights = new HashMap<>();
+
+    /**
+     * @return a coalescer for all update managers of this JVM that opt in to share it
+     */
+    public static DownloadCoalescer getShared() {
+        return shared;
+    }
+
+    /**
+     * Runs the download, or waits for the same download already in flight.
+     *
+     * @param key identifies the file, e.g. its URL and checksum
+     * @param download the download, which also verifies the file
+     * @return the downloaded file, owned by the caller
+     * @throws IOException if the download failed
+     */
+    public Path download(String key, Download download) throws IOException {
+        Flight flight;
+        boolean leader;
+        synchronized (flights) {
+            flight = flights.get(key);
+            leader = flight == null;
+            if (leader) {
+                flight = new Flight();
+                flights.put(key, flight);
+            }
+            flight.participants++;
+        }
+
+        if (leader) {
+            Path file = null;
+            Throwable failure = null;
+            try {
+                file = download.run();
+            } catch (IOException | RuntimeException | Error e) {
+                failure = e;
+            } finally {
+                // nobody joins the flight from now on
+                synchronized (flights) {
+                    flights.remove(key);
+                }
+                flight.complete(file, failure);
+            }
+        } else {
+            log.debug("Join download of '{}' already in flight", key);
+        }
+
+        return flight.claim();
+    }
+
+    /**
+     * @return the number of downloads in flight
+     */
+    public int getInFlightCount() {
+        synchronized (flights) {
+            return flights.size();
+        }
+    }
+
+    /**
+     * A download.
+     */
+    public interface Download {
+
+        Path run() throws IOException;
+
+    }
+
+    private static class Flight {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        // guarded by the flights map until the flight is done, fixed afterwards
+        private int participants;
+        private int unclaimed;
+        private int abandoned;
+        private Path file;
+        private Throwable failure;
+
+        synchronized void complete(Path file, Throwable failure) {
+            this.file = file;
+            this.failure = failure;
+            unclaimed = participants - abandoned;
+            done.countDown();
+        }
+
+        Path claim() throws IOException {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                abandon();
+                throw new InterruptedIOException("Interrupted while waiting for download");
+            }
+
+            if (failure != null) {
+                release();
+                if (failure instanceof IOException) {
+                    throw (IOException) failure;
+                }
+                if (failure instanceof RuntimeException) {
+                    throw (RuntimeException) failure;
+                }
+                throw (Error) failure;
+            }
+
+            if (participants == 1) {
+                return file;
+            }
+
+            try {
+                return privateCopy(file);
+            } finally {
+                release();
+            }
+        }
+
+        private synchronized void abandon() {
+            if (done.getCount() > 0) {
+                abandoned++;
+            } else {
+                release();
+            }
+        }
+
+        private synchronized void release() {
+            if (--unclaimed == 0 && participants > 1) {
+                deleteFile();
+            }
+        }
+
+        private void deleteFile() {
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    log.warn("Cannot delete shared download '{}'", file, e);
+                }
+            }
+        }
+
+        private static Path privateCopy(Path file) throws IOException {
+            // next to the shared download, so that a hard link is possible
+            Path parent = file.toAbsolutePath().getParent().getParent();
+            Path destination = parent != null
+                ? Files.createTempDirectory(parent, "pf4j-update-downloader")
+                : Files.createTempDirectory("pf4j-update-downloader");
+            destination.toFile().deleteOnExit();
+            Path copy = destination.resolve(file.getFileName());
+            try {
+                return Files.createLink(copy, file);
+            } catch (IOException | UnsupportedOperationException e) {
+                return Files.copy(file, copy, StandardCopyOption.COPY_ATTRIBUTES);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.downloader;
+
+/**
+ * The priority classes of the {@link DownloadScheduler}, most urgent first.
+ */
+public enum DownloadPriority {
+
+    /**
+     * Updates that fix security issues.
+     */
+    SECURITY,
+
+    /**
+     * Installs and updates a user is waiting for.
+     */
+    USER,
+
+    /**
+     * Prefetching and other downloads nobody is waiting for.
+     */
+    BACKGROUND
+
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.downloader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Decides which download may open a connection next.
+ * <p>
+ * A download asks for a {@link Permit} before it connects and closes it when the transfer is over.
+ * Permits are bounded globally and per host. Waiting downloads are served by {@link DownloadPriority},
+ * and within a priority round-robin across repositories, so a repository with many queued downloads
+ * cannot starve the others. A download whose host is at its limit does not block downloads for other hosts.
+ * <p>
+ * {@link DownloadPriority#BACKGROUND} downloads never take the last {@link #getReservedPermits() reserved}
+ * permits, nor the last permit of a host that allows more than one connection, which keeps a connection
+ * free for urgent downloads, also to the host the background downloads are busy with.
+ * <p>
+ * Within the configured host limits, an {@link AdaptiveConcurrencyLimit} adjusts the concurrency of each
+ * host to the throughput and errors that downloads report through their permit.
+ */
+public class DownloadScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(DownloadScheduler.class);
+
+    public static final int DEFAULT_GLOBAL_LIMIT = 8;
+    public static final int DEFAULT_HOST_LIMIT = 4;
+    public static final int DEFAULT_RESERVED_PERMITS = 2;
+
+    private int globalLimit = DEFAULT_GLOBAL_LIMIT;
+    private int defaultHostLimit = DEFAULT_HOST_LIMIT;
+    private int reservedPermits = DEFAULT_RESERVED_PERMITS;
+    private final Map<String, Integer> hostLimits = new HashMap<>();
+    private AdaptiveConcurrencyLimit adaptiveLimit = new AdaptiveConcurrencyLimit();
+
+    private int active;
+    private final Map<String, Integer> activePerHost = new HashMap<>();
+    // per priority, the queues of waiting downloads per repository in round-robin order
+    private final Map<DownloadPriority, LinkedHashMap<String, Queue<Waiter>>> queues = new EnumMap<>(DownloadPriority.class);
+
+    public DownloadScheduler() {
+        for (DownloadPriority priority : DownloadPriority.values()) {
+            queues.put(priority, new LinkedHashMap<>());
+        }
+    }
+
+    /**
+     * Waits for a permit to download from a host.
+     *
+     * @param priority the priority of the download
+     * @param repositoryId the repository of the download, may be null
+     * @param host the host to connect to
+     * @return the permit, to be closed when the transfer is over
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public synchronized Permit acquire(DownloadPriority priority, String repositoryId, String host) throws InterruptedIOException {
+        Waiter waiter = new Waiter(normalize(host));
+        queues.get(priority).computeIfAbsent(String.valueOf(repositoryId), k -> new ArrayDeque<>()).add(waiter);
+        dispatch();
+        if (!waiter.granted) {
+            log.debug("Download from '{}' ({}, repository '{}') is queued", host, priority, repositoryId);
+        }
+
+        try {
+            while (!waiter.granted) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (waiter.granted) {
+                release(waiter.host);
+            } else {
+                remove(waiter);
+            }
+            throw new InterruptedIOException("Interrupted while waiting for a download permit");
+        }
+
+        return new Permit(waiter.host);
+    }
+
+    public synchronized int getActiveCount() {
+        return active;
+    }
+
+    public synchronized int getActiveCount(String host) {
+        return activePerHost.getOrDefault(normalize(host), 0);
+    }
+
+    public synchronized int getQueuedCount() {
+        int count = 0;
+        for (LinkedHashMap<String, Queue<Waiter>> repositories : queues.values()) {
+            for (Queue<Waiter> queue : repositories.values()) {
+                count += queue.size();
+            }
+        }
+
+        return count;
+    }
+
+    public synchronized int getGlobalLimit() {
+        return globalLimit;
+    }
+
+    public synchronized DownloadScheduler setGlobalLimit(int globalLimit) {
+        this.globalLimit = Math.max(1, globalLimit);
+        dispatch();
+
+        return this;
+    }
+
+    /**
+     * @return the number of permits background downloads leave for the other priorities
+     */
+    public synchronized int getReservedPermits() {
+        return reservedPermits;
+    }
+
+    public synchronized DownloadScheduler setReservedPermits(int reservedPermits) {
+        this.reservedPermits = Math.max(0, reservedPermits);
+        dispatch();
+
+        return this;
+    }
+
+    /**
+     * @return the limit of hosts without a limit of their own
+     */
+    public synchronized int getDefaultHostLimit() {
+        return defaultHostLimit;
+    }
+
+    public synchronized DownloadScheduler setDefaultHostLimit(int defaultHostLimit) {
+        this.defaultHostLimit = Math.max(1, defaultHostLimit);
+        dispatch();
+
+        return this;
+    }
+
+    public synchronized AdaptiveConcurrencyLimit getAdaptiveLimit() {
+        return adaptiveLimit;
+    }
+
+    /**
+     * @param adaptiveLimit the adaptive limit, or null to always use the configured host limits
+     * @return this scheduler
+     */
+    public synchronized DownloadScheduler setAdaptiveLimit(AdaptiveConcurrencyLimit adaptiveLimit) {
+        this.adaptiveLimit = adaptiveLimit;
+        dispatch();
+
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of concurrent connections to a host, e.g. what a mirror allows.
+     *
+     * @param host the host name
+     * @param limit the limit, 0 to use the default host limit
+     * @return this scheduler
+     */
+    public synchronized DownloadScheduler setHostLimit(String host, int limit) {
+        if (limit > 0) {
+            hostLimits.put(normalize(host), limit);
+        } else {
+            hostLimits.remove(normalize(host));
+        }
+        dispatch();
+
+        return this;
+    }
+
+    /**
+     * Gets the current concurrency limit of a host: the configured limit,
+     * lowered by the {@link AdaptiveConcurrencyLimit} if any.
+     *
+     * @param host the host name
+     * @return the maximum number of concurrent connections to the host
+     */
+    public synchronized int getHostLimit(String host) {
+        int limit = hostLimits.getOrDefault(normalize(host), defaultHostLimit);
+
+        return adaptiveLimit != null ? Math.min(limit, adaptiveLimit.getLimit(host)) : limit;
+    }
+
+    // grants permits to as many waiters as the limits allow, in priority and round-robin order
+    private void dispatch() {
+        boolean granted = false;
+        for (DownloadPriority priority : DownloadPriority.values()) {
+            int limit = priority == DownloadPriority.BACKGROUND ? Math.max(1, globalLimit - reservedPermits) : globalLimit;
+            LinkedHashMap<String, Queue<Waiter>> repositories = queues.get(priority);
+            boolean progress = true;
+            while (progress && active < limit && !repositories.isEmpty()) {
+                progress = false;
+                // one download per repository and round, the served repository moves to the end
+                for (String repositoryId : new ArrayList<>(repositories.keySet())) {
+                    if (active >= limit) {
+                        break;
+                    }
+                    Queue<Waiter> queue = repositories.get(repositoryId);
+                    Waiter waiter = nextRunnable(queue, priority);
+                    if (waiter == null) {
+                        continue;
+                    }
+                    grant(waiter);
+                    granted = progress = true;
+                    repositories.remove(repositoryId);
+                    if (!queue.isEmpty()) {
+                        repositories.put(repositoryId, queue);
+                    }
+                }
+            }
+        }
+
+        if (granted) {
+            notifyAll();
+        }
+    }
+
+    // the first waiter of the queue whose host is below its limit
+    private Waiter nextRunnable(Queue<Waiter> queue, DownloadPriority priority) {
+        for (Iterator<Waiter> it = queue.iterator(); it.hasNext(); ) {
+            Waiter waiter = it.next();
+            if (activePerHost.getOrDefault(waiter.host, 0) < getHostLimit(waiter.host, priority)) {
+                it.remove();
+                return waiter;
+            }
+        }
+
+        return null;
+    }
+
+    private int getHostLimit(String host, DownloadPriority priority) {
+        int limit = getHostLimit(host);
+        if (priority == DownloadPriority.BACKGROUND && reservedPermits > 0) {
+            return Math.max(1, limit - 1);
+        }
+
+        return limit;
+    }
+
+    private void grant(Waiter waiter) {
+        waiter.granted = true;
+        active++;
+        activePerHost.merge(waiter.host, 1, Integer::sum);
+    }
+
+    private synchronized void record(String host, long bytes, long nanos, boolean success) {
+        if (adaptiveLimit != null) {
+            if (success) {
+                adaptiveLimit.onSuccess(host, bytes, nanos, activePerHost.getOrDefault(host, 1));
+            } else {
+                adaptiveLimit.onFailure(host);
+            }
+            dispatch();
+        }
+    }
+
+    private synchronized void release(String host) {
+        active--;
+        if (activePerHost.merge(host, -1, Integer::sum) <= 0) {
+            activePerHost.remove(host);
+        }
+        dispatch();
+    }
+
+    private void remove(Waiter waiter) {
+        for (LinkedHashMap<String, Queue<Waiter>> repositories : queues.values()) {
+            repositories.values().removeIf(queue -> queue.remove(waiter) && queue.isEmpty());
+        }
+    }
+
+    private static String normalize(String host) {
+        return host == null ? "" : host.toLowerCase(Locale.ROOT);
+    }
+
+    private static class Waiter {
+
+        final String host;
+        boolean granted;
+
+        Waiter(String host) {
+            this.host = host;
+        }
+
+    }
+
+    /**
+     * The permission to download from a host. Closing it more than once has no effect.
+     * Report the outcome of the transfer before closing, for the adaptive limit.
+     */
+    public class Permit implements AutoCloseable {
+
+        private final String host;
+        private final long start = System.nanoTime();
+        private boolean closed;
+
+        private Permit(String host) {
+            this.host = host;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        /**
+         * @param bytes the number of bytes transferred
+         */
+        public void recordSuccess(long bytes) {
+            record(host, bytes, System.nanoTime() - start, true);
+        }
+
+        public void recordFailure() {
+            record(host, 0, System.nanoTime() - start, false);
+        }
+
+        @Override
+        public void close() {
+            synchronized (DownloadScheduler.this) {
+                if (!closed) {
+                    closed = true;
+                    release(host);
+                }
+            }
+        }
+
+    }
+
+}
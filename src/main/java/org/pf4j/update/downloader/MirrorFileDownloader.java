@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.downloader;
+
+import org.pf4j.update.FileDownloader;
+import org.pf4j.update.SimpleFileDownloader;
+import org.pf4j.update.StagingArea;
+import org.pf4j.update.util.CancellationToken;
+import org.pf4j.update.util.RetryPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Downloads files from the best mirror of a repository, see {@link MirrorSelector}.
+ * The download itself is done by a delegate. Failing over to another mirror is the first
+ * remedy for a failed download; the whole round over the mirrors is retried with a {@link RetryPolicy}.
+ */
+public class MirrorFileDownloader implements FileDownloader {
+
+    private static final Logger log = LoggerFactory.getLogger(MirrorFileDownloader.class);
+
+    private final MirrorSelector mirrorSelector;
+    private final FileDownloader delegate;
+    private RetryPolicy retryPolicy = new RetryPolicy();
+
+    public MirrorFileDownloader(MirrorSelector mirrorSelector, FileDownloader delegate) {
+        this.mirrorSelector = mirrorSelector;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Path downloadFile(URL fileUrl) throws IOException {
+        return retryPolicy.execute(() -> mirrorSelector.execute(fileUrl,
+            (url, cancellationToken) -> getDelegate(cancellationToken).downloadFile(url),
+            getCancellationToken(), this::discard));
+    }
+
+    @Override
+    public boolean downloadRange(URL fileUrl, Path file, long offset, long length) throws IOException {
+        return retryPolicy.execute(() -> mirrorSelector.execute(fileUrl,
+            (url, cancellationToken) -> getDelegate(cancellationToken).downloadRange(url, file, offset, length),
+            getCancellationToken(), null));
+    }
+
+    public MirrorSelector getMirrorSelector() {
+        return mirrorSelector;
+    }
+
+    public FileDownloader getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Copies this downloader with another delegate, e.g. a configured copy of the delegate for one download.
+     *
+     * @param delegate the delegate of the copy
+     * @return the copy, sharing the mirror selector and the retry policy with this downloader
+     */
+    public MirrorFileDownloader withDelegate(FileDownloader delegate) {
+        MirrorFileDownloader copy = new MirrorFileDownloader(mirrorSelector, delegate);
+        copy.setRetryPolicy(retryPolicy);
+
+        return copy;
+    }
+
+    /**
+     * Copies this downloader with another cancellation token for its delegate,
+     * see {@link SimpleFileDownloader#withCancellationToken(CancellationToken)}.
+     *
+     * @param cancellationToken the token of the copy, or null
+     * @return the copy, or this downloader if its delegate cannot be cancelled
+     */
+    public MirrorFileDownloader withCancellationToken(CancellationToken cancellationToken) {
+        if (delegate instanceof SimpleFileDownloader) {
+            return withDelegate(((SimpleFileDownloader) delegate).withCancellationToken(cancellationToken));
+        }
+
+        return this;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    private CancellationToken getCancellationToken() {
+        return delegate instanceof SimpleFileDownloader ? ((SimpleFileDownloader) delegate).getCancellationToken() : null;
+    }
+
+    // a hedged request downloads with a token of its own, so that it is disconnected when it lost
+    private FileDownloader getDelegate(CancellationToken cancellationToken) {
+        if (delegate instanceof SimpleFileDownloader) {
+            return ((SimpleFileDownloader) delegate).withCancellationToken(cancellationToken);
+        }
+
+        return delegate;
+    }
+
+    private void discard(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Cannot delete '{}'", file, e);
+        }
+
+        StagingArea stagingArea = delegate instanceof SimpleFileDownloader
+            ? ((SimpleFileDownloader) delegate).getStagingArea()
+            : null;
+        if (stagingArea != null) {
+            stagingArea.release(file);
+        }
+    }
+
+}
@@ -0,0 +1,446 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.downloader;
+
+import org.pf4j.update.util.CancellationToken;
+import org.pf4j.update.util.CancelledException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Sends requests for the files of a repository to the best of its mirrors.
+ * <p>
+ * The first URL is the primary one: file URLs below it are mapped to the same path below each mirror.
+ * Every mirror keeps a score made of its average latency and its recent failure rate, and requests
+ * go to the mirror with the lowest score, failing over to the next one on errors. Mirrors without
+ * samples score best, so every mirror gets measured.
+ * <p>
+ * With hedging enabled, a duplicate request is sent to the second best mirror when the first one
+ * has not answered within its 95th latency percentile. The first success wins, the other
+ * request is cancelled (see {@link CancellableRequest}) and its result discarded.
+ */
+public class MirrorSelector {
+
+    private static final Logger log = LoggerFactory.getLogger(MirrorSelector.class);
+
+    /**
+     * The hedge delay until a mirror has enough latency samples, in milliseconds.
+     */
+    public static final long DEFAULT_HEDGE_DELAY = 2000;
+    public static final long MIN_HEDGE_DELAY = 50;
+
+    // the score a mirror that always fails has on top of its latency, in milliseconds
+    static final double FAILURE_PENALTY = 10_000;
+    static final int MIN_SAMPLES = 10;
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "pf4j-update-mirror");
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    private final List<Mirror> mirrors;
+    private volatile boolean hedging;
+    private volatile long hedgeDelay = DEFAULT_HEDGE_DELAY;
+
+    public MirrorSelector(URL... urls) {
+        this(Arrays.asList(urls));
+    }
+
+    /**
+     * @param urls the base URLs of the mirrors, the first one is the primary
+     */
+    public MirrorSelector(List<URL> urls) {
+        if (urls.isEmpty()) {
+            throw new IllegalArgumentException("At least one mirror is required");
+        }
+
+        List<Mirror> mirrors = new ArrayList<>(urls.size());
+        for (URL url : urls) {
+            mirrors.add(new Mirror(url));
+        }
+        this.mirrors = Collections.unmodifiableList(mirrors);
+    }
+
+    public URL getPrimary() {
+        return mirrors.get(0).getUrl();
+    }
+
+    public List<Mirror> getMirrors() {
+        return mirrors;
+    }
+
+    /**
+     * @return the mirrors, best first
+     */
+    public List<Mirror> getRankedMirrors() {
+        List<Mirror> ranked = new ArrayList<>(mirrors);
+        // stable, so mirrors with the same score keep the configured order
+        ranked.sort(Comparator.comparingDouble(Mirror::getScore));
+
+        return ranked;
+    }
+
+    public boolean isHedging() {
+        return hedging;
+    }
+
+    public MirrorSelector setHedging(boolean hedging) {
+        this.hedging = hedging;
+
+        return this;
+    }
+
+    /**
+     * @return the hedge delay used until a mirror has enough latency samples, in milliseconds
+     */
+    public long getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    public MirrorSelector setHedgeDelay(long hedgeDelay) {
+        this.hedgeDelay = hedgeDelay;
+
+        return this;
+    }
+
+    /**
+     * Maps a file URL of the primary to the same file on a mirror.
+     *
+     * @param url the file URL
+     * @param mirror the mirror
+     * @return the file URL on the mirror, or null if the file is not below the primary URL
+     */
+    public URL resolve(URL url, Mirror mirror) {
+        String primary = getPrimary().toString();
+        String file = url.toString();
+        if (!file.startsWith(primary)) {
+            return null;
+        }
+
+        try {
+            return new URL(mirror.getUrl(), file.substring(primary.length()));
+        } catch (MalformedURLException e) {
+            log.warn("Cannot resolve '{}' against mirror '{}'", file, mirror.getUrl());
+            return null;
+        }
+    }
+
+    public <T> T execute(URL url, Request<T> request) throws IOException {
+        return execute(url, request, null);
+    }
+
+    /**
+     * Sends a request for a file of the primary to the best mirror, failing over to the other mirrors.
+     * Files that are not below the primary URL are requested as is.
+     *
+     * @param url the file URL on the primary
+     * @param request the request
+     * @param discard called with the results of hedged requests that lost, may be null
+     * @param <T> the type of the result
+     * @return the result of the first successful request
+     * @throws IOException the error of the last mirror, if all failed
+     */
+    public <T> T execute(URL url, Request<T> request, Consumer<? super T> discard) throws IOException {
+        return execute(url, (mirrorUrl, cancellationToken) -> request.send(mirrorUrl), null, discard);
+    }
+
+    /**
+     * Like {@link #execute(URL, Request, Consumer)}, but every hedged request gets a child token of its own,
+     * cancelled when the request lost, so that it stops instead of running to the end.
+     *
+     * @param url the file URL on the primary
+     * @param request the request
+     * @param cancellationToken the token of the whole operation, may be null
+     * @param discard called with the results of hedged requests that lost, may be null
+     * @param <T> the type of the result
+     * @return the result of the first successful request
+     * @throws IOException the error of the last mirror, if all failed
+     */
+    public <T> T execute(URL url, CancellableRequest<T> request, CancellationToken cancellationToken,
+                         Consumer<? super T> discard) throws IOException {
+        if (resolve(url, mirrors.get(0)) == null) {
+            return request.send(url, cancellationToken);
+        }
+
+        List<Mirror> ranked = getRankedMirrors();
+        if (!hedging || ranked.size() == 1) {
+            return executeSequentially(url, request, cancellationToken, ranked);
+        }
+
+        return executeHedged(url, request, cancellationToken, discard, ranked);
+    }
+
+    private <T> T executeSequentially(URL url, CancellableRequest<T> request, CancellationToken cancellationToken,
+                                      List<Mirror> ranked) throws IOException {
+        IOException failure = null;
+        for (Mirror mirror : ranked) {
+            URL mirrorUrl = resolve(url, mirror);
+            long start = System.nanoTime();
+            try {
+                T result = request.send(mirrorUrl, cancellationToken);
+                mirror.recordSuccess(elapsedMillis(start));
+
+                return result;
+            } catch (IOException e) {
+                if (isInterruption(e)) {
+                    throw e;
+                }
+                mirror.recordFailure();
+                log.debug("Request of '{}' failed, fail over to the next mirror: {}", mirrorUrl, e.getMessage());
+                failure = e;
+            }
+        }
+
+        throw failure;
+    }
+
+    private <T> T executeHedged(URL url, CancellableRequest<T> request, CancellationToken cancellationToken,
+                                Consumer<? super T> discard, List<Mirror> ranked) throws IOException {
+        CompletionService<T> completionService = new ExecutorCompletionService<>(executor);
+        Map<Future<T>, Mirror> inFlight = new HashMap<>();
+        Map<Mirror, CancellationToken> tokens = new HashMap<>();
+        AtomicBoolean settled = new AtomicBoolean();
+        Function<Mirror, Future<T>> submit = mirror -> {
+            CancellationToken token = cancellationToken != null ? cancellationToken.newChild() : new CancellationToken();
+            tokens.put(mirror, token);
+
+            return completionService.submit(task(url, request, token, discard, mirror, settled));
+        };
+        int next = 0;
+        boolean hedged = false;
+        IOException failure = null;
+        try {
+            inFlight.put(submit.apply(ranked.get(next)), ranked.get(next++));
+            while (!inFlight.isEmpty()) {
+                Future<T> done;
+                if (!hedged && next < ranked.size()) {
+                    done = completionService.poll(getHedgeDelay(ranked.get(0)), TimeUnit.MILLISECONDS);
+                    if (done == null) {
+                        log.debug("No answer from '{}' yet, send a hedged request", ranked.get(0).getUrl());
+                        hedged = true;
+                        inFlight.put(submit.apply(ranked.get(next)), ranked.get(next++));
+                        continue;
+                    }
+                } else {
+                    done = completionService.take();
+                }
+
+                Mirror mirror = inFlight.remove(done);
+                try {
+                    return done.get();
+                } catch (ExecutionException e) {
+                    if (settled.get()) {
+                        // another request already won
+                        continue;
+                    }
+                    failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                    if (failure instanceof CancelledException) {
+                        throw failure;
+                    }
+                    log.debug("Request to '{}' failed: {}", mirror.getUrl(), failure.getMessage());
+                    if (next < ranked.size()) {
+                        inFlight.put(submit.apply(ranked.get(next)), ranked.get(next++));
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a mirror");
+        } finally {
+            // disconnects the requests still in flight; for the finished ones it only unregisters the token
+            for (CancellationToken token : tokens.values()) {
+                token.cancel();
+            }
+            for (Future<T> future : inFlight.keySet()) {
+                future.cancel(true);
+            }
+        }
+
+        throw failure;
+    }
+
+    private <T> Callable<T> task(URL url, CancellableRequest<T> request, CancellationToken cancellationToken,
+                                 Consumer<? super T> discard, Mirror mirror, AtomicBoolean settled) {
+        URL mirrorUrl = resolve(url, mirror);
+
+        return () -> {
+            long start = System.nanoTime();
+            T result;
+            try {
+                result = request.send(mirrorUrl, cancellationToken);
+            } catch (IOException e) {
+                if (!settled.get()) {
+                    mirror.recordFailure();
+                }
+                throw e;
+            }
+
+            mirror.recordSuccess(elapsedMillis(start));
+            if (!settled.compareAndSet(false, true)) {
+                if (discard != null) {
+                    discard.accept(result);
+                }
+                throw new IOException("Superseded by a faster mirror");
+            }
+
+            return result;
+        };
+    }
+
+    // cancelled or interrupted, as opposed to a mirror that timed out (a SocketTimeoutException is interrupted I/O too)
+    private static boolean isInterruption(IOException e) {
+        return e instanceof CancelledException
+            || (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException))
+            || Thread.currentThread().isInterrupted();
+    }
+
+    private long getHedgeDelay(Mirror mirror) {
+        if (mirror.getSampleCount() < MIN_SAMPLES) {
+            return hedgeDelay;
+        }
+
+        return Math.max(MIN_HEDGE_DELAY, mirror.getLatencyPercentile(95));
+    }
+
+    private static long elapsedMillis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * A request for a file.
+     *
+     * @param <T> the type of the result
+     */
+    public interface Request<T> {
+
+        T send(URL url) throws IOException;
+
+    }
+
+    /**
+     * A request for a file that stops when its token is cancelled, e.g. by disconnecting.
+     *
+     * @param <T> the type of the result
+     */
+    public interface CancellableRequest<T> {
+
+        T send(URL url, CancellationToken cancellationToken) throws IOException;
+
+    }
+
+    /**
+     * A mirror and its statistics.
+     */
+    public static class Mirror {
+
+        // weight of the newest sample in the moving averages
+        private static final double ALPHA = 0.3;
+        private static final int WINDOW = 100;
+
+        private final URL url;
+        private final long[] latencies = new long[WINDOW];
+        private int sampleCount;
+        private double averageLatency;
+        private double failureRate;
+
+        Mirror(URL url) {
+            this.url = url;
+        }
+
+        public URL getUrl() {
+            return url;
+        }
+
+        /**
+         * @return average latency plus a penalty for recent failures, lower is better
+         */
+        public synchronized double getScore() {
+            return averageLatency + failureRate * FAILURE_PENALTY;
+        }
+
+        public synchronized double getAverageLatency() {
+            return averageLatency;
+        }
+
+        public synchronized double getFailureRate() {
+            return failureRate;
+        }
+
+        public synchronized int getSampleCount() {
+            return Math.min(sampleCount, WINDOW);
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the latency percentile of the last successful requests in milliseconds, 0 if none
+         */
+        public synchronized long getLatencyPercentile(double percentile) {
+            int count = getSampleCount();
+            if (count == 0) {
+                return 0;
+            }
+
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100 * count) - 1;
+
+            return sorted[Math.max(0, Math.min(count - 1, index))];
+        }
+
+        synchronized void recordSuccess(long millis) {
+            latencies[sampleCount++ % WINDOW] = millis;
+            averageLatency = sampleCount == 1 ? millis : ALPHA * millis + (1 - ALPHA) * averageLatency;
+            failureRate = (1 - ALPHA) * failureRate;
+        }
+
+        synchronized void recordFailure() {
+            failureRate = ALPHA + (1 - ALPHA) * failureRate;
+        }
+
+        @Override
+        public String toString() {
+            return url.toString();
+        }
+
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.downloader;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An input stream that takes every byte read from a number of {@link TokenBucket}s
+ * and waits as long as the most restrictive bucket requires.
+ */
+public class ThrottledInputStream extends FilterInputStream {
+
+    private final List<TokenBucket> buckets;
+
+    public ThrottledInputStream(InputStream in, List<TokenBucket> buckets) {
+        super(in);
+
+        this.buckets = buckets;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            throttle(1);
+        }
+
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) {
+            throttle(n);
+        }
+
+        return n;
+    }
+
+    private void throttle(int bytes) throws InterruptedIOException {
+        long waitNanos = 0;
+        for (TokenBucket bucket : buckets) {
+            waitNanos = Math.max(waitNanos, bucket.reserve(bytes));
+        }
+
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.downloader;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket for byte rates. A bucket holds at most one second worth of tokens.
+ * Callers take the tokens they need and, if the bucket runs into debt, sleep until
+ * the debt is paid back at the configured rate. The rate can be changed at any time,
+ * a rate of {@code 0} (or less) means unlimited.
+ */
+public class TokenBucket {
+
+    private static final long ONE_SECOND = 1_000_000_000L;
+
+    private final LongSupplier nanoTime;
+    private volatile long bytesPerSecond;
+
+    private long tokens;
+    private long lastRefill;
+
+    public TokenBucket(long bytesPerSecond) {
+        this(bytesPerSecond, System::nanoTime);
+    }
+
+    TokenBucket(long bytesPerSecond, LongSupplier nanoTime) {
+        this.nanoTime = nanoTime;
+        setBytesPerSecond(bytesPerSecond);
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public synchronized void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        tokens = Math.min(tokens, Math.max(bytesPerSecond, 0));
+        lastRefill = nanoTime.getAsLong();
+    }
+
+    public boolean isUnlimited() {
+        return bytesPerSecond <= 0;
+    }
+
+    /**
+     * Takes the given number of bytes from the bucket, waiting if the rate is exceeded.
+     *
+     * @param bytes the number of bytes transferred
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public void acquire(long bytes) throws InterruptedIOException {
+        long waitNanos = reserve(bytes);
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling");
+            }
+        }
+    }
+
+    /**
+     * Takes the given number of bytes from the bucket without waiting.
+     *
+     * @param bytes the number of bytes transferred
+     * @return the nanoseconds the caller has to wait to honor the rate
+     */
+    synchronized long reserve(long bytes) {
+        long rate = bytesPerSecond;
+        if (rate <= 0) {
+            return 0;
+        }
+
+        long now = nanoTime.getAsLong();
+        // no longer than it takes to fill the bucket (paying back a debt first), a long idle time would overflow
+        long elapsed = Math.min(now - lastRefill, (rate - tokens) * ONE_SECOND / rate + 1);
+        long refill = elapsed * rate / ONE_SECOND;
+        if (refill > 0) {
+            tokens = Math.min(rate, tokens + refill);
+            lastRefill = now;
+        }
+
+        tokens -= bytes;
+
+        return tokens < 0 ? -tokens * ONE_SECOND / rate : 0;
+    }
+
+}
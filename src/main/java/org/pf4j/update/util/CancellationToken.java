@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.util;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cancels a long-running operation (e.g. a download and its verification), on request or when a deadline passes.
+ * <p>
+ * Operations poll the token between steps and register callbacks that unblock them when it is cancelled,
+ * e.g. one that disconnects a connection or interrupts the waiting thread.
+ * Blocking calls with a timeout should {@link #capTimeout(int) cap} it to the time left.
+ * A cancelled token stays cancelled.
+ */
+public class CancellationToken {
+
+    private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "pf4j-update-deadline");
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    static {
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    private final boolean timed;
+    private final long deadline;
+
+    // guarded by this
+    private final List<Runnable> callbacks = new ArrayList<>();
+    private ScheduledFuture<?> expiry;
+    private volatile boolean cancelled;
+    private volatile boolean expired;
+
+    /**
+     * Creates a token without a deadline, cancelled by {@link #cancel()} only.
+     */
+    public CancellationToken() {
+        this(false, 0);
+    }
+
+    private CancellationToken(boolean timed, long deadline) {
+        this.timed = timed;
+        this.deadline = deadline;
+    }
+
+    /**
+     * @param timeout the time the operation may take, from now
+     * @return a token that cancels itself when the timeout elapsed
+     */
+    public static CancellationToken withTimeout(Duration timeout) {
+        return new CancellationToken(true, System.nanoTime() + timeout.toNanos());
+    }
+
+    /**
+     * Creates a token with the same deadline that is cancelled with this one, but can also be cancelled
+     * on its own, e.g. one of several concurrent requests of the same operation.
+     *
+     * @return the child token
+     */
+    public CancellationToken newChild() {
+        CancellationToken child = new CancellationToken(timed, deadline);
+        Registration registration = onCancel(() -> {
+            if (expired) {
+                child.expire();
+            } else {
+                child.cancel();
+            }
+        });
+        child.onCancel(registration::close);
+
+        return child;
+    }
+
+    /**
+     * Cancels the token and runs the registered callbacks. Does nothing if cancelled already.
+     */
+    public void cancel() {
+        List<Runnable> toRun;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            if (expiry != null) {
+                expiry.cancel(false);
+                expiry = null;
+            }
+            toRun = new ArrayList<>(callbacks);
+            callbacks.clear();
+        }
+        for (Runnable callback : toRun) {
+            callback.run();
+        }
+    }
+
+    /**
+     * @return true if cancelled or past the deadline
+     */
+    public boolean isCancelled() {
+        if (!cancelled && timed && System.nanoTime() - deadline >= 0) {
+            expire();
+        }
+
+        return cancelled;
+    }
+
+    /**
+     * @return true if cancelled because the deadline passed
+     */
+    public boolean isExpired() {
+        return isCancelled() && expired;
+    }
+
+    /**
+     * @throws CancelledException if cancelled or past the deadline
+     */
+    public void throwIfCancelled() throws CancelledException {
+        if (isCancelled()) {
+            throw new CancelledException(expired ? "Deadline exceeded" : "Cancelled");
+        }
+    }
+
+    /**
+     * @return the time left until the deadline in milliseconds (at least 1 before it passed),
+     *     0 if cancelled, {@link Long#MAX_VALUE} without a deadline
+     */
+    public long getRemainingMillis() {
+        if (isCancelled()) {
+            return 0;
+        }
+        if (!timed) {
+            return Long.MAX_VALUE;
+        }
+
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime() + 999_999));
+    }
+
+    /**
+     * Caps a timeout to the time left until the deadline, e.g. the connect and read timeout of a connection.
+     *
+     * @param timeout the timeout in milliseconds, 0 for none
+     * @return the timeout to use in milliseconds, at least 1 (a cancelled token fails the operation itself)
+     */
+    public int capTimeout(int timeout) {
+        if (!timed) {
+            return timeout;
+        }
+
+        long remaining = Math.max(1, getRemainingMillis());
+        if (timeout > 0 && timeout < remaining) {
+            return timeout;
+        }
+
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Registers a callback that runs once when the token is cancelled, right away if cancelled already.
+     * Callbacks run on the thread that cancels (the deadline timer for an expired token) and must not block,
+     * e.g. interrupt a thread or hand the closing of a connection over to another thread.
+     * A callback may still run shortly after its registration was closed.
+     *
+     * @param callback the callback
+     * @return the registration, to be closed when the callback is not needed anymore
+     */
+    public Registration onCancel(Runnable callback) {
+        synchronized (this) {
+            if (!isCancelled()) {
+                callbacks.add(callback);
+                if (timed && expiry == null) {
+                    expiry = timer.schedule(this::expire, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                }
+
+                return () -> unregister(callback);
+            }
+        }
+        callback.run();
+
+        return () -> { };
+    }
+
+    /**
+     * Interrupts the current thread when the token is cancelled, so that it stops waiting
+     * (e.g. for a download permit, a retry or a lock). Closing the registration clears the interrupt
+     * caused by the token, so that the thread can go on after it handled the cancellation.
+     *
+     * @return the registration, to be closed by the current thread
+     */
+    public Registration interruptOnCancel() {
+        Thread thread = Thread.currentThread();
+        // [0] closed, [1] interrupted, guarded by the array
+        boolean[] state = new boolean[2];
+        Registration registration = onCancel(() -> {
+            synchronized (state) {
+                if (!state[0]) {
+                    state[1] = true;
+                    thread.interrupt();
+                }
+            }
+        });
+
+        return () -> {
+            registration.close();
+            synchronized (state) {
+                state[0] = true;
+                if (state[1]) {
+                    Thread.interrupted();
+                }
+            }
+        };
+    }
+
+    private synchronized void expire() {
+        if (!cancelled) {
+            expired = true;
+            cancel();
+        }
+    }
+
+    private synchronized void unregister(Runnable callback) {
+        callbacks.remove(callback);
+        if (callbacks.isEmpty() && expiry != null) {
+            expiry.cancel(false);
+            expiry = null;
+        }
+    }
+
+    /**
+     * A registered callback.
+     */
+    public interface Registration extends Closeable {
+
+        /**
+         * Unregisters the callback, it does not run anymore.
+         */
+        @Override
+        void close();
+
+    }
+
+}
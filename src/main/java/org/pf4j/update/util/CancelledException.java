@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.util;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Thrown when an operation stops because its {@link CancellationToken} was cancelled or its deadline passed.
+ * An {@link InterruptedIOException}, so that it is never retried.
+ */
+public class CancelledException extends InterruptedIOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CancelledException(String message) {
+        super(message);
+    }
+
+    public CancelledException(String message, Throwable cause) {
+        super(message);
+        initCause(cause);
+    }
+
+}
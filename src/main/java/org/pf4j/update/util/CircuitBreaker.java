@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A circuit breaker for a remote target (a repository or a host).
+ * After {@code failureThreshold} consecutive failures the circuit opens and requests fail fast
+ * for {@code openDuration}. Then a single probe request is let through (half-open):
+ * its success closes the circuit, its failure opens it again.
+ */
+public class CircuitBreaker {
+
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_DURATION = 30_000;
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openDurationNanos;
+    private final LongSupplier nanoTime;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+
+    public CircuitBreaker(String name) {
+        this(name, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_DURATION);
+    }
+
+    /**
+     * @param name the name of the target, for logging
+     * @param failureThreshold the number of consecutive failures that open the circuit
+     * @param openDuration how long the circuit stays open before a probe, in milliseconds
+     */
+    public CircuitBreaker(String name, int failureThreshold, long openDuration) {
+        this(name, failureThreshold, openDuration, System::nanoTime);
+    }
+
+    CircuitBreaker(String name, int failureThreshold, long openDuration, LongSupplier nanoTime) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDuration);
+        this.nanoTime = nanoTime;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Asks for permission to send a request. Callers that get permission must report
+     * the outcome with {@link #recordSuccess()} or {@link #recordFailure()}.
+     *
+     * @return true if the request may be sent, false if it should fail fast
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (nanoTime.getAsLong() - openedAt >= openDurationNanos) {
+                    log.debug("Circuit of '{}' is half-open, let a probe through", name);
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+                return false;
+            default:
+                // a probe is already in flight
+                return false;
+        }
+    }
+
+    /**
+     * Like {@link #allowRequest()}, but throws if the request should fail fast.
+     *
+     * @throws CircuitBreakerOpenException if the circuit is open
+     */
+    public void checkRequest() throws CircuitBreakerOpenException {
+        if (!allowRequest()) {
+            throw new CircuitBreakerOpenException("Circuit of '" + name + "' is open, failing fast");
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            log.info("Circuit of '{}' is closed again", name);
+        }
+        state = State.CLOSED;
+        failures = 0;
+    }
+
+    /**
+     * Reports that a request ended without an outcome for the target (e.g. it was cancelled).
+     * If it was the probe, the next request probes again, instead of the circuit staying half-open for good.
+     */
+    public synchronized void releaseProbe() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+            openedAt = nanoTime.getAsLong() - openDurationNanos;
+        }
+    }
+
+    public synchronized void recordFailure() {
+        failures++;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            if (state != State.OPEN) {
+                log.warn("Circuit of '{}' is open after {} consecutive failures", name, failures);
+            }
+            state = State.OPEN;
+            openedAt = nanoTime.getAsLong();
+        }
+    }
+
+}
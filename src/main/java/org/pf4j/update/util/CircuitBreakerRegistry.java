@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds one {@link CircuitBreaker} per target (e.g. per host), all with the same settings.
+ */
+public class CircuitBreakerRegistry {
+
+    private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+    private final int failureThreshold;
+    private final long openDuration;
+
+    public CircuitBreakerRegistry() {
+        this(CircuitBreaker.DEFAULT_FAILURE_THRESHOLD, CircuitBreaker.DEFAULT_OPEN_DURATION);
+    }
+
+    /**
+     * @param failureThreshold the number of consecutive failures that open a circuit
+     * @param openDuration how long a circuit stays open before a probe, in milliseconds
+     */
+    public CircuitBreakerRegistry(int failureThreshold, long openDuration) {
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+    }
+
+    public CircuitBreaker get(String target) {
+        return circuitBreakers.computeIfAbsent(target, t -> new CircuitBreaker(t, failureThreshold, openDuration));
+    }
+
+}
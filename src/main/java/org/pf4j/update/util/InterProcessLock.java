@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * An exclusive lock on a file, between processes with a {@link FileLock} and between the threads
+ * of this process with a {@link Semaphore} (a process can hold the lock of a file only once, and the thread
+ * that closes the lock may be another one than the thread that acquired it).
+ * <p>
+ * Lock files are never deleted, another process may be about to lock them. The lock between threads
+ * is kept only while a thread holds or waits for it.
+ */
+public class InterProcessLock implements Closeable {
+
+    private static final Map<Path, ThreadLock> threadLocks = new ConcurrentHashMap<>();
+
+    private final Path key;
+    private final ThreadLock threadLock;
+    private final FileChannel channel;
+    private final FileLock fileLock;
+
+    private InterProcessLock(Path key, ThreadLock threadLock, FileChannel channel, FileLock fileLock) {
+        this.key = key;
+        this.threadLock = threadLock;
+        this.channel = channel;
+        this.fileLock = fileLock;
+    }
+
+    /**
+     * Waits until the lock of the file is acquired.
+     *
+     * @param lockFile the lock file, created if it does not exist
+     * @return the lock, to be closed to release it
+     * @throws IOException if the file cannot be locked or the thread was interrupted
+     */
+    public static InterProcessLock acquire(Path lockFile) throws IOException {
+        return lock(lockFile, true);
+    }
+
+    /**
+     * Acquires the lock of the file unless another thread or process holds it, without waiting.
+     *
+     * @param lockFile the lock file, created if it does not exist
+     * @return the lock, to be closed to release it, or null if held by another thread or process
+     * @throws IOException if the file cannot be locked
+     */
+    public static InterProcessLock tryAcquire(Path lockFile) throws IOException {
+        return lock(lockFile, false);
+    }
+
+    private static InterProcessLock lock(Path lockFile, boolean wait) throws IOException {
+        Path key = lockFile.toAbsolutePath().normalize();
+        ThreadLock threadLock = threadLocks.compute(key, (k, existing) -> {
+            ThreadLock lock = existing != null ? existing : new ThreadLock();
+            lock.users++;
+
+            return lock;
+        });
+        if (wait) {
+            try {
+                threadLock.permit.acquire();
+            } catch (InterruptedException e) {
+                release(key);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for lock '" + lockFile + "'");
+            }
+        } else if (!threadLock.permit.tryAcquire()) {
+            release(key);
+            return null;
+        }
+
+        FileChannel channel = null;
+        FileLock fileLock;
+        try {
+            Files.createDirectories(key.getParent());
+            channel = FileChannel.open(key, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            fileLock = wait ? channel.lock() : channel.tryLock();
+        } catch (IOException | RuntimeException e) {
+            unlock(key, threadLock, channel, e);
+            throw e;
+        }
+        if (fileLock == null) {
+            // held by another process
+            unlock(key, threadLock, channel, null);
+            return null;
+        }
+
+        return new InterProcessLock(key, threadLock, channel, fileLock);
+    }
+
+    // undoes a lock that was not acquired
+    private static void unlock(Path key, ThreadLock threadLock, FileChannel channel, Exception failure) throws IOException {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            if (failure == null) {
+                throw e;
+            }
+            failure.addSuppressed(e);
+        } finally {
+            threadLock.permit.release();
+            release(key);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            try {
+                fileLock.release();
+            } finally {
+                channel.close();
+            }
+        } finally {
+            threadLock.permit.release();
+            release(key);
+        }
+    }
+
+    // drops the lock between threads when no thread holds or waits for it anymore
+    private static void release(Path key) {
+        threadLocks.computeIfPresent(key, (k, lock) -> --lock.users == 0 ? null : lock);
+    }
+
+    // the number of lock files that threads of this process hold or wait for
+    static int getThreadLockCount() {
+        return threadLocks.size();
+    }
+
+    private static final class ThreadLock {
+
+        final Semaphore permit = new Semaphore(1);
+        // guarded by the compute functions of the map
+        int users;
+
+    }
+
+}
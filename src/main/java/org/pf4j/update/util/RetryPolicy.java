@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retries an I/O action with exponential backoff and jitter.
+ * The delay before retry {@code n} is drawn at random between half and the full value of
+ * {@code min(maxDelay, initialDelay * multiplier^(n-1))}, so that many clients failing at the
+ * same time don't retry in lockstep.
+ * <p>
+ * Missing resources ({@link FileNotFoundException}), an open {@link CircuitBreaker} and interruptions
+ * are never retried.
+ */
+public class RetryPolicy {
+
+    private static final Logger log = LoggerFactory.getLogger(RetryPolicy.class);
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_INITIAL_DELAY = 200;
+    public static final long DEFAULT_MAX_DELAY = 5000;
+    public static final double DEFAULT_MULTIPLIER = 2;
+
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long initialDelay = DEFAULT_INITIAL_DELAY;
+    private long maxDelay = DEFAULT_MAX_DELAY;
+    private double multiplier = DEFAULT_MULTIPLIER;
+
+    /**
+     * @return a policy that tries only once
+     */
+    public static RetryPolicy none() {
+        return new RetryPolicy().setMaxAttempts(1);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param maxAttempts the number of attempts, including the first one
+     * @return this policy
+     */
+    public RetryPolicy setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+
+        return this;
+    }
+
+    public long getInitialDelay() {
+        return initialDelay;
+    }
+
+    /**
+     * @param initialDelay the delay before the first retry, in milliseconds
+     * @return this policy
+     */
+    public RetryPolicy setInitialDelay(long initialDelay) {
+        this.initialDelay = initialDelay;
+
+        return this;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * @param maxDelay the upper bound of the delay between attempts, in milliseconds
+     * @return this policy
+     */
+    public RetryPolicy setMaxDelay(long maxDelay) {
+        this.maxDelay = maxDelay;
+
+        return this;
+    }
+
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    public RetryPolicy setMultiplier(double multiplier) {
+        this.multiplier = multiplier;
+
+        return this;
+    }
+
+    /**
+     * Runs the action until it succeeds, fails with an error that is not worth retrying,
+     * or the attempts are used up.
+     *
+     * @param action the action
+     * @param <T> the type of the result
+     * @return the result of the first successful attempt
+     * @throws IOException the error of the last attempt
+     */
+    public <T> T execute(Action<T> action) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return action.run();
+            } catch (IOException e) {
+                if (attempt >= maxAttempts || !isRetryable(e)) {
+                    throw e;
+                }
+
+                long delay = getDelay(attempt);
+                log.debug("Attempt {} of {} failed ({}), retry in {} ms", attempt, maxAttempts, e.getMessage(), delay);
+                sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * @param attempt the number of the failed attempt, starting at 1
+     * @return the delay before the next attempt, in milliseconds
+     */
+    public long getDelay(int attempt) {
+        double delay = Math.min(maxDelay, initialDelay * Math.pow(multiplier, attempt - 1));
+        long half = (long) (delay / 2);
+
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    protected boolean isRetryable(IOException e) {
+        if (e instanceof FileNotFoundException || e instanceof CircuitBreakerOpenException) {
+            return false;
+        }
+
+        return !(e instanceof InterruptedIOException) || e instanceof SocketTimeoutException;
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+
+    /**
+     * An I/O action to retry.
+     *
+     * @param <T> the type of the result
+     */
+    public interface Action<T> {
+
+        T run() throws IOException;
+
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.verifier;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The checksums of all files of a repository, in the format of {@code sha512sum} (e.g. a {@code SHA512SUMS} file):
+ * one line per file with the hex digest, two spaces (or a space and a {@code *}) and the path of the file
+ * relative to the manifest.
+ */
+public class ChecksumManifest {
+
+    private final Map<String, String> checksums;
+
+    public ChecksumManifest(Map<String, String> checksums) {
+        this.checksums = checksums;
+    }
+
+    /**
+     * Reads a manifest. Lines that are empty, comments ({@code #}) or not understood are skipped.
+     *
+     * @param in the manifest
+     * @param compressed true if the manifest is gzip compressed
+     * @return the manifest
+     * @throws IOException if the manifest cannot be read
+     */
+    public static ChecksumManifest read(InputStream in, boolean compressed) throws IOException {
+        Map<String, String> checksums = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                compressed ? new GZIPInputStream(in) : in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                int separator = line.indexOf(' ');
+                if (line.isEmpty() || line.startsWith("#") || separator < 0) {
+                    continue;
+                }
+
+                String path = line.substring(separator + 1).trim();
+                if (path.startsWith("*")) {
+                    path = path.substring(1);
+                }
+                checksums.put(normalize(path), line.substring(0, separator));
+            }
+        }
+
+        return new ChecksumManifest(checksums);
+    }
+
+    /**
+     * @param path the path of the file relative to the manifest
+     * @return the checksum of the file, or null if not listed
+     */
+    public String getChecksum(String path) {
+        return checksums.get(normalize(path));
+    }
+
+    public int size() {
+        return checksums.size();
+    }
+
+    private static String normalize(String path) {
+        return path.startsWith("./") ? path.substring(2) : path;
+    }
+
+}
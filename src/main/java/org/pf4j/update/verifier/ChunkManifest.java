@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.verifier;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.DecoderException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The hashes of the fixed-size chunks of a file, plus a root hash over all chunk hashes.
+ * Chunks can be hashed in parallel, and a damaged chunk can be found (and fetched again)
+ * without hashing or downloading the whole file again.
+ * <p>
+ * Stored as json, e.g. {@code {"algorithm":"SHA-256","chunkSize":4194304,"size":9000000,"chunks":["ab12...", ...]}}.
+ * The root hash is the hash (same algorithm) of the concatenated binary chunk hashes.
+ */
+public class ChunkManifest {
+
+    public static final String DEFAULT_ALGORITHM = "SHA-256";
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private static final int READ_BUFFER_SIZE = 256 * 1024;
+
+    private String algorithm;
+    private int chunkSize;
+    private long size;
+    private List<String> chunks;
+
+    ChunkManifest() {
+        // for gson
+    }
+
+    public ChunkManifest(String algorithm, int chunkSize, long size, List<String> chunks) {
+        this.algorithm = algorithm;
+        this.chunkSize = chunkSize;
+        this.size = size;
+        this.chunks = chunks;
+    }
+
+    /**
+     * Hashes the chunks of a file.
+     *
+     * @param file the file
+     * @param algorithm the digest algorithm, e.g. {@value #DEFAULT_ALGORITHM}
+     * @param chunkSize the size of the chunks in bytes
+     * @param executor hashes the chunks in parallel, or null to hash them one after another
+     * @return the manifest of the file
+     * @throws IOException if the file cannot be read or the algorithm is not supported
+     */
+    public static ChunkManifest create(Path file, String algorithm, int chunkSize, ExecutorService executor) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ChunkManifest manifest = new ChunkManifest(algorithm, chunkSize, channel.size(), null);
+            List<String> chunks = new ArrayList<>(manifest.getChunkCount());
+            for (byte[] hash : manifest.hashChunks(channel, manifest.getChunkCount(), executor, null)) {
+                chunks.add(Hex.encodeHexString(hash));
+            }
+            manifest.chunks = chunks;
+
+            return manifest;
+        }
+    }
+
+    /**
+     * Reads a manifest, see {@link #write(OutputStream)}.
+     *
+     * @param in the json
+     * @return the manifest
+     * @throws IOException if the manifest cannot be read or is not valid
+     */
+    public static ChunkManifest read(InputStream in) throws IOException {
+        return read(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    public static ChunkManifest parse(String json) throws IOException {
+        return read(new StringReader(json));
+    }
+
+    private static ChunkManifest read(Reader reader) throws IOException {
+        ChunkManifest manifest;
+        try (Reader r = reader) {
+            manifest = new Gson().fromJson(r, ChunkManifest.class);
+        } catch (JsonParseException e) {
+            throw new IOException("Cannot parse chunk manifest", e);
+        }
+        if (manifest == null || manifest.chunkSize <= 0 || manifest.size < 0 || manifest.chunks == null
+            || manifest.chunks.size() != manifest.getChunkCount()) {
+            throw new IOException("Invalid chunk manifest");
+        }
+        manifest.newDigest();
+
+        return manifest;
+    }
+
+    public void write(OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        new Gson().toJson(this, writer);
+        writer.flush();
+    }
+
+    /**
+     * @return the root hash (hex) over all chunk hashes
+     */
+    public String getRoot() throws IOException {
+        MessageDigest digest = newDigest();
+        try {
+            for (String chunk : chunks) {
+                digest.update(Hex.decodeHex(chunk.toCharArray()));
+            }
+        } catch (DecoderException e) {
+            throw new IOException("Invalid chunk hash", e);
+        }
+
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    /**
+     * Verifies a single chunk, e.g. while it is downloaded.
+     *
+     * @param index the index of the chunk
+     * @param data the content of the chunk, consumed
+     * @return true if the content matches the hash of the chunk
+     * @throws IOException if the algorithm is not supported
+     */
+    public boolean verifyChunk(int index, ByteBuffer data) throws IOException {
+        if (data.remaining() != getChunkLength(index)) {
+            return false;
+        }
+
+        MessageDigest digest = newDigest();
+        digest.update(data);
+
+        return Hex.encodeHexString(digest.digest()).equalsIgnoreCase(chunks.get(index));
+    }
+
+    /**
+     * Hashes the chunks of a file. The chunks missing from a file shorter than the
+     * manifest, e.g. a truncated download, are reported as damaged so that they can be
+     * fetched again by range; a file longer than the manifest fails.
+     *
+     * @param file the file
+     * @param executor hashes the chunks in parallel, or null to hash them one after another
+     * @param failFast true to stop at the first damaged chunk found
+     * @return the indexes of the damaged chunks in ascending order, empty if the file matches
+     * @throws IOException if the file cannot be read
+     */
+    public List<Integer> findCorruptChunks(Path file, ExecutorService executor, boolean failFast) throws IOException {
+        List<Integer> corrupt = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > size) {
+                throw new IOException("Size of '" + file + "' is " + channel.size() + " instead of " + size);
+            }
+
+            // the chunks ending past the end of the file are missing
+            int present = 0;
+            while (present < getChunkCount() && getChunkOffset(present) + getChunkLength(present) <= channel.size()) {
+                present++;
+            }
+
+            AtomicBoolean stop = failFast ? new AtomicBoolean() : null;
+            List<byte[]> hashes = hashChunks(channel, present, executor, stop);
+            for (int i = 0; i < hashes.size(); i++) {
+                byte[] hash = hashes.get(i);
+                if (hash != null && !Hex.encodeHexString(hash).equalsIgnoreCase(chunks.get(i))) {
+                    corrupt.add(i);
+                }
+            }
+            for (int i = present; i < getChunkCount() && !(failFast && !corrupt.isEmpty()); i++) {
+                corrupt.add(i);
+            }
+        }
+
+        return corrupt;
+    }
+
+    // a null hash for the chunks skipped after stop was set
+    private List<byte[]> hashChunks(FileChannel channel, int count, ExecutorService executor, AtomicBoolean stop) throws IOException {
+        List<Callable<byte[]>> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int index = i;
+            tasks.add(() -> {
+                if (stop != null && stop.get()) {
+                    return null;
+                }
+                byte[] hash = hashChunk(channel, index);
+                if (stop != null && chunks != null && !Hex.encodeHexString(hash).equalsIgnoreCase(chunks.get(index))) {
+                    stop.set(true);
+                }
+                return hash;
+            });
+        }
+
+        List<byte[]> hashes = new ArrayList<>(count);
+        try {
+            if (executor == null) {
+                for (Callable<byte[]> task : tasks) {
+                    hashes.add(task.call());
+                }
+            } else {
+                for (Future<byte[]> future : executor.invokeAll(tasks)) {
+                    hashes.add(future.get());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while hashing chunks");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+
+        return hashes;
+    }
+
+    private byte[] hashChunk(FileChannel channel, int index) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(READ_BUFFER_SIZE, Math.max(1, getChunkLength(index))));
+        long position = getChunkOffset(index);
+        long end = position + getChunkLength(index);
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file at " + position);
+            }
+            buffer.flip();
+            digest.update(buffer);
+            position += read;
+        }
+
+        return digest.digest();
+    }
+
+    private MessageDigest newDigest() throws IOException {
+        if (algorithm == null) {
+            throw new IOException("No chunk hash algorithm");
+        }
+
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Unsupported chunk hash algorithm " + algorithm, e);
+        }
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return the size of the whole file in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    public int getChunkCount() {
+        return (int) ((size + chunkSize - 1) / chunkSize);
+    }
+
+    public long getChunkOffset(int index) {
+        return (long) index * chunkSize;
+    }
+
+    public long getChunkLength(int index) {
+        return Math.min(chunkSize, size - getChunkOffset(index));
+    }
+
+    public List<String> getChunks() {
+        return Collections.unmodifiableList(chunks);
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.verifier;
+
+import org.pf4j.update.VerifyException;
+
+import java.util.List;
+
+/**
+ * Thrown when some chunks of a file do not match their {@link ChunkManifest}.
+ * Only these chunks have to be fetched again.
+ */
+public class ChunkVerifyException extends VerifyException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient ChunkManifest manifest;
+    private final List<Integer> corruptChunks;
+
+    public ChunkVerifyException(ChunkManifest manifest, List<Integer> corruptChunks, String message, Object... args) {
+        super(message, args);
+        this.manifest = manifest;
+        this.corruptChunks = corruptChunks;
+    }
+
+    public ChunkManifest getManifest() {
+        return manifest;
+    }
+
+    /**
+     * @return the indexes of the damaged chunks, in ascending order
+     */
+    public List<Integer> getCorruptChunks() {
+        return corruptChunks;
+    }
+
+}
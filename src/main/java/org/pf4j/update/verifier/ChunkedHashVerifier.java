@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.verifier;
+
+import org.pf4j.update.FileVerifier;
+import org.pf4j.update.VerifyException;
+import org.pf4j.update.util.CancellationToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Verifies a file against the {@link ChunkManifest} of its plugin release, hashing the chunks in parallel.
+ * The manifest can be pinned with a root hash in the plugins.json descriptor.
+ * Damaged chunks are reported with a {@link ChunkVerifyException}, so that only these have to be fetched again.
+ */
+public class ChunkedHashVerifier implements FileVerifier {
+
+    private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private VerificationCache verificationCache = VerificationCache.getShared();
+    private ExecutorService executor = ForkJoinPool.commonPool();
+
+    @Override
+    public void verify(Context context, Path file) throws IOException, VerifyException {
+        String manifestUrl = getManifestUrl(context);
+        if (manifestUrl == null) {
+            log.debug("No chunk manifest specified, skipping verification");
+            return;
+        }
+
+        ChunkManifest manifest;
+        String root;
+        try {
+            manifest = ChunkManifest.parse(getUrlContents(manifestUrl, context.cancellationToken));
+            root = manifest.getRoot();
+        } catch (IOException e) {
+            throw new VerifyException(e, "Chunk verification failed, could not read chunk manifest ({})", manifestUrl);
+        }
+        if (context.chunksRoot != null && !context.chunksRoot.equalsIgnoreCase(root)) {
+            if (verificationCache != null) {
+                verificationCache.removeSidecar(manifestUrl);
+            }
+            throw new VerifyException("Root hash of chunk manifest {} does not match that from plugin descriptor. Got {} but expected {}",
+                manifestUrl, root, context.chunksRoot);
+        }
+
+        String expectation = "chunks:" + manifest.getAlgorithm() + ":" + root;
+        long started = System.currentTimeMillis();
+        VerificationCache.FileIdentity identity = null;
+        if (verificationCache != null) {
+            if (verificationCache.isVerified(file, expectation)) {
+                log.debug("Chunks of file {} verified before", file.getFileName());
+                return;
+            }
+            identity = VerificationCache.FileIdentity.of(file);
+        }
+
+        log.debug("Verifying {} chunks of file {}", manifest.getChunkCount(), file.getFileName());
+        List<Integer> corrupt;
+        try {
+            corrupt = manifest.findCorruptChunks(file, executor, false);
+        } catch (IOException e) {
+            throw new VerifyException(e, "Chunk verification of file {} failed", file.getFileName());
+        }
+        if (!corrupt.isEmpty()) {
+            throw new ChunkVerifyException(manifest, corrupt, "Chunks {} of {} of downloaded file {} do not match the chunk manifest",
+                corrupt, manifest.getChunkCount(), file.getFileName());
+        }
+
+        log.debug("Chunks OK");
+        if (identity != null) {
+            verificationCache.putVerified(identity, expectation, started);
+        }
+    }
+
+    /**
+     * Starts fetching the chunk manifest, so that it is there when the download is done.
+     * Needs a {@link VerificationCache}.
+     *
+     * @param context the file verifier context object
+     */
+    @Override
+    public void prepare(Context context) {
+        String manifestUrl = getManifestUrl(context);
+        if (manifestUrl != null && verificationCache != null) {
+            verificationCache.prefetchSidecar(manifestUrl, url -> readContents(url, null));
+        }
+    }
+
+    /**
+     * @param context the file verifier context object
+     * @return the URL of the chunk manifest, or null if the release has none
+     */
+    protected String getManifestUrl(Context context) {
+        if (context.chunks == null) {
+            return null;
+        } else if (context.chunks.equalsIgnoreCase(".chunks")) {
+            return context.url.substring(0, context.url.lastIndexOf(".")) + ".chunks";
+        }
+
+        return context.chunks;
+    }
+
+    public VerificationCache getVerificationCache() {
+        return verificationCache;
+    }
+
+    /**
+     * Sets where verified files and downloaded chunk manifests are remembered.
+     * Defaults to {@link VerificationCache#getShared()}.
+     *
+     * @param verificationCache the cache, or null to hash every file and fetch every manifest
+     */
+    public void setVerificationCache(VerificationCache verificationCache) {
+        this.verificationCache = verificationCache;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @param executor hashes the chunks in parallel, or null to hash them one after another
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    private String getUrlContents(String url, CancellationToken cancellationToken) throws IOException {
+        if (verificationCache != null) {
+            return verificationCache.getSidecar(url, u -> readContents(u, cancellationToken));
+        }
+
+        return readContents(url, cancellationToken);
+    }
+
+    private static String readContents(String url, CancellationToken cancellationToken) throws IOException {
+        try (InputStream in = VerificationCache.openSidecar(url, cancellationToken)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, length);
+            }
+
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+}
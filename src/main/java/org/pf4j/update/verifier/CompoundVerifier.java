@@ -23,17 +23,27 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
+/**
+ * Runs several {@link FileVerifier}s on a file. The {@link StreamingFileVerifier}s among them
+ * share a single read of the file, the other verifiers run one after another before.
+ */
 public class CompoundVerifier implements FileVerifier {
 
     /**
-     * Default list of verifiers
+     * Default list of verifiers. The chunks are verified first, so that a damaged or truncated
+     * file is reported with the chunks to fetch again rather than as a broken zip file.
      */
     public static final List<FileVerifier> ALL_DEFAULT_FILE_VERIFIERS = Arrays.asList(
                 new BasicVerifier(),
-                new Sha512SumVerifier());
+                new ChunkedHashVerifier(),
+                new ZipStructureVerifier(),
+                new Sha512SumVerifier(),
+                new DigestVerifier());
 
     private List<FileVerifier> verifiers = new ArrayList<>();
+    private boolean parallel;
 
     /**
      * Default constructor which will add the default verifiers to start with
@@ -60,11 +70,46 @@ public class CompoundVerifier implements FileVerifier {
      */
     @Override
     public void verify(Context context, Path file) throws IOException, VerifyException {
+        // the streaming verifiers share one read of the file, after all others succeeded
+        List<StreamingFileVerifier.Session> sessions = new ArrayList<>();
+        List<StreamingFileVerifier> streamingVerifiers = new ArrayList<>();
+        for (FileVerifier verifier : getVerifiers()) {
+            if (verifier instanceof StreamingFileVerifier) {
+                streamingVerifiers.add((StreamingFileVerifier) verifier);
+            } else {
+                verifier.verify(context, file);
+            }
+        }
+        for (StreamingFileVerifier verifier : streamingVerifiers) {
+            StreamingFileVerifier.Session session = verifier.begin(context, file);
+            if (session != null) {
+                sessions.add(session);
+            }
+        }
+
+        VerificationPass.run(file, sessions, parallel ? ForkJoinPool.commonPool() : null, context.cancellationToken);
+    }
+
+    @Override
+    public void prepare(Context context) {
         for (FileVerifier verifier : getVerifiers()) {
-            verifier.verify(context, file);
+            verifier.prepare(context);
         }
     }
 
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Feeds the streaming verifiers in parallel, worth it with several expensive verifiers on large files.
+     *
+     * @param parallel true to feed the streaming verifiers in parallel
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
     public List<FileVerifier> getVerifiers() {
         return verifiers;
     }
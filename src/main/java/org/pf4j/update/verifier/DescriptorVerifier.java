@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.verifier;
+
+import org.pf4j.AbstractPluginManager;
+import org.pf4j.ManifestPluginDescriptorFinder;
+import org.pf4j.PluginDependency;
+import org.pf4j.PluginDescriptor;
+import org.pf4j.PluginManager;
+import org.pf4j.PluginWrapper;
+import org.pf4j.PropertiesPluginDescriptorFinder;
+import org.pf4j.VersionManager;
+import org.pf4j.update.FileVerifier;
+import org.pf4j.update.VerifyException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Checks the plugin descriptor inside a downloaded zip or jar file before the plugin is installed:
+ * the id and version must match the plugin release, the system version must satisfy its {@code requires}
+ * and its required dependencies must be installed in versions it supports.
+ * <p>
+ * Only the descriptor entry is read ({@code META-INF/MANIFEST.MF}, {@code classes/META-INF/MANIFEST.MF}
+ * or a properties file, see {@link PropertiesPluginDescriptorFinder}); the {@link PluginManager} is not touched.
+ * Files without a descriptor found this way are not checked.
+ */
+public class DescriptorVerifier implements FileVerifier {
+
+    private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private static final String[] MANIFEST_ENTRIES = { "META-INF/MANIFEST.MF", "classes/META-INF/MANIFEST.MF" };
+
+    private final PluginManager pluginManager;
+    private final String propertiesFileName;
+
+    public DescriptorVerifier(PluginManager pluginManager) {
+        this(pluginManager, PropertiesPluginDescriptorFinder.DEFAULT_PROPERTIES_FILE_NAME);
+    }
+
+    /**
+     * @param pluginManager the plugin manager the plugin is installed into
+     * @param propertiesFileName the name of the properties descriptor, as for {@link PropertiesPluginDescriptorFinder}
+     */
+    public DescriptorVerifier(PluginManager pluginManager, String propertiesFileName) {
+        this.pluginManager = pluginManager;
+        this.propertiesFileName = propertiesFileName;
+    }
+
+    /**
+     * Verifies the plugin descriptor of a zip or jar file.
+     *
+     * @param context the file verifier context object
+     * @param file    the path to the downloaded file itself
+     * @throws IOException     if there was a problem accessing file
+     * @throws VerifyException if the descriptor does not match the release or cannot be satisfied
+     */
+    @Override
+    public void verify(Context context, Path file) throws IOException, VerifyException {
+        String fileName = file.getFileName().toString().toLowerCase();
+        if (!fileName.endsWith(".zip") && !fileName.endsWith(".jar")) {
+            return;
+        }
+
+        PluginDescriptor descriptor = readDescriptor(file);
+        if (descriptor == null) {
+            log.debug("No plugin descriptor found in {}, skipping verification", file.getFileName());
+            return;
+        }
+
+        VersionManager versionManager = pluginManager.getVersionManager();
+        if (!context.id.equals(descriptor.getPluginId())) {
+            throw new VerifyException("File {} contains plugin {} instead of {}", file.getFileName(), descriptor.getPluginId(), context.id);
+        }
+        if (context.version != null && versionManager.compareVersions(descriptor.getVersion(), context.version) != 0) {
+            throw new VerifyException("File {} contains version {} of plugin {} instead of {}",
+                file.getFileName(), descriptor.getVersion(), context.id, context.version);
+        }
+
+        String systemVersion = pluginManager.getSystemVersion();
+        String requires = getRequires(descriptor);
+        if (!"0.0.0".equals(systemVersion) && !versionManager.checkVersionConstraint(systemVersion, requires)) {
+            throw new VerifyException("Plugin {} requires system version {}, but it is {}",
+                context.id, descriptor.getRequires(), systemVersion);
+        }
+
+        for (PluginDependency dependency : descriptor.getDependencies()) {
+            PluginWrapper installed = pluginManager.getPlugin(dependency.getPluginId());
+            if (installed == null) {
+                if (!dependency.isOptional()) {
+                    throw new VerifyException("Plugin {} depends on plugin {}, which is not installed",
+                        context.id, dependency.getPluginId());
+                }
+                continue;
+            }
+
+            String installedVersion = installed.getDescriptor().getVersion();
+            if (!versionManager.checkVersionConstraint(installedVersion, dependency.getPluginVersionSupport())) {
+                throw new VerifyException("Plugin {} depends on plugin {} {}, but version {} is installed",
+                    context.id, dependency.getPluginId(), dependency.getPluginVersionSupport(), installedVersion);
+            }
+        }
+        log.debug("Plugin descriptor of {} OK", file.getFileName());
+    }
+
+    /**
+     * Reads the system version constraint as {@link AbstractPluginManager} does when it loads the plugin:
+     * an exact version (e.g. {@code 1.0.0}) means that version or newer, unless exact versions are allowed.
+     *
+     * @param descriptor the plugin descriptor
+     * @return the system version constraint
+     */
+    protected String getRequires(PluginDescriptor descriptor) {
+        String requires = descriptor.getRequires().trim();
+        boolean exactVersionAllowed = pluginManager instanceof AbstractPluginManager
+            && ((AbstractPluginManager) pluginManager).isExactVersionAllowed();
+        if (!exactVersionAllowed && requires.matches("^\\d+\\.\\d+\\.\\d+$")) {
+            return ">=" + requires;
+        }
+
+        return requires;
+    }
+
+    /**
+     * Reads only the descriptor entry of the file.
+     *
+     * @param file a zip or jar file
+     * @return the descriptor, or null if none was found
+     * @throws IOException if the file cannot be read
+     */
+    protected PluginDescriptor readDescriptor(Path file) throws IOException {
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            for (String name : MANIFEST_ENTRIES) {
+                ZipEntry entry = zip.getEntry(name);
+                if (entry != null) {
+                    Manifest manifest;
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        manifest = new Manifest(in);
+                    }
+                    if (manifest.getMainAttributes().getValue(ManifestPluginDescriptorFinder.PLUGIN_ID) != null) {
+                        return new ManifestDescriptorReader().create(manifest);
+                    }
+                }
+            }
+
+            ZipEntry entry = zip.getEntry(propertiesFileName);
+            if (entry != null) {
+                Properties properties = new Properties();
+                try (InputStream in = zip.getInputStream(entry)) {
+                    properties.load(in);
+                }
+                return new PropertiesDescriptorReader().create(properties);
+            }
+        }
+
+        return null;
+    }
+
+    // uses the parsing of pf4j, without its file lookup
+    private static class ManifestDescriptorReader extends ManifestPluginDescriptorFinder {
+
+        PluginDescriptor create(Manifest manifest) {
+            return createPluginDescriptor(manifest);
+        }
+
+    }
+
+    private static class PropertiesDescriptorReader extends PropertiesPluginDescriptorFinder {
+
+        PluginDescriptor create(Properties properties) {
+            return createPluginDescriptor(properties);
+        }
+
+    }
+
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.verifier;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.pf4j.update.VerifyException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.zip.CRC32;
+
+/**
+ * Verifies the digests given inline for a plugin release ({@code crc32}, {@code sha256sum} and,
+ * if enabled, {@code sha512sum}), computing all of them in a single pass over the file.
+ * <p>
+ * By default it checks CRC32 and SHA-256, SHA-512 is left to {@link Sha512SumVerifier}. A weaker digest is not
+ * computed for a release that gives a SHA-512, which is checked anyway (by that verifier or this one).
+ * With {@link #setCheapestOnly(boolean)} only the cheapest cryptographic digest given for a release
+ * is computed, next to the CRC32 pre-check. A CRC32 mismatch is reported as a damaged download.
+ */
+public class DigestVerifier implements StreamingFileVerifier {
+
+    private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    /**
+     * The supported digests, cheapest first (assuming CPUs with SHA extensions).
+     */
+    public enum Algorithm {
+
+        CRC32("crc32", false),
+        SHA256("sha256", true),
+        SHA512("sha512", true);
+
+        private final String label;
+        private final boolean cryptographic;
+
+        Algorithm(String label, boolean cryptographic) {
+            this.label = label;
+            this.cryptographic = cryptographic;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public boolean isCryptographic() {
+            return cryptographic;
+        }
+
+        String getExpected(Context context) {
+            switch (this) {
+                case CRC32:
+                    return context.crc32;
+                case SHA256:
+                    return context.sha256sum;
+                case SHA512:
+                    // sidecar files are resolved by Sha512SumVerifier
+                    String sha512sum = context.sha512sum;
+                    if (sha512sum == null || sha512sum.equalsIgnoreCase(".sha512") || sha512sum.startsWith("http")) {
+                        return null;
+                    }
+                    return sha512sum;
+                default:
+                    throw new IllegalStateException("Unknown algorithm " + this);
+            }
+        }
+
+        Digest newDigest() {
+            switch (this) {
+                case CRC32:
+                    return new Crc32Digest();
+                case SHA256:
+                    return new MessageDigestDigest(DigestUtils.getSha256Digest());
+                case SHA512:
+                    return new MessageDigestDigest(DigestUtils.getSha512Digest());
+                default:
+                    throw new IllegalStateException("Unknown algorithm " + this);
+            }
+        }
+
+    }
+
+    private Set<Algorithm> algorithms = EnumSet.of(Algorithm.CRC32, Algorithm.SHA256);
+    private boolean cheapestOnly;
+    private VerificationCache verificationCache = VerificationCache.getShared();
+
+    @Override
+    public Session begin(Context context, Path file) throws IOException, VerifyException {
+        List<Algorithm> selected = select(context);
+        if (selected.isEmpty()) {
+            log.debug("No digest specified, skipping verification");
+            return null;
+        }
+
+        StringJoiner joiner = new StringJoiner(";");
+        for (Algorithm algorithm : selected) {
+            joiner.add(algorithm.getLabel() + ":" + algorithm.getExpected(context).toLowerCase());
+        }
+        String expectation = joiner.toString();
+        long started = System.currentTimeMillis();
+        VerificationCache.FileIdentity identity = null;
+        if (verificationCache != null) {
+            if (verificationCache.isVerified(file, expectation)) {
+                log.debug("Digests of file {} verified before", file.getFileName());
+                return null;
+            }
+            identity = VerificationCache.FileIdentity.of(file);
+        }
+
+        log.debug("Verifying {} of file {}", selected, file.getFileName());
+        Digest[] digests = new Digest[selected.size()];
+        for (int i = 0; i < digests.length; i++) {
+            digests[i] = selected.get(i).newDigest();
+        }
+        VerificationCache.FileIdentity verifiedIdentity = identity;
+
+        return new Session() {
+
+            @Override
+            public void update(ByteBuffer buffer) {
+                for (Digest digest : digests) {
+                    // every digest consumes the buffer, so each one gets its own view
+                    digest.update(buffer.duplicate());
+                }
+                buffer.position(buffer.limit());
+            }
+
+            @Override
+            public void finish() throws IOException, VerifyException {
+                // selected in order of cost, so a damaged download fails on the CRC32 already
+                for (int i = 0; i < digests.length; i++) {
+                    Algorithm algorithm = selected.get(i);
+                    String expected = algorithm.getExpected(context);
+                    if (!digests[i].matches(expected)) {
+                        String actual = digests[i].hex();
+                        String problem = algorithm.isCryptographic() ? "does not match" : "is damaged, it does not match";
+                        throw new VerifyException("Downloaded file " + file.getFileName() + " " + problem + " the "
+                            + algorithm.getLabel() + " digest from plugin descriptor. Got " + actual + " but expected " + expected);
+                    }
+                }
+                log.debug("Digests OK");
+                if (verifiedIdentity != null) {
+                    verificationCache.putVerified(verifiedIdentity, expectation, started);
+                }
+            }
+
+        };
+    }
+
+    /**
+     * @param context the file verifier context object
+     * @return the algorithms to compute for the release, cheapest first
+     */
+    protected List<Algorithm> select(Context context) {
+        List<Algorithm> selected = new ArrayList<>();
+        boolean cryptographic = false;
+        // checked by Sha512SumVerifier if not by this verifier, also from a sidecar file
+        boolean sha512 = context.sha512sum != null && !context.sha512sum.isEmpty();
+        for (Algorithm algorithm : Algorithm.values()) {
+            if (!algorithms.contains(algorithm) || algorithm.getExpected(context) == null) {
+                continue;
+            }
+            if (algorithm.isCryptographic()) {
+                if (!cheapestOnly && sha512 && algorithm != Algorithm.SHA512) {
+                    continue;
+                }
+                if (cheapestOnly && cryptographic) {
+                    continue;
+                }
+                cryptographic = true;
+            }
+            selected.add(algorithm);
+        }
+
+        return selected;
+    }
+
+    public Set<Algorithm> getAlgorithms() {
+        return algorithms;
+    }
+
+    /**
+     * Sets the digests that are checked when given for a release.
+     * Add {@link Algorithm#SHA512} only if {@link Sha512SumVerifier} is not used as well.
+     *
+     * @param algorithms the algorithms
+     */
+    public void setAlgorithms(Algorithm... algorithms) {
+        this.algorithms = algorithms.length > 0 ? EnumSet.copyOf(Arrays.asList(algorithms)) : EnumSet.noneOf(Algorithm.class);
+    }
+
+    public boolean isCheapestOnly() {
+        return cheapestOnly;
+    }
+
+    /**
+     * @param cheapestOnly true to compute only the cheapest enabled cryptographic digest given for a release
+     */
+    public void setCheapestOnly(boolean cheapestOnly) {
+        this.cheapestOnly = cheapestOnly;
+    }
+
+    public VerificationCache getVerificationCache() {
+        return verificationCache;
+    }
+
+    /**
+     * Sets where verified files are remembered. Defaults to {@link VerificationCache#getShared()}.
+     *
+     * @param verificationCache the cache, or null to hash every file
+     */
+    public void setVerificationCache(VerificationCache verificationCache) {
+        this.verificationCache = verificationCache;
+    }
+
+    interface Digest {
+
+        void update(ByteBuffer buffer);
+
+        String hex();
+
+        default boolean matches(String expected) {
+            return hex().equalsIgnoreCase(expected);
+        }
+
+    }
+
+    private static class Crc32Digest implements Digest {
+
+        private final CRC32 crc = new CRC32();
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            crc.update(buffer);
+        }
+
+        @Override
+        public String hex() {
+            return String.format("%08x", crc.getValue());
+        }
+
+        // a number, also without leading zeros
+        @Override
+        public boolean matches(String expected) {
+            try {
+                return Long.parseLong(expected.trim(), 16) == crc.getValue();
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+    }
+
+    private static class MessageDigestDigest implements Digest {
+
+        private final MessageDigest digest;
+
+        MessageDigestDigest(MessageDigest digest) {
+            this.digest = digest;
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            digest.update(buffer);
+        }
+
+        @Override
+        public String hex() {
+            return Hex.encodeHexString(digest.digest());
+        }
+
+    }
+
+}
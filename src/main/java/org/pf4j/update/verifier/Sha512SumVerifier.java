@@ -15,9 +15,10 @@
  */
 package org.pf4j.update.verifier;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
-import org.pf4j.update.FileVerifier;
 import org.pf4j.update.VerifyException;
+import org.pf4j.update.util.CancellationToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,9 +26,9 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.lang.invoke.MethodHandles;
-import java.net.URL;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.security.MessageDigest;
 
 /**
  * Verifies that the SHA512 checksum of a downloaded file equals the checksum given in
@@ -35,30 +36,32 @@ import java.nio.file.Path;
  * the same as intended. Especially useful when dealing with meta repositories pointing
  * to S3 or other 3rd party download locations that could have been tampered with.
  */
-public class Sha512SumVerifier implements FileVerifier {
+public class Sha512SumVerifier implements StreamingFileVerifier {
 
     private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
+    private VerificationCache verificationCache = VerificationCache.getShared();
+
     /**
-     * Verifies a plugin release according to certain rules
+     * Resolves the expected checksum of a plugin release, reading the sidecar file if needed.
      *
      * @param context the file verifier context object
      * @param file    the path to the downloaded file itself
-     * @throws IOException     if there was a problem accessing file
-     * @throws VerifyException in case of problems verifying the file
+     * @return the session that computes the checksum of the file, or null if no checksum is specified
+     *     or the file was verified before
+     * @throws IOException if there was a problem accessing file
+     * @throws VerifyException if the expected checksum cannot be read
      */
     @Override
-    public void verify(Context context, Path file) throws VerifyException, IOException {
+    public Session begin(Context context, Path file) throws IOException, VerifyException {
         String expectedSha512sum;
+        String sidecarUrl = getSidecarUrl(context);
         try {
             if (context.sha512sum == null) {
                 log.debug("No sha512 checksum specified, skipping verification");
-                return;
-            } else if (context.sha512sum.equalsIgnoreCase(".sha512")) {
-                String url = context.url.substring(0, context.url.lastIndexOf(".")) + ".sha512";
-                expectedSha512sum = getUrlContents(url).split(" ")[0].trim();
-            } else if (context.sha512sum.startsWith("http")) {
-                expectedSha512sum = getUrlContents(context.sha512sum).split(" ")[0].trim();
+                return null;
+            } else if (sidecarUrl != null) {
+                expectedSha512sum = getUrlContents(sidecarUrl, context.cancellationToken).split(" ")[0].trim();
             } else {
                 expectedSha512sum = context.sha512sum;
             }
@@ -66,20 +69,106 @@ public class Sha512SumVerifier implements FileVerifier {
             throw new VerifyException(e, "SHA512 checksum verification failed, could not download SHA512 file ({})", context.sha512sum);
         }
 
+        String expectation = "sha512:" + expectedSha512sum;
+        long started = System.currentTimeMillis();
+        VerificationCache.FileIdentity identity = null;
+        if (verificationCache != null) {
+            if (verificationCache.isVerified(file, expectation)) {
+                log.debug("Checksum of file {} verified before", file.getFileName());
+                return null;
+            }
+            identity = VerificationCache.FileIdentity.of(file);
+        }
+
         log.debug("Verifying sha512 checksum of file {}", file.getFileName());
-        String actualSha512sum = DigestUtils.sha512Hex(Files.newInputStream(file));
-        if (actualSha512sum.equalsIgnoreCase(expectedSha512sum)) {
-            log.debug("Checksum OK");
-            return;
+        MessageDigest digest = DigestUtils.getSha512Digest();
+        VerificationCache.FileIdentity verifiedIdentity = identity;
+        String verifiedSidecarUrl = sidecarUrl;
+
+        return new Session() {
+
+            @Override
+            public void update(ByteBuffer buffer) {
+                digest.update(buffer);
+            }
+
+            @Override
+            public void finish() throws IOException, VerifyException {
+                String actualSha512sum = Hex.encodeHexString(digest.digest());
+                if (actualSha512sum.equalsIgnoreCase(expectedSha512sum)) {
+                    log.debug("Checksum OK");
+                    if (verifiedIdentity != null) {
+                        verificationCache.putVerified(verifiedIdentity, expectation, started);
+                    }
+                    return;
+                }
+                if (verifiedSidecarUrl != null && verificationCache != null) {
+                    // the sidecar may have been fixed meanwhile, read it again next time
+                    verificationCache.removeSidecar(verifiedSidecarUrl);
+                }
+                throw new VerifyException("SHA512 checksum of downloaded file " + file.getFileName()
+                        + " does not match that from plugin descriptor. Got " + actualSha512sum
+                        + " but expected " + expectedSha512sum);
+            }
+
+        };
+    }
+
+    /**
+     * Starts fetching the checksum file, if any, so that it is there when the download is done.
+     * Needs a {@link VerificationCache}.
+     *
+     * @param context the file verifier context object
+     */
+    @Override
+    public void prepare(Context context) {
+        String sidecarUrl = getSidecarUrl(context);
+        if (sidecarUrl != null && verificationCache != null) {
+            verificationCache.prefetchSidecar(sidecarUrl, url -> readFirstLine(url, null));
         }
-        throw new VerifyException("SHA512 checksum of downloaded file " + file.getFileName()
-                + " does not match that from plugin descriptor. Got " + actualSha512sum
-                + " but expected " + expectedSha512sum);
     }
 
-    private String getUrlContents(String url) throws IOException {
+    /**
+     * @param context the file verifier context object
+     * @return the URL of the file with the checksum, or null if the checksum is given inline
+     */
+    protected String getSidecarUrl(Context context) {
+        if (context.sha512sum == null) {
+            return null;
+        } else if (context.sha512sum.equalsIgnoreCase(".sha512")) {
+            return context.url.substring(0, context.url.lastIndexOf(".")) + ".sha512";
+        } else if (context.sha512sum.startsWith("http")) {
+            return context.sha512sum;
+        }
+
+        return null;
+    }
+
+    public VerificationCache getVerificationCache() {
+        return verificationCache;
+    }
+
+    /**
+     * Sets where verified files and downloaded sidecar checksums are remembered.
+     * Defaults to {@link VerificationCache#getShared()}.
+     *
+     * @param verificationCache the cache, or null to hash every file and fetch every sidecar
+     */
+    public void setVerificationCache(VerificationCache verificationCache) {
+        this.verificationCache = verificationCache;
+    }
+
+    private String getUrlContents(String url, CancellationToken cancellationToken) throws IOException {
+        if (verificationCache != null) {
+            return verificationCache.getSidecar(url, u -> readFirstLine(u, cancellationToken));
+        }
+
+        return readFirstLine(url, cancellationToken);
+    }
+
+    private static String readFirstLine(String url, CancellationToken cancellationToken) throws IOException {
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(
-                new URL(url).openStream()))) {
+                VerificationCache.openSidecar(url, cancellationToken)))) {
             return reader.readLine();
         }
     }
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.verifier;
+
+import org.pf4j.update.FileVerifier;
+import org.pf4j.update.VerifyException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Collections;
+
+/**
+ * A {@link FileVerifier} that looks at the content of the file as a stream of buffers.
+ * {@link CompoundVerifier} reads the file once and feeds the same buffers to all its streaming verifiers,
+ * instead of letting each verifier read the file again.
+ * <p>
+ * Verifiers that need the whole file at once implement {@link FileVerifier} only.
+ */
+public interface StreamingFileVerifier extends FileVerifier {
+
+    /**
+     * Prepares the verification of a file, e.g. resolves the expected checksum.
+     *
+     * @param context the file verifier context object
+     * @param file    the path to the downloaded file itself
+     * @return the session that gets the content of the file, or null if there is nothing to verify
+     * @throws IOException     if there was a problem accessing file
+     * @throws VerifyException in case of problems verifying the file
+     */
+    Session begin(Context context, Path file) throws IOException, VerifyException;
+
+    /**
+     * Verifies a file on its own, reading it once.
+     */
+    @Override
+    default void verify(Context context, Path file) throws IOException, VerifyException {
+        Session session = begin(context, file);
+        if (session != null) {
+            VerificationPass.run(file, Collections.singletonList(session), null, context.cancellationToken);
+        }
+    }
+
+    /**
+     * The verification of one file.
+     */
+    interface Session {
+
+        /**
+         * Gets the next part of the file. The buffer is only valid during the call,
+         * and the session must not modify its content.
+         *
+         * @param buffer the next bytes of the file, between position and limit
+         */
+        void update(ByteBuffer buffer);
+
+        /**
+         * Called after the whole file was fed.
+         *
+         * @throws IOException     if there was a problem accessing file
+         * @throws VerifyException if the file is not valid
+         */
+        void finish() throws IOException, VerifyException;
+
+    }
+
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.verifier;
+
+import org.pf4j.update.util.CancellationToken;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers which files passed a verification, so that verifying the same file again
+ * (reinstall, rollback, retried update, several update managers) does not hash it again.
+ * <p>
+ * An entry is keyed by the identity of the file (canonical path, size, last modified time and,
+ * where the file system has one, the file key, e.g. the inode) and by what the file was verified
+ * against (e.g. the expected checksum). A file that changed underneath gets another identity and is
+ * verified again. Files modified shortly before their verification started are not remembered,
+ * since a change within the resolution of the file time would go unnoticed. So a fresh download is
+ * never remembered; the artifacts of an {@link org.pf4j.update.ArtifactCache} are, and are not hashed
+ * again every time they are served.
+ * <p>
+ * The cache also keeps the contents of checksum sidecar files for a while, so that they are
+ * not downloaded again for every verification. Sidecar files can be prefetched, e.g. while the
+ * file they belong to is being downloaded.
+ */
+public class VerificationCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+    public static final long DEFAULT_SIDECAR_TTL = TimeUnit.HOURS.toMillis(1);
+    public static final int SIDECAR_CONNECT_TIMEOUT = 10_000;
+    public static final int SIDECAR_READ_TIMEOUT = 30_000;
+
+    // files modified less than this before their verification started are not remembered
+    static final long RACY_MARGIN = 2000;
+
+    private static final VerificationCache shared = new VerificationCache();
+
+    private static final Executor executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "pf4j-update-sidecar");
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    private final int maxEntries;
+    private final Map<Key, Boolean> verified;
+    private final Map<String, Sidecar> sidecars;
+    private volatile long sidecarTtl = DEFAULT_SIDECAR_TTL;
+
+    public VerificationCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries the maximum number of verified files and of sidecar files to remember
+     */
+    public VerificationCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        verified = new LruMap<>(maxEntries);
+        sidecars = new LruMap<>(maxEntries);
+    }
+
+    /**
+     * @return the cache shared by the default verifiers
+     */
+    public static VerificationCache getShared() {
+        return shared;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @param file the file
+     * @param expectation what the file is verified against, e.g. {@code sha512:<checksum>}
+     * @return true if the file, as it is now, passed a verification against the expectation
+     * @throws IOException if the attributes of the file cannot be read
+     */
+    public boolean isVerified(Path file, String expectation) throws IOException {
+        Key key = new Key(FileIdentity.of(file), expectation);
+        synchronized (verified) {
+            return verified.containsKey(key);
+        }
+    }
+
+    /**
+     * Remembers that a file passed a verification.
+     *
+     * @param identity the identity of the file when its verification started
+     * @param expectation what the file was verified against
+     * @param started when the verification started, in milliseconds since the epoch
+     * @return true if remembered, false if the file changed since or was modified too recently
+     * @throws IOException if the attributes of the file cannot be read
+     */
+    public boolean putVerified(FileIdentity identity, String expectation, long started) throws IOException {
+        if (identity.lastModified.toMillis() > started - RACY_MARGIN) {
+            return false;
+        }
+        if (!identity.equals(FileIdentity.of(identity.path))) {
+            return false;
+        }
+
+        synchronized (verified) {
+            verified.put(new Key(identity, expectation), Boolean.TRUE);
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the content of a sidecar file, loading it only if not loaded recently.
+     * Waits for a {@link #prefetchSidecar(String, SidecarLoader) prefetch} in progress.
+     *
+     * @param url the URL of the sidecar file
+     * @param loader loads the content
+     * @return the content
+     * @throws IOException if the content cannot be loaded, or the thread was interrupted while waiting for the prefetch
+     */
+    public String getSidecar(String url, SidecarLoader loader) throws IOException {
+        Sidecar sidecar;
+        synchronized (sidecars) {
+            sidecar = sidecars.get(url);
+        }
+        if (sidecar != null && System.currentTimeMillis() - sidecar.loaded < sidecarTtl) {
+            try {
+                return sidecar.content.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for '" + url + "'");
+            } catch (ExecutionException e) {
+                // the prefetch failed, try once more below
+                removeSidecar(url);
+            }
+        }
+
+        String content = loader.load(url);
+        synchronized (sidecars) {
+            sidecars.put(url, new Sidecar(CompletableFuture.completedFuture(content), System.currentTimeMillis()));
+        }
+
+        return content;
+    }
+
+    /**
+     * Starts loading a sidecar file in the background, unless loaded recently.
+     *
+     * @param url the URL of the sidecar file
+     * @param loader loads the content
+     */
+    public void prefetchSidecar(String url, SidecarLoader loader) {
+        long now = System.currentTimeMillis();
+        synchronized (sidecars) {
+            Sidecar sidecar = sidecars.get(url);
+            if (sidecar != null && now - sidecar.loaded < sidecarTtl) {
+                return;
+            }
+
+            CompletableFuture<String> content = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return loader.load(url);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+            sidecars.put(url, new Sidecar(content, now));
+        }
+    }
+
+    /**
+     * Opens a sidecar file for reading, with a connect timeout of {@value #SIDECAR_CONNECT_TIMEOUT} ms and a read
+     * timeout of {@value #SIDECAR_READ_TIMEOUT} ms, so that a prefetch every verification waits for cannot hang.
+     * With a token the timeouts are capped to the deadline, and an HTTP(S) connection is closed when the token
+     * is cancelled.
+     *
+     * @param url the URL of the sidecar file
+     * @param cancellationToken stops the read when cancelled, or null
+     * @return the stream, to be closed by the caller
+     * @throws IOException if the file cannot be opened
+     */
+    public static InputStream openSidecar(String url, CancellationToken cancellationToken) throws IOException {
+        URLConnection connection = new URL(url).openConnection();
+        connection.setConnectTimeout(SIDECAR_CONNECT_TIMEOUT);
+        connection.setReadTimeout(SIDECAR_READ_TIMEOUT);
+        if (cancellationToken == null) {
+            return connection.getInputStream();
+        }
+
+        cancellationToken.throwIfCancelled();
+        connection.setConnectTimeout(cancellationToken.capTimeout(connection.getConnectTimeout()));
+        connection.setReadTimeout(cancellationToken.capTimeout(connection.getReadTimeout()));
+        // other protocols stop at the capped timeouts
+        CancellationToken.Registration registration = cancellationToken.onCancel(() -> {
+            if (connection instanceof HttpURLConnection) {
+                executor.execute(((HttpURLConnection) connection)::disconnect);
+            }
+        });
+        InputStream in;
+        try {
+            in = connection.getInputStream();
+        } catch (IOException e) {
+            registration.close();
+            throw e;
+        }
+
+        return new FilterInputStream(in) {
+
+            @Override
+            public void close() throws IOException {
+                registration.close();
+                super.close();
+            }
+
+        };
+    }
+
+    public void removeSidecar(String url) {
+        synchronized (sidecars) {
+            sidecars.remove(url);
+        }
+    }
+
+    public long getSidecarTtl() {
+        return sidecarTtl;
+    }
+
+    /**
+     * @param sidecarTtl how long the content of a sidecar file is kept, in milliseconds
+     */
+    public void setSidecarTtl(long sidecarTtl) {
+        this.sidecarTtl = sidecarTtl;
+    }
+
+    public int size() {
+        synchronized (verified) {
+            return verified.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (verified) {
+            verified.clear();
+        }
+        synchronized (sidecars) {
+            sidecars.clear();
+        }
+    }
+
+    /**
+     * Loads the content of a sidecar file.
+     */
+    public interface SidecarLoader {
+
+        String load(String url) throws IOException;
+
+    }
+
+    /**
+     * The identity of a file: a file with the same identity has the same content.
+     */
+    public static final class FileIdentity {
+
+        private final Path path;
+        private final long size;
+        private final FileTime lastModified;
+        private final Object fileKey;
+
+        private FileIdentity(Path path, long size, FileTime lastModified, Object fileKey) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+        }
+
+        public static FileIdentity of(Path file) throws IOException {
+            Path path = file.toRealPath();
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+            return new FileIdentity(path, attributes.size(), attributes.lastModifiedTime(), attributes.fileKey());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof FileIdentity)) {
+                return false;
+            }
+
+            FileIdentity that = (FileIdentity) o;
+            return size == that.size && path.equals(that.path) && lastModified.equals(that.lastModified)
+                && Objects.equals(fileKey, that.fileKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, size, lastModified, fileKey);
+        }
+
+        @Override
+        public String toString() {
+            return path + " (" + size + " bytes, modified " + lastModified + ")";
+        }
+
+    }
+
+    private static final class Key {
+
+        private final FileIdentity identity;
+        private final String expectation;
+
+        Key(FileIdentity identity, String expectation) {
+            this.identity = identity;
+            this.expectation = expectation;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key that = (Key) o;
+            return identity.equals(that.identity) && expectation.equalsIgnoreCase(that.expectation);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * identity.hashCode() + expectation.toLowerCase(Locale.ROOT).hashCode();
+        }
+
+    }
+
+    private static final class Sidecar {
+
+        final CompletableFuture<String> content;
+        final long loaded;
+
+        Sidecar(CompletableFuture<String> content, long loaded) {
+            this.content = content;
+            this.loaded = loaded;
+        }
+
+    }
+
+    private static final class LruMap<K, V> extends LinkedHashMap<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+
+        LruMap(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maxEntries;
+        }
+
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.verifier;
+
+import org.pf4j.update.VerifyException;
+import org.pf4j.update.util.CancellationToken;
+import org.pf4j.update.verifier.StreamingFileVerifier.Session;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a file once and feeds its content to several {@link Session}s.
+ * Files of at least {@link #LARGE_FILE_THRESHOLD} bytes are read into a large direct buffer, smaller files
+ * into a heap buffer. Files are not memory-mapped: on Windows a live mapping keeps the file from being
+ * renamed or deleted until the mapping is garbage collected.
+ */
+public final class VerificationPass {
+
+    public static final long LARGE_FILE_THRESHOLD = 16 * 1024 * 1024;
+
+    static final int BUFFER_SIZE = 256 * 1024;
+    static final int LARGE_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private VerificationPass() {
+    }
+
+    /**
+     * Feeds the file to all sessions, then finishes them.
+     *
+     * @param file the file
+     * @param sessions the sessions
+     * @param executor if not null, the sessions are fed in parallel on it
+     * @throws IOException if the file cannot be read
+     * @throws VerifyException if a session finds the file invalid
+     */
+    public static void run(Path file, List<Session> sessions, ExecutorService executor) throws IOException, VerifyException {
+        run(file, sessions, executor, null);
+    }
+
+    /**
+     * Feeds the file to all sessions, then finishes them, unless cancelled.
+     * The token is checked before every buffer.
+     *
+     * @param file the file
+     * @param sessions the sessions
+     * @param executor if not null, the sessions are fed in parallel on it
+     * @param cancellationToken stops the pass when cancelled, or null
+     * @throws IOException if the file cannot be read, a {@link org.pf4j.update.util.CancelledException} if cancelled
+     * @throws VerifyException if a session finds the file invalid
+     */
+    public static void run(Path file, List<Session> sessions, ExecutorService executor, CancellationToken cancellationToken)
+            throws IOException, VerifyException {
+        if (sessions.isEmpty()) {
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer buffer = size >= LARGE_FILE_THRESHOLD
+                ? ByteBuffer.allocateDirect(LARGE_BUFFER_SIZE)
+                : ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(1, size)));
+            long position = 0;
+            int read;
+            while ((read = channel.read(buffer, position)) >= 0) {
+                throwIfCancelled(cancellationToken);
+                position += read;
+                buffer.flip();
+                feed(buffer, sessions, executor);
+                buffer.clear();
+            }
+        }
+
+        for (Session session : sessions) {
+            session.finish();
+        }
+    }
+
+    private static void throwIfCancelled(CancellationToken cancellationToken) throws IOException {
+        if (cancellationToken != null) {
+            cancellationToken.throwIfCancelled();
+        }
+    }
+
+    private static void feed(ByteBuffer buffer, List<Session> sessions, ExecutorService executor) throws IOException {
+        if (executor == null || sessions.size() == 1) {
+            for (Session session : sessions) {
+                session.update(buffer.duplicate());
+            }
+            return;
+        }
+
+        List<Future<?>> futures = new ArrayList<>(sessions.size());
+        for (Session session : sessions) {
+            ByteBuffer view = buffer.duplicate();
+            futures.add(executor.submit(() -> session.update(view)));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while verifying");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+}
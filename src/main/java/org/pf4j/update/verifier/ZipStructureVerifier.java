@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.verifier;
+
+import org.pf4j.update.FileVerifier;
+import org.pf4j.update.VerifyException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Verifies the structure of a zip or jar file without reading it all: only the end of central directory
+ * record and the central directory are read (positional reads), and every entry must fit in the file.
+ * Catches truncated and damaged archives before anything is installed. Files that are not named
+ * {@code .zip} or {@code .jar} are skipped.
+ */
+public class ZipStructureVerifier implements FileVerifier {
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_EOCD_SIZE = 56;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xffffffffL;
+
+    /**
+     * Verifies the structure of a zip or jar file.
+     *
+     * @param context the file verifier context object
+     * @param file    the path to the downloaded file itself
+     * @throws IOException     if there was a problem accessing file
+     * @throws VerifyException if the file is not a valid zip file
+     */
+    @Override
+    public void verify(Context context, Path file) throws IOException, VerifyException {
+        String fileName = file.getFileName().toString().toLowerCase();
+        if (!fileName.endsWith(".zip") && !fileName.endsWith(".jar")) {
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            String problem = check(channel);
+            if (problem != null) {
+                throw new VerifyException("File {} is not a valid zip file: {}", file.getFileName(), problem);
+            }
+        }
+    }
+
+    // returns the problem found, or null if the structure is fine
+    private static String check(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < EOCD_SIZE) {
+            return "too small";
+        }
+
+        // the end of central directory record is followed by a comment of up to 64KB
+        int tailSize = (int) Math.min(size, EOCD_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = read(channel, size - tailSize, tailSize);
+        int eocd = -1;
+        for (int i = tailSize - EOCD_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIGNATURE && i + EOCD_SIZE + (tail.getShort(i + 20) & 0xffff) == tailSize) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            return "no end of central directory record (truncated?)";
+        }
+
+        long eocdPosition = size - tailSize + eocd;
+        long entries = tail.getShort(eocd + 10) & 0xffff;
+        long directorySize = tail.getInt(eocd + 12) & ZIP64_MAGIC;
+        long directoryOffset = tail.getInt(eocd + 16) & ZIP64_MAGIC;
+        long directoryEnd = eocdPosition;
+        if (entries == 0xffff || directorySize == ZIP64_MAGIC || directoryOffset == ZIP64_MAGIC) {
+            if (eocdPosition < ZIP64_LOCATOR_SIZE) {
+                return "no zip64 end of central directory locator";
+            }
+            ByteBuffer locator = read(channel, eocdPosition - ZIP64_LOCATOR_SIZE, ZIP64_LOCATOR_SIZE);
+            if (locator.getInt(0) != ZIP64_LOCATOR_SIGNATURE) {
+                return "no zip64 end of central directory locator";
+            }
+            long zip64Position = locator.getLong(8);
+            if (zip64Position < 0 || zip64Position + ZIP64_EOCD_SIZE > eocdPosition - ZIP64_LOCATOR_SIZE) {
+                return "zip64 end of central directory record outside of the file";
+            }
+            ByteBuffer zip64 = read(channel, zip64Position, ZIP64_EOCD_SIZE);
+            if (zip64.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+                return "no zip64 end of central directory record";
+            }
+            entries = zip64.getLong(32);
+            directorySize = zip64.getLong(40);
+            directoryOffset = zip64.getLong(48);
+            directoryEnd = zip64Position;
+        }
+
+        if (directoryOffset < 0 || directorySize < 0 || directoryOffset + directorySize > directoryEnd) {
+            return "central directory outside of the file";
+        }
+        if (directorySize > Integer.MAX_VALUE) {
+            return "central directory too large";
+        }
+
+        ByteBuffer directory = read(channel, directoryOffset, (int) directorySize);
+        int position = 0;
+        for (long entry = 0; entry < entries; entry++) {
+            if (position + CENTRAL_HEADER_SIZE > directorySize || directory.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+                return "central directory entry " + entry + " is damaged";
+            }
+            long compressedSize = directory.getInt(position + 20) & ZIP64_MAGIC;
+            long uncompressedSize = directory.getInt(position + 24) & ZIP64_MAGIC;
+            int nameLength = directory.getShort(position + 28) & 0xffff;
+            int extraLength = directory.getShort(position + 30) & 0xffff;
+            int commentLength = directory.getShort(position + 32) & 0xffff;
+            long localHeaderOffset = directory.getInt(position + 42) & ZIP64_MAGIC;
+            int extra = position + CENTRAL_HEADER_SIZE + nameLength;
+            int next = extra + extraLength + commentLength;
+            if (next > directorySize) {
+                return "central directory entry " + entry + " is damaged";
+            }
+
+            // the actual values of the fields that overflowed are in the zip64 extra field, in this order
+            if (uncompressedSize == ZIP64_MAGIC || compressedSize == ZIP64_MAGIC || localHeaderOffset == ZIP64_MAGIC) {
+                int end = extra + extraLength;
+                while (extra + 4 <= end && (directory.getShort(extra) & 0xffff) != ZIP64_EXTRA_ID) {
+                    extra += 4 + (directory.getShort(extra + 2) & 0xffff);
+                }
+                if (extra + 4 > end) {
+                    return "zip64 extra field of entry " + entry + " is missing";
+                }
+                int field = extra + 4;
+                int fieldEnd = Math.min(end, field + (directory.getShort(extra + 2) & 0xffff));
+                if (uncompressedSize == ZIP64_MAGIC && field + 8 <= fieldEnd) {
+                    field += 8;
+                }
+                if (compressedSize == ZIP64_MAGIC && field + 8 <= fieldEnd) {
+                    compressedSize = directory.getLong(field);
+                    field += 8;
+                }
+                if (localHeaderOffset == ZIP64_MAGIC && field + 8 <= fieldEnd) {
+                    localHeaderOffset = directory.getLong(field);
+                }
+            }
+
+            if (localHeaderOffset < 0 || compressedSize < 0
+                || localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + compressedSize > directoryOffset) {
+                return "entry " + entry + " ends outside of the file";
+            }
+            position = next;
+        }
+
+        return null;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+
+        return buffer;
+    }
+
+}
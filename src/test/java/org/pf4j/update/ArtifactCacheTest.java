@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pf4j.update.PluginInfo.PluginRelease;
+import org.pf4j.update.verifier.VerificationCache;
+import org.pf4j.util.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Date;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ArtifactCacheTest {
+
+    private Path pluginsRoot;
+    private ArtifactCache artifactCache;
+
+    @Before
+    public void setup() throws IOException {
+        pluginsRoot = Files.createTempDirectory("pf4j-plugins");
+        artifactCache = ArtifactCache.forPluginsRoot(pluginsRoot);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        FileUtils.delete(pluginsRoot);
+    }
+
+    @Test
+    public void keyBySha512sum() {
+        PluginRelease release = new PluginRelease();
+        release.url = "http://example.com/plugin.zip";
+        release.sha512sum = DigestUtils.sha512Hex("plugin").toUpperCase();
+        String key = ArtifactCache.getKey(release);
+        assertEquals("sha512-" + DigestUtils.sha512Hex("plugin"), key);
+
+        // the same artifact from another repository
+        release.url = "http://mirror.example.com/plugin.zip";
+        assertEquals(key, ArtifactCache.getKey(release));
+    }
+
+    @Test
+    public void keyByUrlAndDate() {
+        PluginRelease release = new PluginRelease();
+        release.url = "http://example.com/plugin.zip";
+        release.sha512sum = ".sha512";
+        assertNull(ArtifactCache.getKey(release));
+
+        release.date = new Date(1000);
+        String key = ArtifactCache.getKey(release);
+        assertTrue(key.startsWith("url-"));
+        release.date = new Date(2000);
+        assertNotEquals(key, ArtifactCache.getKey(release));
+    }
+
+    @Test
+    public void putAndGet() throws IOException {
+        String key = "sha512-" + DigestUtils.sha512Hex(new byte[] { 1, 2, 3 });
+        Path downloaded = Files.write(pluginsRoot.resolve("plugin.zip"), new byte[] { 1, 2, 3 });
+        assertFalse(artifactCache.get(key, pluginsRoot.resolve("cached.zip")));
+
+        artifactCache.put(key, downloaded);
+        Files.delete(downloaded);
+
+        Path cached = pluginsRoot.resolve("cached.zip");
+        assertTrue(artifactCache.get(key, cached));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(cached));
+    }
+
+    @Test
+    public void changedArtifactEvicted() throws IOException {
+        String key = "sha512-" + DigestUtils.sha512Hex(new byte[] { 1, 2, 3 });
+        Path installed = Files.write(pluginsRoot.resolve("plugin.zip"), new byte[] { 1, 2, 3 });
+        artifactCache.put(key, installed);
+        // e.g. an installed file the artifact is linked to
+        Files.write(artifactCache.getDirectory().resolve(key).resolve("artifact"), new byte[] { 4, 5, 6 });
+
+        Path cached = pluginsRoot.resolve("cached.zip");
+        assertFalse(artifactCache.get(key, cached));
+        assertFalse(Files.exists(cached));
+        assertFalse(Files.exists(artifactCache.getDirectory().resolve(key)));
+    }
+
+    @Test
+    public void artifactHashedOnceUntilChanged() throws IOException {
+        VerificationCache verificationCache = new VerificationCache();
+        artifactCache.setVerificationCache(verificationCache);
+        String key = "sha512-" + DigestUtils.sha512Hex(new byte[] { 1, 2, 3 });
+        artifactCache.put(key, Files.write(pluginsRoot.resolve("plugin.zip"), new byte[] { 1, 2, 3 }));
+        Path artifact = artifactCache.getDirectory().resolve(key).resolve("artifact");
+        // not modified right before it is hashed
+        Files.setLastModifiedTime(artifact, FileTime.fromMillis(System.currentTimeMillis() - 3600_000L));
+
+        assertTrue(artifactCache.get(key, pluginsRoot.resolve("first.zip")));
+        assertTrue(verificationCache.isVerified(artifact, "sha512:" + DigestUtils.sha512Hex(new byte[] { 1, 2, 3 })));
+        assertTrue(artifactCache.get(key, pluginsRoot.resolve("second.zip")));
+
+        Files.write(artifact, new byte[] { 4, 5, 6 });
+        assertFalse(artifactCache.get(key, pluginsRoot.resolve("third.zip")));
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws IOException {
+        artifactCache.setMaxSize(20);
+        Path downloaded = Files.write(pluginsRoot.resolve("plugin.zip"), new byte[10]);
+        artifactCache.put("a", downloaded);
+        artifactCache.put("b", downloaded);
+        setLastUsed("a", 2);
+        setLastUsed("b", 3);
+        // used more recently than b
+        assertTrue(artifactCache.get("a", pluginsRoot.resolve("a.zip")));
+
+        artifactCache.put("c", downloaded);
+
+        assertTrue(Files.exists(artifactCache.getDirectory().resolve("a")));
+        assertFalse(Files.exists(artifactCache.getDirectory().resolve("b")));
+        assertTrue(Files.exists(artifactCache.getDirectory().resolve("c")));
+    }
+
+    private void setLastUsed(String key, int hoursAgo) throws IOException {
+        long time = System.currentTimeMillis() - hoursAgo * 3600_000L;
+        Files.setLastModifiedTime(artifactCache.getDirectory().resolve(key), FileTime.fromMillis(time));
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CachingUpdateRepositoryTest {
+
+    private long now;
+    private CountingRepository delegate;
+    private List<Runnable> backgroundReloads;
+    private CachingUpdateRepository repository;
+
+    @Before
+    public void setup() {
+        delegate = new CountingRepository();
+        backgroundReloads = new ArrayList<>();
+        repository = new CachingUpdateRepository(delegate, backgroundReloads::add, () -> now);
+        repository.setTtl(1000);
+        repository.setStaleWhileRevalidate(1000);
+        repository.setStaleIfError(5000);
+    }
+
+    @Test
+    public void servedWithinTtl() {
+        assertNotNull(repository.getPlugin("plugin-1"));
+        advance(999);
+
+        assertNotNull(repository.getPlugin("plugin-1"));
+        assertEquals(1, delegate.loads);
+        assertTrue(backgroundReloads.isEmpty());
+    }
+
+    @Test
+    public void staleWhileRevalidate() {
+        repository.getPlugins();
+        advance(1500);
+
+        // stale, but served right away
+        assertNotNull(repository.getPlugin("plugin-1"));
+        assertNull(repository.getPlugin("plugin-2"));
+        assertEquals(1, delegate.loads);
+        // one reload for all callers
+        assertEquals(1, backgroundReloads.size());
+
+        runBackgroundReloads();
+        assertEquals(2, delegate.loads);
+        assertNotNull(repository.getPlugin("plugin-2"));
+    }
+
+    @Test
+    public void waitForReloadWhenTooOld() {
+        repository.getPlugins();
+        advance(2500);
+
+        assertNotNull(repository.getPlugin("plugin-2"));
+        assertEquals(2, delegate.loads);
+        assertTrue(backgroundReloads.isEmpty());
+    }
+
+    @Test
+    public void staleIfError() {
+        repository.getPlugins();
+        delegate.failing = true;
+        advance(2500);
+
+        assertNotNull(repository.getPlugin("plugin-1"));
+        assertEquals(2, delegate.loads);
+        // not tried again right away
+        assertNotNull(repository.getPlugin("plugin-1"));
+        assertEquals(2, delegate.loads);
+
+        advance(5000);
+        assertTrue(repository.getPlugins().isEmpty());
+    }
+
+    @Test
+    public void refreshReloadsInBackground() {
+        repository.getPlugins();
+
+        repository.refresh();
+        repository.refresh();
+
+        assertNull(repository.getPlugin("plugin-2"));
+        assertEquals(1, backgroundReloads.size());
+        runBackgroundReloads();
+        assertNotNull(repository.getPlugin("plugin-2"));
+    }
+
+    private void advance(long millis) {
+        now += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private void runBackgroundReloads() {
+        List<Runnable> reloads = new ArrayList<>(backgroundReloads);
+        backgroundReloads.clear();
+        reloads.forEach(Runnable::run);
+    }
+
+    // a new plugin with every load
+    private static class CountingRepository implements UpdateRepository {
+
+        int loads;
+        boolean failing;
+        private Map<String, PluginInfo> plugins;
+
+        @Override
+        public String getId() {
+            return "counting";
+        }
+
+        @Override
+        public URL getUrl() {
+            return null;
+        }
+
+        @Override
+        public Map<String, PluginInfo> getPlugins() {
+            if (plugins == null) {
+                loads++;
+                if (failing) {
+                    throw new IllegalStateException("unavailable");
+                }
+                plugins = new HashMap<>();
+                for (int i = 1; i <= loads; i++) {
+                    PluginInfo plugin = new PluginInfo();
+                    plugin.id = "plugin-" + i;
+                    plugin.releases = Collections.emptyList();
+                    plugins.put(plugin.id, plugin);
+                }
+            }
+
+            return plugins;
+        }
+
+        @Override
+        public PluginInfo getPlugin(String id) {
+            return getPlugins().get(id);
+        }
+
+        @Override
+        public void refresh() {
+            plugins = null;
+        }
+
+        @Override
+        public FileDownloader getFileDownloader() {
+            return null;
+        }
+
+        @Override
+        public FileVerifier getFileVerifier() {
+            return null;
+        }
+
+    }
+
+}
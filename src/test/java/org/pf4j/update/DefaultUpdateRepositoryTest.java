@@ -18,12 +18,19 @@ package org.pf4j.update;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
 public class DefaultUpdateRepositoryTest {
 
     @Test
@@ -35,4 +42,39 @@ public class DefaultUpdateRepositoryTest {
         assertEquals("plugins.json", repository.getPluginsJsonFileName());
     }
 
+    @Test
+    public void snapshotServedWhileRepositoryIsGone() throws IOException {
+        Path repositoryDir = Files.createTempDirectory("pf4j-repository");
+        Path snapshotFile = Files.createTempDirectory("pf4j-snapshots").resolve("local.json");
+        Files.write(repositoryDir.resolve("plugins.json"), ("[{\"id\": \"foo\", \"releases\": [{\"version\": \"1.2.3\", "
+            + "\"date\": \"2024-03-01T12:34:56Z\", \"url\": \"foo-1.2.3.zip\"}]}]").getBytes(StandardCharsets.UTF_8));
+        DefaultUpdateRepository repository = new DefaultUpdateRepository("local", repositoryDir.toUri().toURL());
+        repository.setSnapshotFile(snapshotFile);
+        PluginInfo.PluginRelease release = repository.getPlugin("foo").releases.get(0);
+        assertTrue(new String(Files.readAllBytes(snapshotFile), StandardCharsets.UTF_8).startsWith("{\"format\":1,"));
+
+        // e.g. after a restart
+        Files.delete(repositoryDir.resolve("plugins.json"));
+        DefaultUpdateRepository restarted = new DefaultUpdateRepository("local", repositoryDir.toUri().toURL());
+        restarted.setSnapshotFile(snapshotFile);
+        PluginInfo.PluginRelease snapshotRelease = restarted.getPlugin("foo").releases.get(0);
+
+        assertEquals(release.date, snapshotRelease.date);
+        assertEquals(release.url, snapshotRelease.url);
+        assertEquals("local", restarted.getPlugin("foo").getRepositoryId());
+    }
+
+    @Test
+    public void snapshotOfAnotherFormatIgnored() throws IOException {
+        Path repositoryDir = Files.createTempDirectory("pf4j-repository");
+        Path snapshotFile = Files.createTempDirectory("pf4j-snapshots").resolve("local.json");
+        Files.write(snapshotFile, "{\"format\":0,\"plugins\":{\"foo\":{\"id\":\"foo\"}}}".getBytes(StandardCharsets.UTF_8));
+        DefaultUpdateRepository repository = new DefaultUpdateRepository("local", repositoryDir.toUri().toURL());
+        repository.setSnapshotFile(snapshotFile);
+
+        Map<String, PluginInfo> plugins = repository.getPlugins();
+
+        assertTrue(plugins.isEmpty());
+    }
+
 }
@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update;
+
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link WebServer} that injects faults per request path: latency, bandwidth caps,
+ * connections dropped mid-body, error responses, truncated and corrupted files and
+ * replaced bodies (e.g. a wrong {@code .sha512} file).
+ * Faults can be changed while the server is running.
+ * <p>
+ * A {@code *} in a path matches any sequence of characters, e.g. {@code /repo/*.zip}.
+ */
+public class FaultInjectingWebServer extends WebServer {
+
+    private final Map<String, Fault> faults = new ConcurrentHashMap<>();
+
+    public FaultInjectingWebServer inject(String path, Fault fault) {
+        faults.put(path, fault);
+
+        return this;
+    }
+
+    public FaultInjectingWebServer clear(String path) {
+        faults.remove(path);
+
+        return this;
+    }
+
+    public FaultInjectingWebServer clearAll() {
+        faults.clear();
+
+        return this;
+    }
+
+    @Override
+    protected Handler createHandler() {
+        HandlerWrapper faultHandler = new HandlerWrapper() {
+
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+                throws IOException, ServletException {
+                Fault fault = findFault(target);
+                if (fault == null) {
+                    super.handle(target, baseRequest, request, response);
+                } else {
+                    baseRequest.setHandled(true);
+                    apply(fault, target, baseRequest, response);
+                }
+            }
+
+        };
+        faultHandler.setHandler(super.createHandler());
+
+        return faultHandler;
+    }
+
+    private Fault findFault(String target) {
+        Fault fault = faults.get(target);
+        if (fault == null) {
+            for (Map.Entry<String, Fault> entry : faults.entrySet()) {
+                String path = entry.getKey();
+                if (path.contains("*") && target.matches(toRegex(path))) {
+                    fault = entry.getValue();
+                    break;
+                }
+            }
+        }
+
+        return fault != null && fault.take() ? fault : null;
+    }
+
+    private static String toRegex(String path) {
+        StringBuilder regex = new StringBuilder();
+        for (String part : path.split("\\*", -1)) {
+            if (regex.length() > 0) {
+                regex.append(".*");
+            }
+            regex.append(Pattern.quote(part));
+        }
+
+        return regex.toString();
+    }
+
+    private void apply(Fault fault, String target, Request baseRequest, HttpServletResponse response) throws IOException {
+        if (!await(fault, fault.latencyMillis)) {
+            // cleared while waiting, so that a stalled request does not answer into the next scenario
+            baseRequest.getHttpChannel().getEndPoint().close();
+            return;
+        }
+
+        if (fault.status > 0) {
+            response.sendError(fault.status);
+            return;
+        }
+
+        byte[] content;
+        if (fault.body != null) {
+            content = fault.body.getBytes(StandardCharsets.UTF_8);
+        } else {
+            Path file = Paths.get(getResourceBase(), target).normalize();
+            if (!Files.isRegularFile(file)) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            content = Files.readAllBytes(file);
+        }
+
+        int length = content.length;
+        if (fault.truncateAt >= 0 && fault.truncateAt < length) {
+            length = (int) fault.truncateAt;
+        }
+        if (fault.corrupt && length > 0) {
+            content = content.clone();
+            content[length / 2] ^= 0xff;
+        }
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentLength(length);
+        OutputStream out = response.getOutputStream();
+        int limit = fault.dropAfterBytes >= 0 ? (int) Math.min(fault.dropAfterBytes, length) : length;
+        int chunk = fault.bytesPerSecond > 0 ? (int) Math.max(1, fault.bytesPerSecond / 10) : limit;
+        for (int offset = 0; offset < limit; offset += chunk) {
+            out.write(content, offset, Math.min(chunk, limit - offset));
+            if (fault.bytesPerSecond > 0) {
+                out.flush();
+                sleep(100);
+            }
+        }
+
+        if (limit < length) {
+            // send what we have and kill the connection in the middle of the body
+            out.flush();
+            baseRequest.getHttpChannel().getEndPoint().close();
+        }
+    }
+
+    // sleeps for the latency of the fault, false if it was cleared in the meantime
+    private boolean await(Fault fault, long millis) {
+        long end = System.currentTimeMillis() + millis;
+        for (long left = millis; left > 0; left = end - System.currentTimeMillis()) {
+            if (!faults.containsValue(fault)) {
+                return false;
+            }
+            sleep(Math.min(left, 50));
+        }
+
+        return true;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A combination of faults to apply to a path. Create one with a static factory and
+     * chain further faults, e.g. {@code Fault.latency(200).bandwidth(64 * 1024)}.
+     */
+    public static class Fault {
+
+        private long latencyMillis;
+        private long bytesPerSecond;
+        private long dropAfterBytes = -1;
+        private int status;
+        private long truncateAt = -1;
+        private boolean corrupt;
+        private String body;
+        private AtomicInteger remaining;
+
+        public static Fault latency(long millis) {
+            return new Fault().withLatency(millis);
+        }
+
+        public static Fault bandwidth(long bytesPerSecond) {
+            return new Fault().withBandwidth(bytesPerSecond);
+        }
+
+        public static Fault dropAfter(long bytes) {
+            return new Fault().withDropAfter(bytes);
+        }
+
+        public static Fault status(int status) {
+            return new Fault().withStatus(status);
+        }
+
+        public static Fault truncate(long bytes) {
+            return new Fault().withTruncate(bytes);
+        }
+
+        public static Fault corrupt() {
+            return new Fault().withCorrupt();
+        }
+
+        public static Fault body(String body) {
+            return new Fault().withBody(body);
+        }
+
+        public Fault withLatency(long millis) {
+            this.latencyMillis = millis;
+
+            return this;
+        }
+
+        public Fault withBandwidth(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+
+            return this;
+        }
+
+        /**
+         * Announces the full length, but closes the connection after the given number of body bytes.
+         */
+        public Fault withDropAfter(long bytes) {
+            this.dropAfterBytes = bytes;
+
+            return this;
+        }
+
+        public Fault withStatus(int status) {
+            this.status = status;
+
+            return this;
+        }
+
+        /**
+         * Serves only the first bytes of the file, as a complete (shorter) response.
+         */
+        public Fault withTruncate(long bytes) {
+            this.truncateAt = bytes;
+
+            return this;
+        }
+
+        /**
+         * Flips one byte in the middle of the served content, so it no longer matches its checksum.
+         */
+        public Fault withCorrupt() {
+            this.corrupt = true;
+
+            return this;
+        }
+
+        /**
+         * Serves the given content instead of the file.
+         */
+        public Fault withBody(String body) {
+            this.body = body;
+
+            return this;
+        }
+
+        /**
+         * Applies the fault to the first requests only, later requests are served normally.
+         */
+        public Fault withTimes(int times) {
+            this.remaining = new AtomicInteger(times);
+
+            return this;
+        }
+
+        private boolean take() {
+            return remaining == null || remaining.getAndDecrement() > 0;
+        }
+
+    }
+
+}
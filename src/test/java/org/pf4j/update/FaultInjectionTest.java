@@ -0,0 +1,614 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pf4j.PluginManager;
+import org.pf4j.PluginRuntimeException;
+import org.pf4j.update.FaultInjectingWebServer.Fault;
+import org.pf4j.update.downloader.DownloadPriority;
+import org.pf4j.update.downloader.MirrorFileDownloader;
+import org.pf4j.update.util.CancellationToken;
+import org.pf4j.update.util.CancelledException;
+import org.pf4j.update.util.CircuitBreakerOpenException;
+import org.pf4j.update.util.CircuitBreakerRegistry;
+import org.pf4j.update.util.PropertiesPluginManager;
+import org.pf4j.update.util.RetryPolicy;
+import org.pf4j.update.util.SyntheticRepository;
+import org.pf4j.update.verifier.VerificationCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Scenarios against slow or broken repositories, served by a {@link FaultInjectingWebServer}.
+ * Each scenario records how long it took until the outcome (success or failure) was known;
+ * the numbers are logged when the suite ends.
+ * <p>
+ * The server exposes four repositories: {@code healthy}, {@code faulty}, {@code sidecar}
+ * (checksums in {@code .sha512} files and a {@code SHA512SUMS.gz} manifest) and {@code chunked}
+ * (with {@code .chunks} manifests), each with {@value #PLUGINS} plugins of {@value #ARTIFACT_SIZE} bytes.
+ */
+public class FaultInjectionTest {
+
+    private static final Logger log = LoggerFactory.getLogger(FaultInjectionTest.class);
+
+    private static final int PLUGINS = 3;
+    private static final int ARTIFACT_SIZE = 16 * 1024;
+
+    private static final Map<String, String> timings = new LinkedHashMap<>();
+
+    private static Path repositoriesDir;
+    private static FaultInjectingWebServer webServer;
+
+    private PluginManager pluginManager;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        repositoriesDir = Files.createTempDirectory("pf4j-update-faults");
+        repositoriesDir.toFile().deleteOnExit();
+        for (String name : Arrays.asList("healthy", "faulty")) {
+            Path dir = Files.createDirectory(repositoriesDir.resolve(name));
+            new SyntheticRepository().setIdPrefix(name + "-").setPluginCount(PLUGINS).setReleasesPerPlugin(1)
+                .setArtifactSize(ARTIFACT_SIZE).generate(dir);
+        }
+        Path dir = Files.createDirectory(repositoriesDir.resolve("sidecar"));
+        new SyntheticRepository().setIdPrefix("sidecar-").setPluginCount(PLUGINS).setReleasesPerPlugin(1)
+            .setArtifactSize(ARTIFACT_SIZE).setSidecarChecksums(true).setChecksumsFileName("SHA512SUMS.gz").generate(dir);
+
+        dir = Files.createDirectory(repositoriesDir.resolve("chunked"));
+        new SyntheticRepository().setIdPrefix("chunked-").setPluginCount(PLUGINS).setReleasesPerPlugin(1)
+            .setArtifactSize(ARTIFACT_SIZE).setChunkSize(ARTIFACT_SIZE / 4).generate(dir);
+
+        // a mirror of the faulty repository
+        Path faulty = repositoriesDir.resolve("faulty");
+        Path mirror = repositoriesDir.resolve("mirror");
+        try (Stream<Path> files = Files.walk(faulty)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.copy(file, mirror.resolve(faulty.relativize(file).toString()));
+            }
+        }
+
+        webServer = new FaultInjectingWebServer();
+        webServer.setPort(0).setResourceBase(repositoriesDir.toString());
+        webServer.start();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        webServer.shutdown();
+
+        StringBuilder sb = new StringBuilder("Fault injection timings:");
+        for (Map.Entry<String, String> entry : timings.entrySet()) {
+            sb.append(String.format("%n  %-40s %s", entry.getKey(), entry.getValue()));
+        }
+        log.info("{}", sb);
+    }
+
+    @Before
+    public void setup() throws Exception {
+        Path pluginsDir = Files.createTempDirectory("pf4j-plugins");
+        pluginsDir.toFile().deleteOnExit();
+        pluginManager = new PropertiesPluginManager(pluginsDir);
+        // every scenario fetches sidecars and hashes artifacts on its own
+        VerificationCache.getShared().clear();
+    }
+
+    @After
+    public void clearFaults() {
+        webServer.clearAll();
+    }
+
+    @Test
+    public void slowRepositoryDelaysHealthyOne() throws Exception {
+        webServer.inject("/faulty/plugins.json", Fault.latency(500));
+        UpdateManager updateManager = updateManager("healthy", "faulty");
+
+        Outcome<List<PluginInfo>> outcome = measure("slow metadata (500ms) delays healthy", updateManager::getPlugins);
+
+        assertEquals(2 * PLUGINS, outcome.result.size());
+        assertTrue(outcome.millis >= 500);
+    }
+
+    @Test
+    public void slowRepositoryCutOffByDeadline() throws Exception {
+        webServer.inject("/faulty/plugins.json", Fault.latency(3000));
+        UpdateManager updateManager = updateManager("healthy", "faulty");
+
+        Outcome<PartialResult<List<PluginInfo>>> outcome = measure("slow metadata (3000ms), 500ms deadline",
+            () -> updateManager.getPlugins(Duration.ofMillis(500)));
+
+        assertEquals(PLUGINS, outcome.result.getResult().size());
+        assertEquals(Collections.singletonList("faulty"), outcome.result.getTimedOutRepositories());
+        // cut off well before the slow repository answers
+        assertTrue(outcome.millis < 2500);
+        assertTrue(updateManager.getUpdates(Duration.ofMillis(100)).getTimedOutRepositories().contains("faulty"));
+
+        // without a deadline, the first load is waited for
+        assertEquals(2 * PLUGINS, updateManager.getPlugins().size());
+        PartialResult<List<PluginInfo>> late = updateManager.getPlugins(Duration.ofMillis(500));
+        assertTrue(late.isComplete());
+        assertEquals(2 * PLUGINS, late.getResult().size());
+    }
+
+    @Test
+    public void failingRepositoryCutOffByDeadline() throws Exception {
+        UpdateRepository failing = new DefaultUpdateRepository("failing", new URL(baseUrl() + "faulty/")) {
+
+            @Override
+            public Map<String, PluginInfo> getPlugins() {
+                sleep(500);
+                throw new IllegalStateException("unavailable");
+            }
+
+        };
+        UpdateManager updateManager = new UpdateManager(pluginManager, Collections.singletonList(failing));
+        assertEquals(Collections.singletonList("failing"),
+            updateManager.getPlugins(Duration.ofMillis(100)).getTimedOutRepositories());
+
+        // without a deadline, the failure of the repository is not wrapped
+        Outcome<List<PluginInfo>> outcome = measure("failing metadata after a deadline", updateManager::getPlugins);
+        assertTrue("Expected failure but got " + outcome.result, outcome.failure instanceof IllegalStateException);
+    }
+
+    @Test
+    public void metadataServerError() throws Exception {
+        webServer.inject("/faulty/plugins.json", Fault.status(503));
+        UpdateManager updateManager = updateManager("healthy", "faulty");
+
+        Outcome<List<PluginInfo>> outcome = measure("metadata 503", updateManager::getPlugins);
+
+        // the failing repository contributes nothing, the healthy one is still served
+        assertEquals(PLUGINS, outcome.result.size());
+    }
+
+    @Test
+    public void metadataServerErrorBehindCache() throws Exception {
+        CachingUpdateRepository repository = new CachingUpdateRepository(repository("faulty"), Runnable::run);
+        repository.setTtl(0);
+        repository.setStaleWhileRevalidate(0);
+        repository.setStaleIfError(1000);
+        assertEquals(PLUGINS, repository.getPlugins().size());
+
+        webServer.inject("/faulty/plugins.json", Fault.status(503));
+        Outcome<Map<String, PluginInfo>> outcome = measure("metadata 503, served from cache", repository::getPlugins);
+        assertEquals(PLUGINS, outcome.result.size());
+
+        // the outage is not taken for a load, the cached plugins expire
+        sleep(1100);
+        assertTrue(repository.getPlugins().isEmpty());
+    }
+
+    @Test
+    public void metadataServerErrorAfterRestart() throws Exception {
+        Path snapshotDirectory = Files.createTempDirectory("pf4j-snapshots");
+        UpdateManager updateManager = updateManager("faulty");
+        updateManager.setSnapshotDirectory(snapshotDirectory);
+        assertEquals(PLUGINS, updateManager.getPlugins().size());
+
+        // restarted while the repository is down
+        webServer.inject("/faulty/plugins.json", Fault.status(503));
+        UpdateManager restarted = updateManager("faulty");
+        restarted.setSnapshotDirectory(snapshotDirectory);
+
+        Outcome<List<PluginInfo>> outcome = measure("metadata 503 after restart, from snapshot", restarted::getPlugins);
+
+        assertEquals(PLUGINS, outcome.result.size());
+    }
+
+    @Test
+    public void metadataNotModified() throws Exception {
+        UpdateManager updateManager = updateManager("healthy");
+        updateManager.setSnapshotDirectory(Files.createTempDirectory("pf4j-snapshots"));
+        assertEquals(PLUGINS, updateManager.getPlugins().size());
+        long bytesServed = webServer.getBytesServed();
+        updateManager.getRepositories().forEach(UpdateRepository::refresh);
+
+        Outcome<List<PluginInfo>> outcome = measure("metadata not modified", updateManager::getPlugins);
+
+        assertEquals(PLUGINS, outcome.result.size());
+        assertEquals(bytesServed, webServer.getBytesServed());
+    }
+
+    @Test
+    public void metadataDroppedMidBody() throws Exception {
+        webServer.inject("/faulty/plugins.json", Fault.dropAfter(100));
+        UpdateManager updateManager = updateManager("healthy", "faulty");
+
+        Outcome<List<PluginInfo>> outcome = measure("metadata dropped mid-body", updateManager::getPlugins);
+
+        // the truncated catalog is rejected, the healthy repository is still served
+        assertNull(outcome.failure);
+        assertEquals(PLUGINS, outcome.result.size());
+    }
+
+    @Test
+    public void artifactDroppedMidBody() throws Exception {
+        webServer.inject("/faulty/*.zip", Fault.dropAfter(ARTIFACT_SIZE / 2));
+
+        assertInstallFails("artifact dropped mid-body", "faulty");
+    }
+
+    @Test
+    public void artifactServerError() throws Exception {
+        webServer.inject("/faulty/*.zip", Fault.status(500));
+        UpdateManager updateManager = updateManager("faulty");
+        String id = updateManager.getPlugins().get(0).id;
+
+        Outcome<Boolean> outcome = measure("artifact 500", () -> updateManager.installPlugin(id, null));
+
+        assertTrue(outcome.failure instanceof PluginRuntimeException);
+    }
+
+    @Test
+    public void artifactTruncated() throws Exception {
+        webServer.inject("/faulty/*.zip", Fault.truncate(ARTIFACT_SIZE / 2));
+
+        assertInstallFails("artifact truncated", "faulty");
+    }
+
+    @Test
+    public void artifactCorrupted() throws Exception {
+        webServer.inject("/faulty/*.zip", Fault.corrupt());
+
+        assertInstallFails("artifact corrupted", "faulty");
+    }
+
+    @Test
+    public void wrongSidecarChecksum() throws Exception {
+        webServer.inject("/sidecar/*.sha512", Fault.body("0123456789abcdef  wrong.zip"));
+
+        assertInstallFails("wrong .sha512 sidecar", "sidecar");
+    }
+
+    @Test
+    public void slowSidecar() throws Exception {
+        webServer.inject("/sidecar/*.sha512", Fault.latency(300));
+        UpdateManager updateManager = updateManager("sidecar");
+        String id = updateManager.getPlugins().get(0).id;
+
+        Outcome<Boolean> outcome = measure("slow .sha512 sidecar (300ms)",
+            () -> updateManager.installPlugin(id, null));
+
+        assertTrue(outcome.result);
+        assertTrue(outcome.millis >= 300);
+    }
+
+    @Test
+    public void checksumManifestInsteadOfSidecars() throws Exception {
+        webServer.inject("/sidecar/*.sha512", Fault.status(404));
+        DefaultUpdateRepository repository = repository("sidecar");
+        repository.setChecksumsFileName("SHA512SUMS.gz");
+        UpdateManager updateManager = new UpdateManager(pluginManager, new ArrayList<>(Collections.singletonList(repository)));
+        String id = updateManager.getPlugins().get(0).id;
+
+        Outcome<Boolean> outcome = measure("no .sha512 sidecars, SHA512SUMS.gz manifest",
+            () -> updateManager.installPlugin(id, null));
+
+        assertTrue(outcome.result);
+    }
+
+    @Test
+    public void damagedChunkFetchedAgain() throws Exception {
+        webServer.inject("/chunked/*.zip", Fault.corrupt().withTimes(1));
+        UpdateManager updateManager = updateManager("chunked");
+        String id = updateManager.getPlugins().get(0).id;
+
+        Outcome<Boolean> outcome = measure("artifact corrupted once, chunk fetched again",
+            () -> updateManager.installPlugin(id, null));
+
+        assertTrue(outcome.result);
+    }
+
+    @Test
+    public void missingChunksFetchedAgain() throws Exception {
+        webServer.inject("/chunked/*.zip", Fault.truncate(ARTIFACT_SIZE / 2 + 1).withTimes(1));
+        UpdateManager updateManager = updateManager("chunked");
+        String id = updateManager.getPlugins().get(0).id;
+
+        Outcome<Boolean> outcome = measure("artifact truncated once, missing chunks fetched again",
+            () -> updateManager.installPlugin(id, null));
+        assertTrue(outcome.result);
+    }
+
+    @Test
+    public void bandwidthCap() throws Exception {
+        webServer.inject("/faulty/*.zip", Fault.bandwidth(ARTIFACT_SIZE));
+        UpdateManager updateManager = updateManager("faulty");
+        String id = updateManager.getPlugins().get(0).id;
+
+        Outcome<Boolean> outcome = measure("artifact at 16KB/s",
+            () -> updateManager.installPlugin(id, null));
+
+        assertTrue(outcome.result);
+        assertTrue(outcome.millis >= 800);
+    }
+
+    @Test
+    public void lastGoodCatalogServedWhileRepositoryDown() throws Exception {
+        DefaultUpdateRepository repository = repository("faulty");
+        repository.setRetryPolicy(RetryPolicy.none());
+        assertEquals(PLUGINS, repository.getPlugins().size());
+
+        webServer.inject("/faulty/plugins.json", Fault.status(503));
+        repository.refresh();
+        Outcome<Map<String, PluginInfo>> outcome = measure("metadata 503 after a good load", repository::getPlugins);
+
+        assertEquals(PLUGINS, outcome.result.size());
+    }
+
+    @Test
+    public void metadataRecoversWithRetry() throws Exception {
+        webServer.inject("/faulty/plugins.json", Fault.status(503));
+        DefaultUpdateRepository repository = repository("faulty");
+        repository.setRetryPolicy(new RetryPolicy().setMaxAttempts(10).setInitialDelay(100).setMaxDelay(100));
+        new Thread(() -> {
+            sleep(300);
+            webServer.clearAll();
+        }).start();
+
+        Outcome<Map<String, PluginInfo>> outcome = measure("metadata 503 for 300ms, retried", repository::getPlugins);
+
+        assertEquals(PLUGINS, outcome.result.size());
+    }
+
+    @Test
+    public void openCircuitFailsFast() throws Exception {
+        webServer.inject("/faulty/*.zip", Fault.status(500));
+        UpdateManager updateManager = updateManager("faulty");
+        updateManager.setCircuitBreakers(new CircuitBreakerRegistry(2, 60_000));
+        String id = updateManager.getPlugins().get(0).id;
+        measure("artifact 500, circuit closed", () -> updateManager.installPlugin(id, null));
+
+        // a request that reached the repository would take 5s now
+        webServer.inject("/faulty/*.zip", Fault.latency(5000));
+        Outcome<Boolean> outcome = measure("artifact in 5s, circuit open", () -> updateManager.installPlugin(id, null));
+
+        assertTrue(outcome.failure instanceof PluginRuntimeException);
+        assertTrue(outcome.failure.getCause() instanceof CircuitBreakerOpenException);
+        assertTrue("Failed after " + outcome.millis + " ms", outcome.millis < 2500);
+    }
+
+    @Test
+    public void cancelledProbeReleasesCircuit() throws Exception {
+        webServer.inject("/faulty/*.zip", Fault.status(500));
+        UpdateManager updateManager = updateManager("faulty");
+        updateManager.setCircuitBreakers(new CircuitBreakerRegistry(1, 100));
+        String id = updateManager.getPlugins().get(0).id;
+        measure("artifact 500, circuit opens", () -> updateManager.installPlugin(id, null));
+        sleep(150);
+
+        // the probe is cancelled, without an outcome for the host
+        webServer.inject("/faulty/*.zip", Fault.latency(5000));
+        Outcome<Boolean> probe = measure("probe cancelled", () -> updateManager.installPlugin(id, null, DownloadPriority.USER,
+            CancellationToken.withTimeout(Duration.ofMillis(200))));
+        assertTrue(probe.failure.getCause() instanceof CancelledException);
+        webServer.clearAll();
+
+        Outcome<Boolean> outcome = measure("probe after cancelled probe", () -> updateManager.installPlugin(id, null));
+
+        assertTrue(outcome.result);
+    }
+
+    @Test
+    public void failOverToMirror() throws Exception {
+        webServer.inject("/faulty/*", Fault.status(503));
+        DefaultUpdateRepository repository = repository("faulty");
+        repository.setMirrors(Collections.singletonList(new URL(baseUrl() + "mirror/")));
+        UpdateManager updateManager = new UpdateManager(pluginManager, new ArrayList<>(Collections.singletonList(repository)));
+
+        Outcome<Boolean> outcome = measure("primary 503, mirror healthy", () -> {
+            String id = updateManager.getPlugins().get(0).id;
+            return updateManager.installPlugin(id, null);
+        });
+
+        assertTrue(outcome.result);
+    }
+
+    @Test
+    public void failOverFromStalledMirror() throws Exception {
+        webServer.inject("/faulty/*", Fault.latency(3000));
+        DefaultUpdateRepository repository = new DefaultUpdateRepository("faulty", new URL(baseUrl() + "faulty/")) {
+
+            @Override
+            public FileDownloader getFileDownloader() {
+                MirrorFileDownloader fileDownloader = (MirrorFileDownloader) super.getFileDownloader();
+                ((SimpleFileDownloader) fileDownloader.getDelegate()).setReadTimeout(500);
+
+                return fileDownloader;
+            }
+
+        };
+        repository.setReadTimeout(500);
+        repository.setMirrors(Collections.singletonList(new URL(baseUrl() + "mirror/")));
+        UpdateManager updateManager = new UpdateManager(pluginManager, new ArrayList<>(Collections.singletonList(repository)));
+
+        Outcome<Boolean> outcome = measure("primary stalled past read timeout, mirror healthy", () -> {
+            String id = updateManager.getPlugins().get(0).id;
+            return updateManager.installPlugin(id, null);
+        });
+
+        assertTrue("Expected success but got " + outcome.failure, outcome.result);
+        assertTrue(repository.getMirrorSelector().getMirrors().get(0).getFailureRate() > 0);
+    }
+
+    @Test
+    public void hedgedRequestToMirror() throws Exception {
+        webServer.inject("/faulty/*", Fault.latency(10_000));
+        DefaultUpdateRepository repository = repository("faulty");
+        repository.setMirrors(Collections.singletonList(new URL(baseUrl() + "mirror/")));
+        repository.setHedgeRequests(true);
+        repository.getMirrorSelector().setHedgeDelay(200);
+        UpdateManager updateManager = new UpdateManager(pluginManager, new ArrayList<>(Collections.singletonList(repository)));
+
+        Outcome<Boolean> outcome = measure("primary slow (10s), hedged to mirror", () -> {
+            String id = updateManager.getPlugins().get(0).id;
+            return updateManager.installPlugin(id, null);
+        });
+
+        assertTrue(outcome.result);
+        // far below the latency of the primary, whose request is disconnected
+        assertTrue("Installed after " + outcome.millis + " ms", outcome.millis < 5000);
+        // the download of the primary that lost leaves nothing behind
+        Path stagingDirectory = updateManager.getStagingArea().getDirectory();
+        long deadline = System.currentTimeMillis() + 5000;
+        long staged;
+        while ((staged = count(stagingDirectory)) > 0 && System.currentTimeMillis() < deadline) {
+            sleep(50);
+        }
+        assertEquals(0, staged);
+    }
+
+    @Test
+    public void slowArtifactCancelledByDeadline() throws Exception {
+        webServer.inject("/faulty/*.zip", Fault.bandwidth(1024));
+
+        assertInstallCancelled("artifact at 1KB/s, 300ms deadline", "faulty",
+            () -> CancellationToken.withTimeout(Duration.ofMillis(300)), 300);
+    }
+
+    @Test
+    public void slowResponseCancelled() throws Exception {
+        webServer.inject("/faulty/*.zip", Fault.latency(5000));
+
+        assertInstallCancelled("artifact response in 5s, cancelled after 300ms", "faulty", () -> {
+            CancellationToken cancellationToken = new CancellationToken();
+            new Thread(() -> {
+                sleep(300);
+                cancellationToken.cancel();
+            }).start();
+
+            return cancellationToken;
+        }, 300);
+    }
+
+    @Test
+    public void slowSidecarCancelledByDeadline() throws Exception {
+        webServer.inject("/sidecar/*.sha512", Fault.latency(5000));
+
+        assertInstallCancelled(".sha512 sidecar in 5s, 300ms deadline", "sidecar",
+            () -> CancellationToken.withTimeout(Duration.ofMillis(300)), 300);
+    }
+
+    private void assertInstallCancelled(String scenario, String repositoryId, Supplier<CancellationToken> cancellationToken,
+                                        long cancelledAfter) throws Exception {
+        UpdateManager updateManager = updateManager(repositoryId);
+        String id = updateManager.getPlugins().get(0).id;
+
+        Outcome<Boolean> outcome = measure(scenario,
+            () -> updateManager.installPlugin(id, null, DownloadPriority.USER, cancellationToken.get()));
+
+        assertTrue("Expected cancellation but got " + outcome.failure, outcome.failure != null
+            && outcome.failure.getCause() instanceof CancelledException);
+        // well before the faulty repository would have answered (5s and more)
+        assertTrue("Released after " + outcome.millis + " ms", outcome.millis < cancelledAfter + 2000);
+        assertFalse(Thread.currentThread().isInterrupted());
+        assertEquals(0, pluginManager.getPlugins().size());
+        // no partial download left behind
+        try (Stream<Path> staged = Files.list(updateManager.getStagingArea().getDirectory())) {
+            assertEquals(0, staged.count());
+        }
+    }
+
+    private void assertInstallFails(String scenario, String repositoryId) throws Exception {
+        UpdateManager updateManager = updateManager(repositoryId);
+        String id = updateManager.getPlugins().get(0).id;
+
+        Outcome<Boolean> outcome = measure(scenario, () -> updateManager.installPlugin(id, null));
+
+        assertTrue("Expected failure but got " + outcome.result, outcome.failure instanceof PluginRuntimeException);
+        assertEquals(0, pluginManager.getPlugins().size());
+    }
+
+    private UpdateManager updateManager(String... repositoryIds) throws Exception {
+        List<UpdateRepository> repositories = new ArrayList<>();
+        for (String id : repositoryIds) {
+            repositories.add(repository(id));
+        }
+
+        return new UpdateManager(pluginManager, repositories);
+    }
+
+    private static DefaultUpdateRepository repository(String id) throws Exception {
+        return new DefaultUpdateRepository(id, new URL(baseUrl() + id + "/"));
+    }
+
+    private static String baseUrl() {
+        return "http://localhost:" + webServer.getPort() + "/";
+    }
+
+    private static long count(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static <T> Outcome<T> measure(String scenario, Callable<T> body) {
+        Outcome<T> outcome = new Outcome<>();
+        long start = System.nanoTime();
+        try {
+            outcome.result = body.call();
+        } catch (Exception e) {
+            outcome.failure = e;
+        }
+        outcome.millis = (System.nanoTime() - start) / 1_000_000;
+
+        String result = outcome.failure != null ? "failed with " + outcome.failure.getClass().getSimpleName() : "succeeded";
+        timings.put(scenario, result + " after " + outcome.millis + " ms");
+
+        return outcome;
+    }
+
+    private static class Outcome<T> {
+
+        T result;
+        Exception failure;
+        long millis;
+
+    }
+
+}
@@ -19,6 +19,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.pf4j.PluginRuntimeException;
+import org.pf4j.update.downloader.BandwidthLimiter;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
@@ -27,6 +28,10 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -87,6 +92,33 @@ public class FileDownloadTest {
         assertEquals(downloadUrl.openConnection().getLastModified(), downloaded.toFile().lastModified());
     }
 
+    @Test
+    public void downloadDeferredToOffPeakWindow() throws Exception {
+        webserver.setPort(55000);
+        webserver.setResourceBase(updateRepoDir.toAbsolutePath().toString());
+        webserver.start();
+
+        List<Long> waits = new ArrayList<>();
+        downloader.setBandwidthLimiter(new BandwidthLimiter() {
+
+            @Override
+            public Duration getTransferDelay(long size) {
+                return waits.isEmpty() ? Duration.ofHours(1) : Duration.ZERO;
+            }
+
+            @Override
+            public void awaitTransferWindow(long size) {
+                waits.add(size);
+            }
+
+        });
+
+        Path downloaded = downloader.downloadFile(new URL("http://localhost:55000/myfile"));
+        assertEquals(4, Files.size(downloaded));
+        // waited once, between two attempts
+        assertEquals(Collections.singletonList(4L), waits);
+    }
+
     @Test(expected = PluginRuntimeException.class)
     public void unsupportedProtocol() throws Exception {
         downloader.downloadFile(new URL("jar:file:!/myfile.jar"));
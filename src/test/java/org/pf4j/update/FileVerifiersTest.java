@@ -15,15 +15,24 @@
  */
 package org.pf4j.update;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.junit.Test;
 import org.pf4j.update.verifier.BasicVerifier;
+import org.pf4j.update.verifier.CompoundVerifier;
 import org.pf4j.update.verifier.Sha512SumVerifier;
+import org.pf4j.update.verifier.StreamingFileVerifier;
+import org.pf4j.update.verifier.VerificationPass;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
 
 public class FileVerifiersTest {
     @Test
@@ -64,4 +73,60 @@ public class FileVerifiersTest {
                 null, "http://example.com/repo/foo-1.2.3.zip", null), testFile);
         Files.delete(testFile);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCompoundVerifierReadsOnce() throws IOException, VerifyException {
+        Path testFile = Files.createTempFile("test", ".tmp");
+        byte[] content = new byte[(int) VerificationPass.LARGE_FILE_THRESHOLD + 1000];
+        new Random(42).nextBytes(content);
+        Files.write(testFile, content);
+        String sha512sum = DigestUtils.sha512Hex(content);
+        CountingVerifier first = new CountingVerifier();
+        CountingVerifier second = new CountingVerifier();
+        CompoundVerifier fileVerifier = new CompoundVerifier(Arrays.asList(new BasicVerifier(), first, new Sha512SumVerifier(), second));
+        fileVerifier.setParallel(true);
+
+        fileVerifier.verify(new FileVerifier.Context("foo", new Date(), "1.2.3",
+                null, "http://example.com/repo/foo-1.2.3.zip", sha512sum), testFile);
+
+        assertEquals(content.length, first.bytes);
+        assertEquals(content.length, second.bytes);
+        Files.delete(testFile);
+    }
+
+    @Test(expected = VerifyException.class)
+    public void testCompoundVerifierWrongChecksum() throws IOException, VerifyException {
+        FileVerifier fileVerifier = new CompoundVerifier();
+        Path testFile = Files.createTempFile("test", ".tmp");
+        Files.write(testFile, "Test".getBytes("utf-8"));
+        try {
+            fileVerifier.verify(new FileVerifier.Context("foo", new Date(), "1.2.3",
+                    null, "http://example.com/repo/foo-1.2.3.zip", DigestUtils.sha512Hex("Other")), testFile);
+        } finally {
+            Files.delete(testFile);
+        }
+    }
+
+    private static class CountingVerifier implements StreamingFileVerifier {
+
+        long bytes;
+
+        @Override
+        public Session begin(Context context, Path file) {
+            return new Session() {
+
+                @Override
+                public void update(ByteBuffer buffer) {
+                    bytes += buffer.remaining();
+                }
+
+                @Override
+                public void finish() {
+                }
+
+            };
+        }
+
+    }
+
+}
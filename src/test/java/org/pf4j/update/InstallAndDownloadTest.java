@@ -25,6 +25,8 @@ import org.pf4j.PluginRuntimeException;
 import org.pf4j.PluginWrapper;
 import org.pf4j.TestPluginDescriptor;
 import org.pf4j.VersionManager;
+import org.pf4j.update.downloader.DownloadPriority;
+import org.pf4j.update.util.CancellationToken;
 import org.pf4j.update.util.NopPlugin;
 import org.pf4j.update.util.PropertiesPluginManager;
 import org.slf4j.Logger;
@@ -50,9 +52,14 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -137,6 +144,63 @@ public class InstallAndDownloadTest {
         assertTrue(Files.exists(pluginFolderDir.resolve(p3.zipname)));
     }
 
+    @Test
+    public void reinstallFromArtifactCache() throws IOException {
+        assertTrue(updateManager.installPlugin("other", "3.0.0"));
+        assertTrue(updateManager.uninstallPlugin("other"));
+        // e.g. the repository is not reachable anymore
+        Files.delete(downloadRepoDir.resolve(p3.zipname));
+
+        assertTrue(updateManager.installPlugin("other", "3.0.0"));
+        assertTrue(Files.exists(pluginFolderDir.resolve(p3.zipname)));
+    }
+
+    @Test
+    public void installFromSharedCache() throws IOException {
+        SharedCache sharedCache = new SharedCache(Files.createTempDirectory("pf4j-shared-cache"));
+        updateManager.setSharedCache(sharedCache);
+        assertTrue(updateManager.installPlugin("other", "3.0.0"));
+        Files.delete(downloadRepoDir.resolve(p3.zipname));
+
+        // e.g. in another process
+        PluginManager otherPluginManager = new PropertiesPluginManager(Files.createTempDirectory("pf4j-plugins"));
+        otherPluginManager.setSystemVersion(systemVersion);
+        UpdateManager otherUpdateManager = new UpdateManager(otherPluginManager, Collections.singletonList(
+            new DefaultUpdateRepository("local", repoUrl)));
+        otherUpdateManager.setSharedCache(sharedCache);
+
+        assertTrue(otherUpdateManager.installPlugin("other", "3.0.0"));
+    }
+
+    @Test
+    public void downloadCoalescerNotShared() throws IOException {
+        // the verifiers and the staging area differ between update managers
+        PluginManager otherPluginManager = new PropertiesPluginManager(Files.createTempDirectory("pf4j-plugins"));
+        UpdateManager otherUpdateManager = new UpdateManager(otherPluginManager, updateManager.repositories);
+
+        assertNotNull(updateManager.getDownloadCoalescer());
+        assertNotSame(updateManager.getDownloadCoalescer(), otherUpdateManager.getDownloadCoalescer());
+    }
+
+    @Test
+    public void sharedFileDownloaderNotChanged() {
+        SimpleFileDownloader shared = new SimpleFileDownloader();
+        UpdateRepository local = new DefaultUpdateRepository("local", repoUrl) {
+            @Override
+            public FileDownloader getFileDownloader() {
+                return shared;
+            }
+        };
+        updateManager = new UpdateManager(pluginManager, Collections.singletonList(local));
+
+        assertTrue(updateManager.installPlugin("myPlugin", "1.2.3", DownloadPriority.BACKGROUND, new CancellationToken()));
+
+        // configured on a copy, concurrent downloads with the same downloader do not interfere
+        assertNull(shared.getCancellationToken());
+        assertEquals(DownloadPriority.USER, shared.getPriority());
+        assertNull(shared.getRepositoryId());
+    }
+
     @Test
     public void installOldVersion() {
         assertTrue(updateManager.installPlugin("myPlugin", "1.2.3"));
@@ -154,6 +218,115 @@ public class InstallAndDownloadTest {
         assertFalse(Files.exists(pluginFolderDir.resolve(p1.pluginRepoUnzippedFolder)));
     }
 
+    @Test
+    public void updateUnpacksInStagingArea() throws IOException {
+        updateManager = new UpdateManager(pluginManager, updateManager.repositories) {
+
+            @Override
+            protected Path preExtract(Path downloaded) {
+                Path extracted = super.preExtract(downloaded);
+                try {
+                    Files.createFile(extracted.resolve("unpacked-in-staging-area"));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                return extracted;
+            }
+
+        };
+        assertTrue(updateManager.installPlugin("myPlugin", "1.2.3"));
+        assertNull(updateManager.getLastSwapWindow("myPlugin"));
+
+        assertTrue(updateManager.updatePlugin("myPlugin", null));
+
+        assertNotNull(updateManager.getLastSwapWindow("myPlugin"));
+        // not unpacked again by the plugin manager
+        assertTrue(Files.exists(pluginFolderDir.resolve(p2.pluginRepoUnzippedFolder).resolve("unpacked-in-staging-area")));
+        try (Stream<Path> staged = Files.list(updateManager.getStagingArea().getDirectory())) {
+            assertEquals(0, staged.count());
+        }
+    }
+
+    @Test
+    public void updateWithoutPreExtraction() {
+        updateManager.setPreExtract(false);
+        assertTrue(updateManager.installPlugin("myPlugin", "1.2.3"));
+        assertTrue(updateManager.updatePlugin("myPlugin", null));
+        assertTrue(Files.isDirectory(pluginFolderDir.resolve(p2.pluginRepoUnzippedFolder)));
+    }
+
+    @Test
+    public void rollbackWithoutDownload() throws IOException {
+        assertTrue(updateManager.installPlugin("myPlugin", "1.2.3"));
+        assertTrue(updateManager.updatePlugin("myPlugin", null));
+        assertEquals(Collections.singletonList("1.2.3"), updateManager.getRollbackVersions("myPlugin"));
+        // e.g. the repository is not reachable anymore
+        Files.delete(downloadRepoDir.resolve(p1.zipname));
+
+        assertTrue(updateManager.rollbackPlugin("myPlugin"));
+
+        assertEquals("1.2.3", pluginManager.getPlugin("myPlugin").getDescriptor().getVersion());
+        assertTrue(Files.exists(pluginFolderDir.resolve(p1.zipname)));
+        assertFalse(Files.exists(pluginFolderDir.resolve(p2.zipname)));
+        // and forward again
+        assertEquals(Collections.singletonList("2.0.0"), updateManager.getRollbackVersions("myPlugin"));
+        assertTrue(updateManager.rollbackPlugin("myPlugin", "2.0.0"));
+        assertEquals("2.0.0", pluginManager.getPlugin("myPlugin").getDescriptor().getVersion());
+    }
+
+    @Test
+    public void rollbackKeptIfSwapFails() {
+        AtomicBoolean deletable = new AtomicBoolean(true);
+        pluginManager = new PropertiesPluginManager(pluginFolderDir) {
+            @Override
+            public boolean deletePlugin(String pluginId) {
+                return deletable.get() && super.deletePlugin(pluginId);
+            }
+        };
+        pluginManager.setSystemVersion(systemVersion);
+        updateManager = new UpdateManager(pluginManager, updateManager.repositories);
+        assertTrue(updateManager.installPlugin("myPlugin", "1.2.3"));
+        assertTrue(updateManager.updatePlugin("myPlugin", null));
+
+        deletable.set(false);
+        assertFalse(updateManager.rollbackPlugin("myPlugin"));
+        assertEquals("2.0.0", pluginManager.getPlugin("myPlugin").getDescriptor().getVersion());
+        assertTrue(updateManager.getRollbackVersions("myPlugin").contains("1.2.3"));
+
+        deletable.set(true);
+        assertTrue(updateManager.rollbackPlugin("myPlugin", "1.2.3"));
+        assertEquals("1.2.3", pluginManager.getPlugin("myPlugin").getDescriptor().getVersion());
+    }
+
+    @Test
+    public void updateDiscardedIfSwapFails() throws IOException {
+        pluginManager = new PropertiesPluginManager(pluginFolderDir) {
+            @Override
+            public boolean deletePlugin(String pluginId) {
+                return false;
+            }
+        };
+        pluginManager.setSystemVersion(systemVersion);
+        updateManager = new UpdateManager(pluginManager, updateManager.repositories);
+        assertTrue(updateManager.installPlugin("myPlugin", "1.2.3"));
+
+        assertFalse(updateManager.updatePlugin("myPlugin", null));
+
+        assertEquals("1.2.3", pluginManager.getPlugin("myPlugin").getDescriptor().getVersion());
+        // the installed version is not replaced, so not kept for rollback
+        assertTrue(updateManager.getRollbackVersions("myPlugin").isEmpty());
+        // neither the download nor its unpacked copy is left behind
+        try (Stream<Path> staged = Files.list(updateManager.getStagingArea().getDirectory())) {
+            assertEquals(0, staged.count());
+        }
+    }
+
+    @Test(expected = PluginRuntimeException.class)
+    public void rollbackVersionNotKept() {
+        assertTrue(updateManager.installPlugin("myPlugin", "1.2.3"));
+        updateManager.rollbackPlugin("myPlugin");
+    }
+
     @Test(expected = PluginRuntimeException.class)
     public void updateVersionNotExist() {
         assertTrue(updateManager.installPlugin("myPlugin", "1.2.3"));
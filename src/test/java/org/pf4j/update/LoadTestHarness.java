@@ -0,0 +1,348 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update;
+
+import org.pf4j.PluginManager;
+import org.pf4j.update.util.PropertiesPluginManager;
+import org.pf4j.update.util.SyntheticRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end load harness: generates a {@link SyntheticRepository}, serves it from the embedded
+ * {@link WebServer} and runs a number of simulated clients at the same time, each with its own
+ * {@link PluginManager} and {@link UpdateManager}. Every client repeatedly refreshes, checks for
+ * updates and available plugins, installs a plugin at its first release and updates an installed one.
+ * <p>
+ * Run {@link #main(String[])} for realistic numbers, configured with system properties:
+ * {@code load.plugins}, {@code load.releases}, {@code load.artifactSize}, {@code load.clients},
+ * {@code load.iterations} and {@code load.systemVersion}.
+ */
+public class LoadTestHarness {
+
+    private static final Logger log = LoggerFactory.getLogger(LoadTestHarness.class);
+
+    public static final String REFRESH = "refresh";
+    public static final String CHECK = "check";
+    public static final String INSTALL = "install";
+    public static final String UPDATE = "update";
+
+    private SyntheticRepository repository = new SyntheticRepository();
+    private int clients = 4;
+    private int iterations = 3;
+    private String systemVersion = "0.0.0";
+
+    public LoadTestHarness setRepository(SyntheticRepository repository) {
+        this.repository = repository;
+
+        return this;
+    }
+
+    public LoadTestHarness setClients(int clients) {
+        this.clients = clients;
+
+        return this;
+    }
+
+    public LoadTestHarness setIterations(int iterations) {
+        this.iterations = iterations;
+
+        return this;
+    }
+
+    /**
+     * Sets the system version of the clients, to make the {@code requires} distribution
+     * of the repository matter.
+     */
+    public LoadTestHarness setSystemVersion(String systemVersion) {
+        this.systemVersion = systemVersion;
+
+        return this;
+    }
+
+    public Report run() throws Exception {
+        Path repositoryDir = Files.createTempDirectory("pf4j-update-load");
+        repositoryDir.toFile().deleteOnExit();
+        log.info("Generate {} plugins with {} releases into '{}'", repository.getPluginCount(),
+            repository.getReleasesPerPlugin(), repositoryDir);
+        repository.generate(repositoryDir);
+
+        WebServer webServer = new WebServer().setPort(0).setResourceBase(repositoryDir.toString());
+        webServer.start();
+        try {
+            URL url = new URL("http://localhost:" + webServer.getPort() + "/");
+            Report report = new Report();
+            report.catalogHeapBytes = measureCatalogFootprint(url);
+            long bytesBefore = webServer.getBytesServed();
+            int requestsBefore = webServer.getRequests();
+
+            ExecutorService executor = Executors.newFixedThreadPool(clients);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                Client client = new Client(i, url, report);
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    client.run();
+                    return null;
+                }));
+            }
+
+            long startTime = System.nanoTime();
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            report.elapsedNanos = System.nanoTime() - startTime;
+            executor.shutdown();
+
+            report.clients = clients;
+            report.bytesServed = webServer.getBytesServed() - bytesBefore;
+            report.requests = webServer.getRequests() - requestsBefore;
+
+            return report;
+        } finally {
+            webServer.shutdown();
+        }
+    }
+
+    /**
+     * Estimates the retained heap of one parsed catalog, as difference of used heap after full GCs.
+     */
+    private long measureCatalogFootprint(URL url) {
+        long before = usedHeap();
+        DefaultUpdateRepository catalog = new DefaultUpdateRepository("footprint", url);
+        int size = catalog.getPlugins().size();
+        long after = usedHeap();
+        log.debug("Loaded {} plugins for footprint measurement", size);
+        // keep the catalog reachable until measured
+        if (catalog.getPlugins().isEmpty() && size > 0) {
+            throw new IllegalStateException();
+        }
+
+        return Math.max(0, after - before);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private class Client {
+
+        private final int index;
+        private final URL url;
+        private final Report report;
+        private final Random random;
+
+        Client(int index, URL url, Report report) {
+            this.index = index;
+            this.url = url;
+            this.report = report;
+            this.random = new Random(index);
+        }
+
+        void run() throws IOException {
+            Path pluginsRoot = Files.createTempDirectory("pf4j-update-load-client");
+            pluginsRoot.toFile().deleteOnExit();
+            PluginManager pluginManager = new PropertiesPluginManager(pluginsRoot);
+            pluginManager.setSystemVersion(systemVersion);
+            UpdateManager updateManager = new UpdateManager(pluginManager, (Path) null);
+            List<UpdateRepository> repositories = new ArrayList<>();
+            repositories.add(new DefaultUpdateRepository("load", url));
+            updateManager.setRepositories(repositories);
+
+            for (int i = 0; i < iterations; i++) {
+                report.measure(REFRESH, () -> {
+                    updateManager.refresh();
+                    return updateManager.getPlugins();
+                });
+                List<PluginInfo> available = report.measure(CHECK, () -> {
+                    updateManager.getUpdates();
+                    return updateManager.getAvailablePlugins();
+                });
+
+                if (available != null && !available.isEmpty()) {
+                    PluginInfo plugin = available.get(random.nextInt(available.size()));
+                    String version = plugin.releases.get(0).version;
+                    report.measure(INSTALL, () -> updateManager.installPlugin(plugin.id, version));
+                }
+
+                List<PluginInfo> updates = updateManager.getUpdates();
+                if (!updates.isEmpty()) {
+                    PluginInfo plugin = updates.get(random.nextInt(updates.size()));
+                    report.measure(UPDATE, () -> updateManager.updatePlugin(plugin.id, null));
+                }
+            }
+            log.debug("Client {} done with {} plugins installed", index, pluginManager.getPlugins().size());
+        }
+
+    }
+
+    interface Operation<T> {
+
+        T execute() throws Exception;
+
+    }
+
+    /**
+     * The outcome of a run.
+     */
+    public static class Report {
+
+        private final Map<String, List<Long>> latencies = new LinkedHashMap<>();
+        private final Map<String, Integer> errors = new LinkedHashMap<>();
+
+        int clients;
+        long elapsedNanos;
+        long catalogHeapBytes;
+        long bytesServed;
+        int requests;
+
+        <T> T measure(String operation, Operation<T> body) {
+            long start = System.nanoTime();
+            try {
+                T result = body.execute();
+                record(operation, System.nanoTime() - start);
+
+                return result;
+            } catch (Exception e) {
+                log.warn("Operation {} failed: {}", operation, e.getMessage());
+                synchronized (this) {
+                    errors.merge(operation, 1, Integer::sum);
+                }
+
+                return null;
+            }
+        }
+
+        private synchronized void record(String operation, long nanos) {
+            latencies.computeIfAbsent(operation, k -> new ArrayList<>()).add(nanos);
+        }
+
+        public synchronized int getCount(String operation) {
+            List<Long> values = latencies.get(operation);
+
+            return values != null ? values.size() : 0;
+        }
+
+        public synchronized int getErrors() {
+            int total = 0;
+            for (int count : errors.values()) {
+                total += count;
+            }
+
+            return total;
+        }
+
+        /**
+         * @param operation the operation name
+         * @param percentile between 0 and 100
+         * @return the latency percentile in milliseconds, or -1 if the operation never ran
+         */
+        public synchronized double getLatencyMillis(String operation, double percentile) {
+            List<Long> values = latencies.get(operation);
+            if (values == null || values.isEmpty()) {
+                return -1;
+            }
+
+            List<Long> sorted = new ArrayList<>(values);
+            Collections.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100 * sorted.size()) - 1;
+
+            return sorted.get(Math.max(0, index)) / 1_000_000.0;
+        }
+
+        public synchronized double getThroughput() {
+            int operations = 0;
+            for (List<Long> values : latencies.values()) {
+                operations += values.size();
+            }
+
+            return operations / (elapsedNanos / 1_000_000_000.0);
+        }
+
+        public long getCatalogHeapBytes() {
+            return catalogHeapBytes;
+        }
+
+        public long getBytesServed() {
+            return bytesServed;
+        }
+
+        public int getRequests() {
+            return requests;
+        }
+
+        @Override
+        public synchronized String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("clients=%d elapsed=%dms throughput=%.1f ops/s%n", clients,
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos), getThroughput()));
+            for (String operation : latencies.keySet()) {
+                sb.append(String.format("  %-8s count=%-5d errors=%-3d p50=%8.2fms p99=%8.2fms%n", operation,
+                    getCount(operation), errors.getOrDefault(operation, 0),
+                    getLatencyMillis(operation, 50), getLatencyMillis(operation, 99)));
+            }
+            sb.append(String.format("catalog heap=%d KB, served %d requests, %d KB", catalogHeapBytes / 1024,
+                requests, bytesServed / 1024));
+
+            return sb.toString();
+        }
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        SyntheticRepository repository = new SyntheticRepository()
+            .setPluginCount(Integer.getInteger("load.plugins", 1000))
+            .setReleasesPerPlugin(Integer.getInteger("load.releases", 3))
+            .setArtifactSize(Integer.getInteger("load.artifactSize", 256 * 1024));
+        Map<String, Integer> requires = new LinkedHashMap<>();
+        requires.put("", 2);
+        requires.put(">=1.0.0", 2);
+        requires.put(">=2.0.0", 1);
+        repository.setRequiresDistribution(requires);
+
+        Report report = new LoadTestHarness()
+            .setRepository(repository)
+            .setClients(Integer.getInteger("load.clients", 16))
+            .setIterations(Integer.getInteger("load.iterations", 10))
+            .setSystemVersion(System.getProperty("load.systemVersion", "1.5.0"))
+            .run();
+        System.out.println(report);
+    }
+
+}
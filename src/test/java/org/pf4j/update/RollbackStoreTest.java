@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pf4j.util.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RollbackStoreTest {
+
+    private Path pluginsRoot;
+    private RollbackStore rollbackStore;
+
+    @Before
+    public void setup() throws IOException {
+        pluginsRoot = Files.createTempDirectory("pf4j-plugins");
+        rollbackStore = RollbackStore.forPluginsRoot(pluginsRoot);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        FileUtils.delete(pluginsRoot);
+    }
+
+    @Test
+    public void keepAndRestore() throws IOException {
+        Path artifact = Files.write(pluginsRoot.resolve("plugin-1.0.0.zip"), new byte[] { 1, 2, 3 });
+        assertTrue(rollbackStore.keep("plugin", "1.0.0", artifact, null));
+        // the installed artifact is left in place
+        assertTrue(Files.exists(artifact));
+        Files.delete(artifact);
+
+        Path directory = Files.createDirectory(pluginsRoot.resolve("restore"));
+        Path restored = rollbackStore.restore("plugin", null, directory);
+
+        assertEquals(directory.resolve("plugin-1.0.0.zip"), restored);
+        assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(restored));
+        // until the restored artifact is installed
+        assertEquals(Collections.singletonList("1.0.0"), rollbackStore.getVersions("plugin"));
+
+        assertTrue(rollbackStore.remove("plugin", "1.0.0"));
+        assertEquals(Collections.emptyList(), rollbackStore.getVersions("plugin"));
+        assertEquals(0, countArtifacts());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(restored));
+    }
+
+    @Test
+    public void notKeptIfChecksumDiffers() throws IOException {
+        Path artifact = Files.write(pluginsRoot.resolve("plugin-1.0.0.zip"), new byte[] { 1, 2, 3 });
+
+        assertFalse(rollbackStore.keep("plugin", "1.0.0", artifact, DigestUtils.sha512Hex(new byte[] { 4, 5, 6 })));
+        assertTrue(rollbackStore.keep("plugin", "1.0.0", artifact, DigestUtils.sha512Hex(new byte[] { 1, 2, 3 })));
+    }
+
+    @Test
+    public void identicalArtifactsStoredOnce() throws IOException {
+        Path artifact = Files.write(pluginsRoot.resolve("plugin.zip"), new byte[] { 1, 2, 3 });
+        rollbackStore.keep("plugin", "1.0.0", artifact, null);
+        rollbackStore.keep("plugin", "1.0.1", artifact, null);
+        rollbackStore.keep("other", "2.0.0", artifact, null);
+        assertEquals(1, countArtifacts());
+
+        // still kept for the other versions
+        Path restored = rollbackStore.restore("plugin", "1.0.0", Files.createDirectory(pluginsRoot.resolve("restore")));
+        assertTrue(rollbackStore.remove("plugin", "1.0.0"));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(restored));
+        assertEquals(1, countArtifacts());
+    }
+
+    @Test
+    public void keepsLastVersions() throws IOException {
+        rollbackStore.setMaxVersions(2);
+        for (int i = 1; i <= 3; i++) {
+            Path artifact = Files.write(pluginsRoot.resolve("plugin-" + i + ".zip"), new byte[] { (byte) i });
+            rollbackStore.keep("plugin", i + ".0.0", artifact, null);
+        }
+
+        assertEquals(Arrays.asList("3.0.0", "2.0.0"), rollbackStore.getVersions("plugin"));
+        assertEquals(2, countArtifacts());
+        assertNull(rollbackStore.restore("plugin", "1.0.0", pluginsRoot));
+    }
+
+    @Test
+    public void indexSurvivesRestart() throws IOException {
+        Path artifact = Files.write(pluginsRoot.resolve("plugin-1.0.0.zip"), new byte[] { 1, 2, 3 });
+        rollbackStore.keep("plugin", "1.0.0", artifact, null);
+
+        rollbackStore = RollbackStore.forPluginsRoot(pluginsRoot);
+
+        assertEquals(Collections.singletonList("1.0.0"), rollbackStore.getVersions("plugin"));
+    }
+
+    private long countArtifacts() throws IOException {
+        try (Stream<Path> artifacts = Files.list(rollbackStore.getDirectory().resolve("artifacts"))) {
+            return artifacts.count();
+        }
+    }
+
+}
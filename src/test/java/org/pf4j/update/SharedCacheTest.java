@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pf4j.util.FileUtils;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SharedCacheTest {
+
+    private Path directory;
+    private URL url;
+    private AtomicInteger fetches;
+
+    @Before
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("pf4j-shared-cache");
+        url = new URL("http://example.com/repo/plugins.json");
+        fetches = new AtomicInteger();
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        FileUtils.delete(directory);
+    }
+
+    @Test
+    public void metadataFetchedOnce() throws Exception {
+        // one cache per process
+        List<SharedCache> caches = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            caches.add(new SharedCache(directory));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(caches.size());
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (SharedCache cache : caches) {
+                results.add(executor.submit(() -> cache.getMetadata(url, this::fetch)));
+            }
+            for (Future<byte[]> result : results) {
+                assertArrayEquals("[]".getBytes(StandardCharsets.UTF_8), result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1, fetches.get());
+    }
+
+    @Test
+    public void metadataFetchedAgainWhenOld() throws IOException {
+        SharedCache cache = new SharedCache(directory);
+        cache.setMetadataMaxAge(0);
+
+        cache.getMetadata(url, this::fetch);
+        cache.getMetadata(url, this::fetch);
+
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    public void failedFetchIsNotShared() throws IOException {
+        SharedCache cache = new SharedCache(directory);
+        try {
+            cache.getMetadata(url, u -> {
+                throw new IOException("unavailable");
+            });
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+
+        assertArrayEquals("[]".getBytes(StandardCharsets.UTF_8), new SharedCache(directory).getMetadata(url, this::fetch));
+    }
+
+    private byte[] fetch(URL url) throws IOException {
+        fetches.incrementAndGet();
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+
+        return "[]".getBytes(StandardCharsets.UTF_8);
+    }
+
+}
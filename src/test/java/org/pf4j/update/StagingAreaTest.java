@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pf4j.util.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StagingAreaTest {
+
+    private Path pluginsRoot;
+    private StagingArea stagingArea;
+
+    @Before
+    public void setup() throws IOException {
+        pluginsRoot = Files.createTempDirectory("pf4j-plugins");
+        stagingArea = StagingArea.forPluginsRoot(pluginsRoot);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        FileUtils.delete(pluginsRoot);
+    }
+
+    @Test
+    public void commitRenamesIntoPluginsRoot() throws IOException {
+        Path dir = stagingArea.createDirectory("download-");
+        assertTrue(dir.startsWith(pluginsRoot));
+        Path staged = Files.write(dir.resolve("plugin.zip"), new byte[] { 1, 2, 3 });
+
+        Path target = stagingArea.commit(staged, pluginsRoot.resolve("plugin.zip"));
+        stagingArea.release(staged);
+
+        assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(target));
+        assertFalse(Files.exists(dir));
+    }
+
+    @Test
+    public void evictOld() throws IOException {
+        stagingArea.setMaxAge(TimeUnit.HOURS.toMillis(1));
+        Path old = stagingArea.createDirectory("download-");
+        Files.write(old.resolve("plugin.zip"), new byte[10]);
+        Files.setLastModifiedTime(old, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2)));
+
+        // still in use
+        stagingArea.evict();
+        assertTrue(Files.exists(old));
+
+        // e.g. left behind by a crashed process
+        Path leftOver = createLeftOver("download-left-over", 10);
+        Files.setLastModifiedTime(leftOver, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2)));
+        Path recent = createLeftOver("download-recent", 10);
+        stagingArea.evict();
+        assertFalse(Files.exists(leftOver));
+        assertTrue(Files.exists(recent));
+        assertTrue(Files.exists(old));
+    }
+
+    @Test
+    public void inUseByOtherStagingAreaNotEvicted() throws IOException {
+        Path old = stagingArea.createDirectory("download-");
+        Files.setLastModifiedTime(old, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(48)));
+
+        // e.g. of another update manager or process with the same plugins folder
+        StagingArea other = StagingArea.forPluginsRoot(pluginsRoot);
+        other.evict();
+        assertTrue(Files.exists(old));
+
+        stagingArea.release(old);
+        assertFalse(Files.exists(old));
+        other.createDirectory("download-");
+        assertEquals(1, count(stagingArea.getDirectory()));
+    }
+
+    @Test
+    public void evictOldestAboveMaxSize() throws IOException {
+        Path first = createLeftOver("download-first", 600);
+        Files.setLastModifiedTime(first, FileTime.fromMillis(System.currentTimeMillis() - 2000));
+        Path second = createLeftOver("download-second", 600);
+
+        stagingArea.setMaxSize(1000);
+        stagingArea.evict();
+
+        assertFalse(Files.exists(first));
+        assertTrue(Files.exists(second));
+        assertEquals(1, count(stagingArea.getDirectory()));
+    }
+
+    // a subdirectory not in use by any staging area
+    private Path createLeftOver(String name, int size) throws IOException {
+        Path dir = Files.createDirectories(stagingArea.getDirectory().resolve(name));
+        Files.write(dir.resolve("plugin.zip"), new byte[size]);
+
+        return dir;
+    }
+
+    private static long count(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+}
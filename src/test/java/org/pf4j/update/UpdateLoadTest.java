@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update;
+
+import org.junit.Test;
+import org.pf4j.update.util.SyntheticRepository;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the {@link LoadTestHarness} at a small scale, to keep it working.
+ */
+public class UpdateLoadTest {
+
+    @Test
+    public void concurrentClients() throws Exception {
+        Map<String, Integer> requires = new LinkedHashMap<>();
+        requires.put("", 3);
+        requires.put(">=2.0.0", 1);
+        SyntheticRepository repository = new SyntheticRepository()
+            .setPluginCount(20)
+            .setReleasesPerPlugin(2)
+            .setArtifactSize(16 * 1024)
+            .setRequiresDistribution(requires);
+
+        LoadTestHarness.Report report = new LoadTestHarness()
+            .setRepository(repository)
+            .setClients(4)
+            .setIterations(3)
+            .setSystemVersion("1.5.0")
+            .run();
+
+        assertEquals(report.toString(), 0, report.getErrors());
+        assertEquals(12, report.getCount(LoadTestHarness.REFRESH));
+        assertEquals(12, report.getCount(LoadTestHarness.CHECK));
+        assertEquals(12, report.getCount(LoadTestHarness.INSTALL));
+        assertTrue(report.getLatencyMillis(LoadTestHarness.INSTALL, 99) >= report.getLatencyMillis(LoadTestHarness.INSTALL, 50));
+        // at least one artifact per install went over the wire
+        assertTrue(report.getBytesServed() > 12 * 16 * 1024);
+        assertTrue(report.getThroughput() > 0);
+    }
+
+}
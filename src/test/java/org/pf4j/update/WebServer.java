@@ -17,9 +17,11 @@ package org.pf4j.update;
 
 import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.DefaultHandler;
 import org.eclipse.jetty.server.handler.HandlerList;
 import org.eclipse.jetty.server.handler.ResourceHandler;
+import org.eclipse.jetty.server.handler.StatisticsHandler;
 
 /**
  * @author Decebal Suiu
@@ -32,11 +34,16 @@ public class WebServer {
     private int port = DEFAULT_PORT;
     private String resourceBase = DEFAULT_RESOURCE_BASE;
     private Server server;
+    private StatisticsHandler statistics;
 
     public int getPort() {
         return port;
     }
 
+    /**
+     * Sets the port to listen on. Use {@code 0} for any free port,
+     * {@link #getPort()} returns the actual port once started.
+     */
     public WebServer setPort(int port) {
         this.port = port;
 
@@ -57,15 +64,40 @@ public class WebServer {
         server = new Server(port);
         server.setStopAtShutdown(true);
 
+        statistics = new StatisticsHandler();
+        statistics.setHandler(createHandler());
+        server.setHandler(statistics);
+
+        server.start();
+        port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+    }
+
+    /**
+     * Creates the handler that serves the requests. By default the files of the resource base.
+     */
+    protected Handler createHandler() {
         ResourceHandler resourceHandler = new ResourceHandler();
         resourceHandler.setResourceBase(resourceBase);
         resourceHandler.setDirectoriesListed(true);
 
         HandlerList handlers = new HandlerList();
         handlers.setHandlers(new Handler[] { resourceHandler, new DefaultHandler() });
-        server.setHandler(handlers);
 
-        server.start();
+        return handlers;
+    }
+
+    /**
+     * @return the number of response bytes served since start
+     */
+    public long getBytesServed() {
+        return statistics != null ? statistics.getResponsesBytesTotal() : 0;
+    }
+
+    /**
+     * @return the number of requests handled since start
+     */
+    public int getRequests() {
+        return statistics != null ? statistics.getRequests() : 0;
     }
 
     public void shutdown() {
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.downloader;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdaptiveConcurrencyLimitTest {
+
+    private static final long MB = 1024 * 1024;
+    private static final long SECOND = 1_000_000_000L;
+
+    private final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 8);
+
+    @Test
+    public void growsWhileSaturated() {
+        assertEquals(2, limit.getLimit("host"));
+
+        // each transfer keeps its throughput, so the aggregate grows with the concurrency
+        for (int i = 0; i < 200; i++) {
+            int concurrency = limit.getLimit("host");
+            limit.onSuccess("host", MB, SECOND, concurrency);
+        }
+
+        assertEquals(8, limit.getLimit("HOST"));
+        assertEquals(Collections.singletonMap("host", 8), limit.getLimits());
+    }
+
+    @Test
+    public void doesNotGrowIfUnused() {
+        for (int i = 0; i < 200; i++) {
+            limit.onSuccess("host", MB, SECOND, 1);
+        }
+
+        assertEquals(2, limit.getLimit("host"));
+    }
+
+    @Test
+    public void failureHalvesLimit() {
+        for (int i = 0; i < 200; i++) {
+            limit.onSuccess("host", MB, SECOND, limit.getLimit("host"));
+        }
+
+        limit.onFailure("host");
+        assertEquals(4, limit.getLimit("host"));
+        limit.onFailure("host");
+        limit.onFailure("host");
+        limit.onFailure("host");
+        assertEquals(1, limit.getLimit("host"));
+        assertEquals(2, limit.getLimit("other"));
+    }
+
+    @Test
+    public void throughputDropShrinksLimit() {
+        for (int i = 0; i < 200; i++) {
+            limit.onSuccess("host", MB, SECOND, limit.getLimit("host"));
+        }
+
+        // the link is saturated: more transfers share the same aggregate throughput, now halved
+        limit.onSuccess("host", MB, 16 * SECOND, 8);
+
+        assertEquals(7, limit.getLimit("host"));
+    }
+
+    @Test
+    public void smallTransfersOnlyCountAsSuccess() {
+        for (int i = 0; i < 200; i++) {
+            limit.onSuccess("host", 1024, SECOND, limit.getLimit("host"));
+        }
+        limit.onSuccess("host", 1024, 1000 * SECOND, limit.getLimit("host"));
+
+        assertEquals(8, limit.getLimit("host"));
+    }
+
+    @Test
+    public void schedulerUsesAdaptiveLimit() {
+        DownloadScheduler scheduler = new DownloadScheduler().setHostLimit("host", 4);
+        assertEquals(AdaptiveConcurrencyLimit.DEFAULT_INITIAL_LIMIT, scheduler.getHostLimit("host"));
+
+        scheduler.setAdaptiveLimit(null);
+        assertEquals(4, scheduler.getHostLimit("host"));
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.downloader;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BandwidthLimiterTest {
+
+    private BandwidthLimiter limiter;
+    private URL url;
+
+    @Before
+    public void setup() throws Exception {
+        limiter = new BandwidthLimiter();
+        url = new URL("http://example.com/repo/plugin.zip");
+    }
+
+    @Test
+    public void noLimitDoesNotWrap() {
+        InputStream in = new ByteArrayInputStream(new byte[10]);
+        assertSame(in, limiter.throttle(in, "repo", url));
+    }
+
+    @Test
+    public void globalLimit() throws IOException {
+        limiter.setGlobalLimit(64 * 1024);
+
+        assertEquals(500, readAll(limiter.throttle(new ByteArrayInputStream(new byte[32 * 1024]), "repo", url)), 150);
+    }
+
+    @Test
+    public void mostRestrictiveLimitWins() throws IOException {
+        limiter.setGlobalLimit(1024 * 1024);
+        limiter.setRepositoryLimit("repo", 512 * 1024);
+        limiter.setHostLimit("EXAMPLE.com", 64 * 1024);
+
+        assertEquals(500, readAll(limiter.throttle(new ByteArrayInputStream(new byte[32 * 1024]), "repo", url)), 150);
+    }
+
+    @Test
+    public void limitOfOtherHostDoesNotApply() throws IOException {
+        limiter.setHostLimit("other.com", 1024);
+
+        assertTrue(readAll(limiter.throttle(new ByteArrayInputStream(new byte[32 * 1024]), "repo", url)) < 100);
+    }
+
+    @Test
+    public void limitCanBeRemovedDuringTransfer() throws IOException {
+        limiter.setRepositoryLimit("repo", 1024);
+        InputStream in = limiter.throttle(new ByteArrayInputStream(new byte[32 * 1024]), "repo", url);
+        assertTrue(in.read(new byte[512]) > 0);
+        limiter.setRepositoryLimit("repo", 0);
+
+        assertTrue(readAll(in) < 100);
+    }
+
+    @Test
+    public void offPeakWindow() {
+        limiter.setOffPeakWindow(LocalTime.of(22, 0), LocalTime.of(6, 0), 1024 * 1024);
+
+        limiter.setClock(clockAt(12, 0));
+        assertEquals(Duration.ofHours(10), limiter.getTransferDelay(10 * 1024 * 1024));
+        // small and unknown sizes are never deferred
+        assertEquals(Duration.ZERO, limiter.getTransferDelay(1024));
+        assertEquals(Duration.ZERO, limiter.getTransferDelay(-1));
+
+        limiter.setClock(clockAt(23, 0));
+        assertEquals(Duration.ZERO, limiter.getTransferDelay(10 * 1024 * 1024));
+        limiter.setClock(clockAt(5, 59));
+        assertEquals(Duration.ZERO, limiter.getTransferDelay(10 * 1024 * 1024));
+        limiter.setClock(clockAt(6, 0));
+        assertEquals(Duration.ofHours(16), limiter.getTransferDelay(10 * 1024 * 1024));
+    }
+
+    private static Clock clockAt(int hour, int minute) {
+        LocalDateTime time = LocalDateTime.of(2020, 1, 1, hour, minute);
+
+        return Clock.fixed(time.toInstant(ZoneOffset.UTC), ZoneOffset.UTC);
+    }
+
+    private static long readAll(InputStream in) throws IOException {
+        long start = System.nanoTime();
+        byte[] buffer = new byte[1024];
+        while (in.read(buffer) >= 0) {
+            // drain
+        }
+
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+}
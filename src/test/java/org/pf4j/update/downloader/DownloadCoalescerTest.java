@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.downloader;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DownloadCoalescerTest {
+
+    private static final int CALLERS = 4;
+
+    private final DownloadCoalescer coalescer = new DownloadCoalescer();
+    private final AtomicInteger downloads = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Test
+    public void aloneGetsDownloadedFile() throws IOException {
+        release.countDown();
+        Path file = coalescer.download("key", this::download);
+
+        assertEquals(1, downloads.get());
+        assertTrue(Files.exists(file));
+        assertEquals(0, coalescer.getInFlightCount());
+    }
+
+    @Test
+    public void concurrentCallersShareOneDownload() throws Exception {
+        List<Future<Path>> futures = startCallers();
+        release.countDown();
+
+        List<Path> files = new ArrayList<>();
+        for (Future<Path> future : futures) {
+            files.add(future.get());
+        }
+
+        assertEquals(1, downloads.get());
+        assertEquals(CALLERS, new HashSet<>(files).size());
+        for (Path file : files) {
+            assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(file));
+        }
+        // each caller owns its file
+        Files.delete(files.get(0));
+        assertTrue(Files.exists(files.get(1)));
+        assertEquals(0, coalescer.getInFlightCount());
+    }
+
+    @Test
+    public void failureIsReportedToEveryCaller() throws Exception {
+        downloads.set(-100);
+        List<Future<Path>> futures = startCallers();
+        release.countDown();
+
+        for (Future<Path> future : futures) {
+            try {
+                future.get();
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+        assertEquals(-99, downloads.get());
+    }
+
+    @Test
+    public void laterCallerDownloadsAgain() throws IOException {
+        release.countDown();
+        Path first = coalescer.download("key", this::download);
+        Path second = coalescer.download("key", this::download);
+
+        assertEquals(2, downloads.get());
+        assertFalse(first.equals(second));
+    }
+
+    private List<Future<Path>> startCallers() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        List<Future<Path>> futures = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            futures.add(executor.submit(() -> coalescer.download("key", this::download)));
+        }
+        executor.shutdown();
+        // give all callers the time to join the flight
+        while (coalescer.getInFlightCount() == 0) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+
+        return futures;
+    }
+
+    private Path download() throws IOException {
+        if (downloads.incrementAndGet() < 0) {
+            await();
+            throw new IOException("Download failed");
+        }
+        await();
+
+        Path file = Files.createTempDirectory("pf4j-update-test").resolve("plugin.zip");
+        return Files.write(file, new byte[] { 1, 2, 3 });
+    }
+
+    private void await() throws IOException {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.downloader;
+
+import org.junit.Test;
+import org.pf4j.update.downloader.DownloadScheduler.Permit;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+public class DownloadSchedulerTest {
+
+    private final DownloadScheduler scheduler = new DownloadScheduler();
+    private final List<String> order = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void globalAndHostLimits() throws Exception {
+        scheduler.setGlobalLimit(3).setHostLimit("mirror.example.com", 1);
+
+        Permit first = scheduler.acquire(DownloadPriority.USER, "repo", "mirror.example.com");
+        queue("second", DownloadPriority.USER, "repo", "MIRROR.example.com");
+        Permit other = scheduler.acquire(DownloadPriority.USER, "repo", "other.example.com");
+        assertEquals(2, scheduler.getActiveCount());
+        assertEquals(1, scheduler.getActiveCount("mirror.example.com"));
+        assertEquals(1, scheduler.getQueuedCount());
+
+        first.close();
+        first.close();
+        awaitOrder(1);
+        other.close();
+        assertEquals(0, scheduler.getActiveCount());
+    }
+
+    @Test
+    public void higherPriorityFirst() throws Exception {
+        scheduler.setGlobalLimit(1);
+        Permit permit = scheduler.acquire(DownloadPriority.USER, "repo", "host");
+        queue("background", DownloadPriority.BACKGROUND, "repo", "host");
+        queue("user", DownloadPriority.USER, "repo", "host");
+        queue("security", DownloadPriority.SECURITY, "repo", "host");
+
+        permit.close();
+
+        awaitOrder(3);
+        assertEquals(Arrays.asList("security", "user", "background"), order);
+    }
+
+    @Test
+    public void roundRobinAcrossRepositories() throws Exception {
+        scheduler.setGlobalLimit(1);
+        Permit permit = scheduler.acquire(DownloadPriority.USER, "a", "host");
+        queue("a1", DownloadPriority.USER, "a", "host");
+        queue("a2", DownloadPriority.USER, "a", "host");
+        queue("a3", DownloadPriority.USER, "a", "host");
+        queue("b1", DownloadPriority.USER, "b", "host");
+
+        permit.close();
+
+        awaitOrder(4);
+        assertEquals(Arrays.asList("a1", "b1", "a2", "a3"), order);
+    }
+
+    @Test
+    public void busyHostDoesNotBlockOthers() throws Exception {
+        scheduler.setGlobalLimit(2).setDefaultHostLimit(1).setReservedPermits(0);
+        Permit permit = scheduler.acquire(DownloadPriority.USER, "repo", "busy");
+        queue("busy", DownloadPriority.SECURITY, "repo", "busy");
+
+        Permit other = scheduler.acquire(DownloadPriority.BACKGROUND, "repo", "idle");
+
+        assertEquals(2, scheduler.getActiveCount());
+        other.close();
+        permit.close();
+        awaitOrder(1);
+    }
+
+    @Test
+    public void backgroundLeavesReservedPermits() throws Exception {
+        scheduler.setGlobalLimit(3).setReservedPermits(2);
+        Permit background = scheduler.acquire(DownloadPriority.BACKGROUND, "repo", "a");
+        queue("background", DownloadPriority.BACKGROUND, "repo", "b");
+
+        Permit user = scheduler.acquire(DownloadPriority.USER, "repo", "c");
+        assertEquals(2, scheduler.getActiveCount());
+        assertEquals(1, scheduler.getQueuedCount());
+
+        background.close();
+        // the user download still holds one of the reserved permits
+        assertEquals(1, scheduler.getQueuedCount());
+        user.close();
+        awaitOrder(1);
+    }
+
+    @Test(timeout = 5000)
+    public void backgroundLeavesHostPermit() throws Exception {
+        scheduler.setDefaultHostLimit(2).setAdaptiveLimit(null);
+        Permit background = scheduler.acquire(DownloadPriority.BACKGROUND, "repo", "host");
+        queue("background", DownloadPriority.BACKGROUND, "repo", "host");
+
+        // not behind the background downloads of the same host
+        Permit security = scheduler.acquire(DownloadPriority.SECURITY, "repo", "host");
+        assertEquals(2, scheduler.getActiveCount("host"));
+        assertEquals(1, scheduler.getQueuedCount());
+
+        security.close();
+        background.close();
+        awaitOrder(1);
+    }
+
+    // acquires a permit on another thread, records the name when granted and releases the permit
+    private void queue(String name, DownloadPriority priority, String repositoryId, String host) throws InterruptedException {
+        int queued = scheduler.getQueuedCount();
+        Thread thread = new Thread(() -> {
+            try (Permit permit = scheduler.acquire(priority, repositoryId, host)) {
+                order.add(name);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        while (scheduler.getQueuedCount() == queued) {
+            Thread.sleep(5);
+        }
+    }
+
+    private void awaitOrder(int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (order.size() < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(size, order.size());
+    }
+
+}
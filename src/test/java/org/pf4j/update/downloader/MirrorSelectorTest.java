@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.downloader;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pf4j.update.downloader.MirrorSelector.Mirror;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MirrorSelectorTest {
+
+    private URL primary;
+    private URL mirror;
+    private MirrorSelector selector;
+    // latency in milliseconds per host, negative to fail
+    private final Map<String, Long> latencies = new ConcurrentHashMap<>();
+    private final List<URL> requested = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setup() throws Exception {
+        primary = new URL("http://primary.example.com/repo/");
+        mirror = new URL("http://mirror.example.com/");
+        selector = new MirrorSelector(primary, mirror);
+        latencies.put("primary.example.com", 0L);
+        latencies.put("mirror.example.com", 0L);
+    }
+
+    @Test
+    public void resolve() throws Exception {
+        Mirror second = selector.getMirrors().get(1);
+
+        assertEquals(new URL("http://mirror.example.com/plugin/1.0/plugin.zip"),
+            selector.resolve(new URL(primary, "plugin/1.0/plugin.zip"), second));
+        assertNull(selector.resolve(new URL("http://other.example.com/plugin.zip"), second));
+    }
+
+    @Test
+    public void urlOutsideOfPrimaryIsRequestedAsIs() throws Exception {
+        URL url = new URL("http://other.example.com/plugin.zip");
+
+        assertEquals(url, selector.execute(url, this::send));
+    }
+
+    @Test
+    public void failsOver() throws Exception {
+        latencies.put("primary.example.com", -1L);
+
+        URL result = selector.execute(new URL(primary, "plugins.json"), this::send);
+
+        assertEquals(new URL(mirror, "plugins.json"), result);
+        assertEquals(2, requested.size());
+        // the failed primary is not asked first anymore
+        assertEquals(mirror, selector.getRankedMirrors().get(0).getUrl());
+    }
+
+    @Test(expected = IOException.class)
+    public void failsIfAllMirrorsFail() throws Exception {
+        latencies.put("primary.example.com", -1L);
+        latencies.put("mirror.example.com", -1L);
+
+        selector.execute(new URL(primary, "plugins.json"), this::send);
+    }
+
+    @Test
+    public void prefersFasterMirror() throws Exception {
+        latencies.put("primary.example.com", 50L);
+        for (int i = 0; i < 5; i++) {
+            selector.execute(new URL(primary, "plugins.json"), this::send);
+        }
+
+        assertEquals(mirror, selector.getRankedMirrors().get(0).getUrl());
+        assertTrue(requested.stream().filter(url -> url.getHost().equals("mirror.example.com")).count() >= 4);
+    }
+
+    @Test
+    public void hedgedRequestCutsTailLatency() throws Exception {
+        selector.setHedging(true).setHedgeDelay(100);
+        latencies.put("primary.example.com", 2000L);
+        List<URL> discarded = new CopyOnWriteArrayList<>();
+
+        long start = System.nanoTime();
+        URL result = selector.execute(new URL(primary, "plugins.json"), this::send, discarded::add);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(new URL(mirror, "plugins.json"), result);
+        assertTrue("took " + millis + " ms", millis < 1000);
+        assertEquals(2, requested.size());
+    }
+
+    @Test
+    public void hedgeDelayFollowsLatencyPercentile() {
+        Mirror first = selector.getMirrors().get(0);
+        for (int i = 1; i <= 100; i++) {
+            first.recordSuccess(i);
+        }
+
+        assertEquals(95, first.getLatencyPercentile(95));
+        assertEquals(100, first.getLatencyPercentile(100));
+    }
+
+    private URL send(URL url) throws IOException {
+        requested.add(url);
+        long latency = latencies.getOrDefault(url.getHost(), 0L);
+        if (latency < 0) {
+            throw new IOException("Cannot connect to " + url.getHost());
+        }
+        try {
+            Thread.sleep(latency);
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted");
+        }
+
+        return url;
+    }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.downloader;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class TokenBucketTest {
+
+    private long now;
+
+    @Test
+    public void debtIsPaidBackAtRate() {
+        TokenBucket bucket = new TokenBucket(1000, () -> now);
+
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500), bucket.reserve(500));
+        now += TimeUnit.MILLISECONDS.toNanos(500);
+        assertEquals(0, bucket.reserve(0));
+    }
+
+    @Test
+    public void refillsAfterLongIdleTime() {
+        long rate = 100 * 1024 * 1024;
+        TokenBucket bucket = new TokenBucket(rate, () -> now);
+        bucket.reserve(rate);
+
+        // (elapsed * rate) overflows a long after about 92 s at 100 MB/s
+        now += TimeUnit.SECONDS.toNanos(1000);
+
+        assertEquals(0, bucket.reserve(rate));
+        now += TimeUnit.SECONDS.toNanos(1);
+        assertEquals(0, bucket.reserve(rate));
+    }
+
+}
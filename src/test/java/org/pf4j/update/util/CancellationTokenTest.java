@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.util;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CancellationTokenTest {
+
+    @Test
+    public void cancelRunsCallbacksOnce() {
+        CancellationToken token = new CancellationToken();
+        AtomicInteger calls = new AtomicInteger();
+        token.onCancel(calls::incrementAndGet);
+        token.onCancel(calls::incrementAndGet).close();
+
+        token.cancel();
+        token.cancel();
+
+        assertTrue(token.isCancelled());
+        assertFalse(token.isExpired());
+        assertEquals(1, calls.get());
+        // registered too late, runs right away
+        token.onCancel(calls::incrementAndGet);
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void deadlineRunsCallbacks() throws InterruptedException {
+        CancellationToken token = CancellationToken.withTimeout(Duration.ofMillis(50));
+        CountDownLatch cancelled = new CountDownLatch(1);
+        token.onCancel(cancelled::countDown);
+
+        assertFalse(token.isCancelled());
+        assertTrue(cancelled.await(1, TimeUnit.SECONDS));
+        assertTrue(token.isExpired());
+        try {
+            token.throwIfCancelled();
+            fail();
+        } catch (CancelledException e) {
+            assertEquals("Deadline exceeded", e.getMessage());
+        }
+    }
+
+    @Test
+    public void childCancelledWithParent() {
+        CancellationToken parent = CancellationToken.withTimeout(Duration.ofSeconds(10));
+        CancellationToken loser = parent.newChild();
+        CancellationToken other = parent.newChild();
+
+        loser.cancel();
+        assertTrue(loser.isCancelled());
+        assertFalse(parent.isCancelled());
+        assertFalse(other.isCancelled());
+        assertTrue(other.capTimeout(0) <= 10_000);
+
+        parent.cancel();
+        assertTrue(other.isCancelled());
+        assertTrue(parent.newChild().isCancelled());
+    }
+
+    @Test
+    public void capTimeout() {
+        CancellationToken token = CancellationToken.withTimeout(Duration.ofSeconds(10));
+
+        assertEquals(1000, token.capTimeout(1000));
+        assertTrue(token.capTimeout(60_000) <= 10_000);
+        // no timeout gets the time left
+        assertTrue(token.capTimeout(0) > 0);
+        assertEquals(1000, new CancellationToken().capTimeout(1000));
+        assertEquals(0, new CancellationToken().capTimeout(0));
+    }
+
+    @Test
+    public void interruptOnCancel() throws InterruptedException {
+        CancellationToken token = new CancellationToken();
+        new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+            token.cancel();
+        }).start();
+
+        try (CancellationToken.Registration ignored = token.interruptOnCancel()) {
+            Thread.sleep(10_000);
+            fail();
+        } catch (InterruptedException e) {
+            assertTrue(token.isCancelled());
+        }
+        // cleared when the registration was closed
+        token.interruptOnCancel().close();
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.util;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pf4j.update.util.CircuitBreaker.State;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    private long now;
+    private CircuitBreaker circuitBreaker;
+
+    @Before
+    public void setup() {
+        circuitBreaker = new CircuitBreaker("host", 2, 1000, () -> now);
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordSuccess();
+        circuitBreaker.recordFailure();
+        assertEquals(State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.allowRequest());
+
+        circuitBreaker.recordFailure();
+        assertEquals(State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.allowRequest());
+    }
+
+    @Test(expected = CircuitBreakerOpenException.class)
+    public void checkRequestFailsFastWhenOpen() throws Exception {
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+
+        circuitBreaker.checkRequest();
+    }
+
+    @Test
+    public void probeAfterOpenDuration() {
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+
+        now += TimeUnit.MILLISECONDS.toNanos(1000);
+        assertTrue(circuitBreaker.allowRequest());
+        assertEquals(State.HALF_OPEN, circuitBreaker.getState());
+        // only one probe at a time
+        assertFalse(circuitBreaker.allowRequest());
+
+        circuitBreaker.recordSuccess();
+        assertEquals(State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.allowRequest());
+    }
+
+    @Test
+    public void releasedProbeLetsNextProbeThrough() {
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+
+        now += TimeUnit.MILLISECONDS.toNanos(1000);
+        assertTrue(circuitBreaker.allowRequest());
+        assertFalse(circuitBreaker.allowRequest());
+        circuitBreaker.releaseProbe();
+
+        assertTrue(circuitBreaker.allowRequest());
+        assertEquals(State.HALF_OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    public void failedProbeOpensAgain() {
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+
+        now += TimeUnit.MILLISECONDS.toNanos(1000);
+        assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.recordFailure();
+        assertEquals(State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.allowRequest());
+    }
+
+}
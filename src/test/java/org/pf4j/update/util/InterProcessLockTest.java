@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pf4j.util.FileUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InterProcessLockTest {
+
+    private Path directory;
+
+    @Before
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("pf4j-locks");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        FileUtils.delete(directory);
+    }
+
+    @Test
+    public void waitsForOtherProcess() throws Exception {
+        Path lockFile = directory.resolve("key");
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+            InterProcessLockTest.class.getName(), lockFile.toString(), "500").start();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            assertEquals("locked", reader.readLine());
+
+            long start = System.nanoTime();
+            try (InterProcessLock lock = InterProcessLock.acquire(lockFile)) {
+                assertTrue((System.nanoTime() - start) / 1_000_000 >= 300);
+            }
+        } finally {
+            process.waitFor();
+        }
+    }
+
+    @Test
+    public void waitsForOtherThread() throws Exception {
+        Path lockFile = directory.resolve("key");
+        long[] acquired = new long[1];
+        Thread thread;
+        try (InterProcessLock lock = InterProcessLock.acquire(lockFile)) {
+            thread = new Thread(() -> {
+                try (InterProcessLock other = InterProcessLock.acquire(lockFile)) {
+                    acquired[0] = System.nanoTime();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            thread.start();
+            Thread.sleep(200);
+            assertEquals(0, acquired[0]);
+        }
+        thread.join();
+
+        assertTrue(acquired[0] > 0);
+    }
+
+    @Test
+    public void tryAcquireDoesNotWait() throws Exception {
+        Path lockFile = directory.resolve("key");
+        InterProcessLock lock = InterProcessLock.tryAcquire(lockFile);
+        assertNotNull(lock);
+        assertNull(InterProcessLock.tryAcquire(lockFile));
+
+        // released by another thread than the one that acquired it
+        Thread thread = new Thread(() -> {
+            try {
+                lock.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        thread.join();
+
+        try (InterProcessLock again = InterProcessLock.tryAcquire(lockFile)) {
+            assertNotNull(again);
+        }
+    }
+
+    @Test
+    public void threadLocksDropped() throws Exception {
+        int before = InterProcessLock.getThreadLockCount();
+        for (int i = 0; i < 10; i++) {
+            InterProcessLock.acquire(directory.resolve("key" + i)).close();
+        }
+        Thread.currentThread().interrupt();
+        try {
+            InterProcessLock.acquire(directory.resolve("interrupted")).close();
+        } catch (InterruptedIOException e) {
+            // expected
+        } finally {
+            Thread.interrupted();
+        }
+
+        assertEquals(before, InterProcessLock.getThreadLockCount());
+    }
+
+    // holds a lock in another process
+    public static void main(String[] args) throws Exception {
+        try (InterProcessLock lock = InterProcessLock.acquire(new File(args[0]).toPath())) {
+            System.out.println("locked");
+            System.out.flush();
+            Thread.sleep(Long.parseLong(args[1]));
+        }
+    }
+
+}
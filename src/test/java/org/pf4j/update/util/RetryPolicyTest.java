@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.util;
+
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryPolicyTest {
+
+    private final RetryPolicy retryPolicy = new RetryPolicy().setInitialDelay(10).setMaxDelay(40);
+
+    @Test
+    public void retriesUntilSuccess() throws IOException {
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = retryPolicy.execute(() -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new IOException("failure " + attempts);
+            }
+            return "done";
+        });
+
+        assertEquals("done", result);
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() {
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            retryPolicy.setMaxAttempts(2).execute(() -> {
+                throw new IOException("failure " + attempts.incrementAndGet());
+            });
+            fail();
+        } catch (IOException e) {
+            assertEquals("failure 2", e.getMessage());
+        }
+    }
+
+    @Test
+    public void missingResourceIsNotRetried() {
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            retryPolicy.execute(() -> {
+                attempts.incrementAndGet();
+                throw new FileNotFoundException("plugins.json");
+            });
+            fail();
+        } catch (IOException e) {
+            assertEquals(1, attempts.get());
+        }
+    }
+
+    @Test
+    public void delayIsBoundedAndJittered() {
+        for (int attempt = 1; attempt < 10; attempt++) {
+            long expected = Math.min(40, 10L << (attempt - 1));
+            long delay = retryPolicy.getDelay(attempt);
+            assertTrue(delay >= expected / 2 && delay <= expected);
+        }
+    }
+
+}
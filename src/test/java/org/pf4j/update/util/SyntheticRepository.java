@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.pf4j.update.PluginInfo;
+import org.pf4j.update.PluginInfo.PluginRelease;
+import org.pf4j.update.verifier.ChunkManifest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates a synthetic repository on disk: a {@code plugins.json} and one zip artifact per release.
+ * Artifacts are loadable by {@link PropertiesPluginManager} (they contain a {@code my.properties}
+ * descriptor for {@link NopPlugin}) and padded with random, incompressible bytes up to the artifact size.
+ * The same seed always yields the same repository.
+ */
+public class SyntheticRepository {
+
+    private String idPrefix = "synthetic-plugin-";
+    private int pluginCount = 10;
+    private int releasesPerPlugin = 2;
+    private int artifactSize = 4 * 1024;
+    private Map<String, Integer> requiresDistribution = new LinkedHashMap<>();
+    private boolean sidecarChecksums;
+    private String checksumsFileName;
+    private int chunkSize;
+    private long seed = 42;
+
+    public SyntheticRepository() {
+        requiresDistribution.put("", 1);
+    }
+
+    public static String version(int release) {
+        return "1." + release + ".0";
+    }
+
+    public SyntheticRepository setIdPrefix(String idPrefix) {
+        this.idPrefix = idPrefix;
+
+        return this;
+    }
+
+    public SyntheticRepository setPluginCount(int pluginCount) {
+        this.pluginCount = pluginCount;
+
+        return this;
+    }
+
+    public SyntheticRepository setReleasesPerPlugin(int releasesPerPlugin) {
+        this.releasesPerPlugin = releasesPerPlugin;
+
+        return this;
+    }
+
+    public SyntheticRepository setArtifactSize(int artifactSize) {
+        this.artifactSize = artifactSize;
+
+        return this;
+    }
+
+    /**
+     * Sets the weighted distribution of the {@code requires} expressions of the releases,
+     * e.g. {@code {"": 2, ">=2.0.0": 1}} for a third of the releases requiring system version 2.
+     */
+    public SyntheticRepository setRequiresDistribution(Map<String, Integer> requiresDistribution) {
+        this.requiresDistribution = requiresDistribution;
+
+        return this;
+    }
+
+    /**
+     * Publishes the checksums as {@code .sha512} files next to the artifacts instead of inline.
+     */
+    public SyntheticRepository setSidecarChecksums(boolean sidecarChecksums) {
+        this.sidecarChecksums = sidecarChecksums;
+
+        return this;
+    }
+
+    /**
+     * Also writes the checksums of all artifacts to a manifest in the format of {@code sha512sum},
+     * gzip compressed if the name ends with {@code .gz}.
+     */
+    public SyntheticRepository setChecksumsFileName(String checksumsFileName) {
+        this.checksumsFileName = checksumsFileName;
+
+        return this;
+    }
+
+    /**
+     * Also publishes a {@code .chunks} manifest next to each artifact, pinned by its root hash.
+     *
+     * @param chunkSize the size of the chunks, 0 for no chunk manifests
+     */
+    public SyntheticRepository setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+
+        return this;
+    }
+
+    public SyntheticRepository setSeed(long seed) {
+        this.seed = seed;
+
+        return this;
+    }
+
+    public int getPluginCount() {
+        return pluginCount;
+    }
+
+    public int getReleasesPerPlugin() {
+        return releasesPerPlugin;
+    }
+
+    /**
+     * Writes the repository to the given directory.
+     *
+     * @param repositoryDir the root of the repository
+     * @return the plugins, as written to {@code plugins.json}
+     * @throws IOException if writing fails
+     */
+    public List<PluginInfo> generate(Path repositoryDir) throws IOException {
+        Random random = new Random(seed);
+        List<PluginInfo> plugins = new ArrayList<>(pluginCount);
+        StringBuilder checksums = new StringBuilder();
+        for (int i = 0; i < pluginCount; i++) {
+            PluginInfo plugin = new PluginInfo();
+            plugin.id = idPrefix + i;
+            plugin.description = "Synthetic plugin " + i;
+            plugin.releases = new ArrayList<>(releasesPerPlugin);
+            for (int r = 0; r < releasesPerPlugin; r++) {
+                PluginRelease release = new PluginRelease();
+                release.version = version(r);
+                release.date = new Date();
+                String requires = pickRequires(random);
+                release.requires = requires.isEmpty() ? null : requires;
+                release.url = plugin.id + "/" + release.version + "/" + plugin.id + "-" + release.version + ".zip";
+                Path artifact = repositoryDir.resolve(release.url);
+                Files.createDirectories(artifact.getParent());
+                writeArtifact(artifact, plugin.id, release.version, random);
+                String sha512sum;
+                try (InputStream in = Files.newInputStream(artifact)) {
+                    sha512sum = DigestUtils.sha512Hex(in);
+                }
+                checksums.append(sha512sum).append("  ").append(release.url).append('\n');
+                if (sidecarChecksums) {
+                    String fileName = artifact.getFileName().toString();
+                    Path sidecar = artifact.resolveSibling(fileName.substring(0, fileName.lastIndexOf('.')) + ".sha512");
+                    Files.write(sidecar, (sha512sum + "  " + fileName + "\n").getBytes(StandardCharsets.UTF_8));
+                    release.sha512sum = ".sha512";
+                } else {
+                    release.sha512sum = sha512sum;
+                }
+                if (chunkSize > 0) {
+                    ChunkManifest manifest = ChunkManifest.create(artifact, ChunkManifest.DEFAULT_ALGORITHM, chunkSize, null);
+                    String fileName = artifact.getFileName().toString();
+                    Path chunks = artifact.resolveSibling(fileName.substring(0, fileName.lastIndexOf('.')) + ".chunks");
+                    try (OutputStream out = Files.newOutputStream(chunks)) {
+                        manifest.write(out);
+                    }
+                    release.chunks = ".chunks";
+                    release.chunksRoot = manifest.getRoot();
+                }
+                plugin.releases.add(release);
+            }
+            plugins.add(plugin);
+        }
+
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        try (Writer writer = Files.newBufferedWriter(repositoryDir.resolve("plugins.json"), StandardCharsets.UTF_8)) {
+            gson.toJson(plugins, writer);
+        }
+        if (checksumsFileName != null) {
+            try (OutputStream out = Files.newOutputStream(repositoryDir.resolve(checksumsFileName));
+                 OutputStream os = checksumsFileName.endsWith(".gz") ? new GZIPOutputStream(out) : out) {
+                os.write(checksums.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        return plugins;
+    }
+
+    private String pickRequires(Random random) {
+        int total = 0;
+        for (int weight : requiresDistribution.values()) {
+            total += weight;
+        }
+        int pick = random.nextInt(total);
+        for (Map.Entry<String, Integer> entry : requiresDistribution.entrySet()) {
+            pick -= entry.getValue();
+            if (pick < 0) {
+                return entry.getKey();
+            }
+        }
+
+        throw new IllegalStateException("Empty requires distribution");
+    }
+
+    private void writeArtifact(Path artifact, String id, String version, Random random) throws IOException {
+        try (OutputStream out = Files.newOutputStream(artifact);
+             ZipOutputStream zip = new ZipOutputStream(out)) {
+            zip.putNextEntry(new ZipEntry("my.properties"));
+            String properties = "plugin.id=" + id + "\n"
+                + "plugin.version=" + version + "\n"
+                + "plugin.class=" + NopPlugin.class.getName() + "\n";
+            zip.write(properties.getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+
+            zip.putNextEntry(new ZipEntry("padding.bin"));
+            byte[] buffer = new byte[8192];
+            for (int written = 0; written < artifactSize; written += buffer.length) {
+                random.nextBytes(buffer);
+                zip.write(buffer, 0, Math.min(buffer.length, artifactSize - written));
+            }
+            zip.closeEntry();
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.verifier;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ChecksumManifestTest {
+
+    private static final String MANIFEST = "# checksums of release 1.0.0\n"
+        + "\n"
+        + "abc123  plugin-a/1.0.0/plugin-a-1.0.0.zip\n"
+        + "def456 *plugin-b-1.0.0.zip\n"
+        + "789fed  ./plugin-c-1.0.0.zip\n"
+        + "garbage\n";
+
+    @Test
+    public void read() throws IOException {
+        ChecksumManifest manifest = ChecksumManifest.read(new ByteArrayInputStream(bytes(MANIFEST)), false);
+
+        assertManifest(manifest);
+    }
+
+    @Test
+    public void readCompressed() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes(MANIFEST));
+        }
+
+        ChecksumManifest manifest = ChecksumManifest.read(new ByteArrayInputStream(out.toByteArray()), true);
+
+        assertManifest(manifest);
+    }
+
+    private static void assertManifest(ChecksumManifest manifest) {
+        assertEquals(3, manifest.size());
+        assertEquals("abc123", manifest.getChecksum("plugin-a/1.0.0/plugin-a-1.0.0.zip"));
+        assertEquals("def456", manifest.getChecksum("plugin-b-1.0.0.zip"));
+        assertEquals("789fed", manifest.getChecksum("plugin-c-1.0.0.zip"));
+        assertEquals("789fed", manifest.getChecksum("./plugin-c-1.0.0.zip"));
+        assertNull(manifest.getChecksum("plugin-d-1.0.0.zip"));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
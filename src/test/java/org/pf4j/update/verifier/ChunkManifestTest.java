@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.verifier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pf4j.update.FileVerifier;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChunkManifestTest {
+
+    private static final int CHUNK_SIZE = 1024;
+
+    private Path file;
+    private byte[] content;
+    private ExecutorService executor;
+
+    @Before
+    public void setup() throws IOException {
+        file = Files.createTempFile("test", ".zip");
+        content = new byte[10 * CHUNK_SIZE + 100];
+        new Random(42).nextBytes(content);
+        Files.write(file, content);
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        executor.shutdownNow();
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void createAndRead() throws IOException {
+        ChunkManifest manifest = ChunkManifest.create(file, ChunkManifest.DEFAULT_ALGORITHM, CHUNK_SIZE, executor);
+        assertEquals(11, manifest.getChunkCount());
+        assertEquals(100, manifest.getChunkLength(10));
+        // parallel and sequential hashing agree
+        assertEquals(manifest.getChunks(), ChunkManifest.create(file, ChunkManifest.DEFAULT_ALGORITHM, CHUNK_SIZE, null).getChunks());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        manifest.write(out);
+        ChunkManifest read = ChunkManifest.read(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(manifest.getChunks(), read.getChunks());
+        assertEquals(manifest.getRoot(), read.getRoot());
+        assertEquals(content.length, read.getSize());
+    }
+
+    @Test
+    public void findCorruptChunks() throws IOException {
+        ChunkManifest manifest = ChunkManifest.create(file, ChunkManifest.DEFAULT_ALGORITHM, CHUNK_SIZE, executor);
+        assertEquals(Collections.emptyList(), manifest.findCorruptChunks(file, executor, false));
+
+        content[3 * CHUNK_SIZE + 5] ^= 0xff;
+        content[7 * CHUNK_SIZE] ^= 0xff;
+        Files.write(file, content);
+
+        assertEquals(Arrays.asList(3, 7), manifest.findCorruptChunks(file, executor, false));
+        assertEquals(Arrays.asList(3, 7), manifest.findCorruptChunks(file, null, false));
+        assertEquals(Collections.singletonList(3), manifest.findCorruptChunks(file, null, true));
+    }
+
+    @Test
+    public void findMissingChunks() throws IOException {
+        ChunkManifest manifest = ChunkManifest.create(file, ChunkManifest.DEFAULT_ALGORITHM, CHUNK_SIZE, executor);
+
+        // truncated within chunk 8
+        Files.write(file, Arrays.copyOf(content, 8 * CHUNK_SIZE + 10));
+        assertEquals(Arrays.asList(8, 9, 10), manifest.findCorruptChunks(file, executor, false));
+        assertEquals(Collections.singletonList(8), manifest.findCorruptChunks(file, null, true));
+
+        Files.write(file, Arrays.copyOf(content, content.length + 1));
+        try {
+            manifest.findCorruptChunks(file, null, false);
+            fail("Longer file accepted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void verifyChunk() throws IOException {
+        ChunkManifest manifest = ChunkManifest.create(file, ChunkManifest.DEFAULT_ALGORITHM, CHUNK_SIZE, null);
+
+        assertTrue(manifest.verifyChunk(10, ByteBuffer.wrap(content, 10 * CHUNK_SIZE, 100)));
+        assertFalse(manifest.verifyChunk(9, ByteBuffer.wrap(content, 10 * CHUNK_SIZE, 100)));
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidManifest() throws IOException {
+        ChunkManifest.parse("{\"algorithm\":\"SHA-256\",\"chunkSize\":1024,\"size\":4096,\"chunks\":[\"00\"]}");
+    }
+
+    @Test
+    public void verifierReportsCorruptChunks() throws IOException {
+        ChunkManifest manifest = ChunkManifest.create(file, ChunkManifest.DEFAULT_ALGORITHM, CHUNK_SIZE, null);
+        Path manifestFile = file.resolveSibling(file.getFileName().toString().replace(".zip", ".chunks"));
+        try {
+            try (OutputStream out = Files.newOutputStream(manifestFile)) {
+                manifest.write(out);
+            }
+            FileVerifier.Context context = new FileVerifier.Context("foo", new Date(), "1.2.3",
+                null, file.toUri().toString(), null);
+            context.chunks = ".chunks";
+            context.chunksRoot = manifest.getRoot();
+            ChunkedHashVerifier verifier = new ChunkedHashVerifier();
+            verifier.setVerificationCache(null);
+            verifier.verify(context, file);
+
+            content[CHUNK_SIZE] ^= 0xff;
+            Files.write(file, content);
+            try {
+                verifier.verify(context, file);
+                fail("Expected damaged chunk");
+            } catch (ChunkVerifyException e) {
+                assertEquals(Collections.singletonList(1), e.getCorruptChunks());
+            }
+        } finally {
+            Files.deleteIfExists(manifestFile);
+        }
+    }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.verifier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pf4j.AbstractPluginManager;
+import org.pf4j.PluginManager;
+import org.pf4j.update.FileVerifier;
+import org.pf4j.update.VerifyException;
+import org.pf4j.update.util.NopPlugin;
+import org.pf4j.update.util.PropertiesPluginManager;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DescriptorVerifierTest {
+
+    private Path pluginsDir;
+    private Path file;
+    private PluginManager pluginManager;
+    private DescriptorVerifier verifier;
+
+    @Before
+    public void setup() throws IOException {
+        pluginsDir = Files.createTempDirectory("pf4j-plugins");
+        file = Files.createTempDirectory("pf4j-update-descriptor").resolve("foo-1.2.3.zip");
+        pluginManager = new PropertiesPluginManager(pluginsDir);
+        pluginManager.setSystemVersion("1.0.0");
+        verifier = new DescriptorVerifier(pluginManager, "my.properties");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(file.getParent());
+        Files.deleteIfExists(pluginsDir);
+    }
+
+    @Test
+    public void matchingDescriptor() throws IOException {
+        writeZip("plugin.id=foo\nplugin.version=1.2.3\nplugin.requires=>=1.0.0\n");
+
+        verifier.verify(context("foo", "1.2.3"), file);
+    }
+
+    @Test
+    public void manifestInJar() throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Plugin-Id", "foo");
+        manifest.getMainAttributes().putValue("Plugin-Version", "1.2.3");
+        manifest.getMainAttributes().putValue("Plugin-Class", NopPlugin.class.getName());
+        Path jar = file.resolveSibling("foo-1.2.3.jar");
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+            out.putNextEntry(new ZipEntry("other.txt"));
+            out.closeEntry();
+        }
+
+        try {
+            verifier.verify(context("foo", "1.2.3"), jar);
+            assertFails(context("foo", "1.2.4"), jar, "version 1.2.3");
+        } finally {
+            Files.delete(jar);
+        }
+    }
+
+    @Test
+    public void otherPlugin() throws IOException {
+        writeZip("plugin.id=bar\nplugin.version=1.2.3\n");
+
+        assertFails(context("foo", "1.2.3"), file, "contains plugin bar");
+    }
+
+    @Test
+    public void otherVersion() throws IOException {
+        writeZip("plugin.id=foo\nplugin.version=1.2.2\n");
+
+        assertFails(context("foo", "1.2.3"), file, "version 1.2.2");
+    }
+
+    @Test
+    public void systemVersionTooOld() throws IOException {
+        writeZip("plugin.id=foo\nplugin.version=1.2.3\nplugin.requires=>=2.0.0\n");
+
+        assertFails(context("foo", "1.2.3"), file, "requires system version");
+    }
+
+    @Test
+    public void exactRequiresMeansAtLeast() throws IOException {
+        pluginManager.setSystemVersion("1.1.0");
+        writeZip("plugin.id=foo\nplugin.version=1.2.3\nplugin.requires=1.0.0\n");
+
+        // as the plugin manager loads it
+        verifier.verify(context("foo", "1.2.3"), file);
+
+        ((AbstractPluginManager) pluginManager).setExactVersionAllowed(true);
+        assertFails(context("foo", "1.2.3"), file, "requires system version");
+    }
+
+    @Test
+    public void missingDependency() throws IOException {
+        writeZip("plugin.id=foo\nplugin.version=1.2.3\nplugin.dependencies=bar@>=1.0.0\n");
+
+        assertFails(context("foo", "1.2.3"), file, "bar, which is not installed");
+    }
+
+    @Test
+    public void missingOptionalDependency() throws IOException {
+        writeZip("plugin.id=foo\nplugin.version=1.2.3\nplugin.dependencies=bar?@>=1.0.0\n");
+
+        verifier.verify(context("foo", "1.2.3"), file);
+    }
+
+    @Test
+    public void noDescriptor() throws IOException {
+        writeZip(null);
+
+        verifier.verify(context("foo", "1.2.3"), file);
+        assertEquals(0, pluginManager.getPlugins().size());
+    }
+
+    private void assertFails(FileVerifier.Context context, Path file, String message) throws IOException {
+        try {
+            verifier.verify(context, file);
+            fail("Expected verification to fail");
+        } catch (VerifyException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    private void writeZip(String properties) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file);
+             ZipOutputStream zip = new ZipOutputStream(out)) {
+            if (properties != null) {
+                zip.putNextEntry(new ZipEntry("my.properties"));
+                zip.write((properties + "plugin.class=" + NopPlugin.class.getName() + "\n").getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+            zip.putNextEntry(new ZipEntry("other.txt"));
+            zip.closeEntry();
+        }
+    }
+
+    private static FileVerifier.Context context(String id, String version) {
+        return new FileVerifier.Context(id, new Date(), version, null, "http://example.com/repo/" + id + "-" + version + ".zip", null);
+    }
+
+}
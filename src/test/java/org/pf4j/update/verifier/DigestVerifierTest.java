@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.verifier;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pf4j.update.FileVerifier;
+import org.pf4j.update.VerifyException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DigestVerifierTest {
+
+    private static final String CRC32 = "784dd132";
+
+    private Path testFile;
+    private FileVerifier.Context context;
+
+    @Before
+    public void setup() throws IOException {
+        testFile = Files.createTempFile("test", ".tmp");
+        Files.write(testFile, "Test".getBytes(StandardCharsets.UTF_8));
+        context = new FileVerifier.Context("foo", new Date(), "1.2.3",
+            null, "http://example.com/repo/foo-1.2.3.zip", DigestUtils.sha512Hex("Test"));
+        context.sha256sum = DigestUtils.sha256Hex("Test");
+        context.crc32 = CRC32;
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        Files.delete(testFile);
+    }
+
+    @Test
+    public void verify() throws IOException, VerifyException {
+        DigestVerifier verifier = new DigestVerifier();
+        verifier.setAlgorithms(DigestVerifier.Algorithm.values());
+        verifier.setVerificationCache(null);
+
+        verifier.verify(context, testFile);
+    }
+
+    @Test
+    public void damagedDownload() throws IOException {
+        DigestVerifier verifier = new DigestVerifier();
+        verifier.setVerificationCache(null);
+        context.crc32 = "00000000";
+
+        try {
+            verifier.verify(context, testFile);
+            fail("Expected CRC32 mismatch");
+        } catch (VerifyException e) {
+            assertTrue(e.getMessage().contains("damaged"));
+        }
+    }
+
+    @Test
+    public void crc32WithoutLeadingZeros() throws IOException, VerifyException {
+        Files.write(testFile, "Test23".getBytes(StandardCharsets.UTF_8));
+        DigestVerifier verifier = new DigestVerifier();
+        verifier.setVerificationCache(null);
+        context.sha256sum = null;
+        context.crc32 = "FDDE9E6";
+
+        verifier.verify(context, testFile);
+    }
+
+    @Test(expected = VerifyException.class)
+    public void wrongSha256InCompoundVerifier() throws IOException, VerifyException {
+        context.sha256sum = DigestUtils.sha256Hex("Other");
+        context.sha512sum = null;
+
+        new CompoundVerifier().verify(context, testFile);
+    }
+
+    @Test
+    public void sha256SkippedNextToSha512() {
+        DigestVerifier verifier = new DigestVerifier();
+        assertEquals(Collections.singletonList(DigestVerifier.Algorithm.CRC32), verifier.select(context));
+
+        context.sha512sum = ".sha512";
+        assertEquals(Collections.singletonList(DigestVerifier.Algorithm.CRC32), verifier.select(context));
+
+        context.sha512sum = null;
+        assertEquals(Arrays.asList(DigestVerifier.Algorithm.CRC32, DigestVerifier.Algorithm.SHA256),
+            verifier.select(context));
+    }
+
+    @Test
+    public void cheapestOnly() {
+        DigestVerifier verifier = new DigestVerifier();
+        verifier.setAlgorithms(DigestVerifier.Algorithm.values());
+        assertEquals(Arrays.asList(DigestVerifier.Algorithm.CRC32, DigestVerifier.Algorithm.SHA512),
+            verifier.select(context));
+
+        verifier.setCheapestOnly(true);
+        assertEquals(Arrays.asList(DigestVerifier.Algorithm.CRC32, DigestVerifier.Algorithm.SHA256),
+            verifier.select(context));
+
+        // sidecar checksums are left to the Sha512SumVerifier
+        context.sha256sum = null;
+        context.sha512sum = ".sha512";
+        assertEquals(Collections.singletonList(DigestVerifier.Algorithm.CRC32), verifier.select(context));
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.verifier;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pf4j.update.FileVerifier;
+import org.pf4j.update.VerifyException;
+import org.pf4j.update.verifier.VerificationCache.FileIdentity;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VerificationCacheTest {
+
+    private static final long AN_HOUR_AGO = System.currentTimeMillis() - 3_600_000;
+
+    private Path dir;
+    private Path file;
+    private VerificationCache cache;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("pf4j-update-verify");
+        file = Files.write(dir.resolve("foo-1.2.3.zip"), "Test".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(AN_HOUR_AGO));
+        cache = new VerificationCache(2);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(dir.resolve("foo-1.2.3.sha512"));
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(dir);
+    }
+
+    @Test
+    public void rememberVerifiedFile() throws IOException {
+        assertTrue(cache.putVerified(FileIdentity.of(file), "sha512:ABC", System.currentTimeMillis()));
+
+        assertTrue(cache.isVerified(file, "sha512:abc"));
+        assertTrue(cache.isVerified(dir.resolve("..").resolve(dir.getFileName()).resolve(file.getFileName()), "sha512:abc"));
+        assertFalse(cache.isVerified(file, "sha512:def"));
+    }
+
+    @Test
+    public void changedFileIsNotVerified() throws IOException {
+        cache.putVerified(FileIdentity.of(file), "sha512:abc", System.currentTimeMillis());
+
+        Files.setLastModifiedTime(file, FileTime.fromMillis(AN_HOUR_AGO + 1000));
+        assertFalse(cache.isVerified(file, "sha512:abc"));
+
+        Files.write(file, "Other".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(AN_HOUR_AGO));
+        assertFalse(cache.isVerified(file, "sha512:abc"));
+    }
+
+    @Test
+    public void recentlyModifiedFileIsNotRemembered() throws IOException {
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+
+        assertFalse(cache.putVerified(FileIdentity.of(file), "sha512:abc", System.currentTimeMillis()));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void fileChangedDuringVerificationIsNotRemembered() throws IOException {
+        FileIdentity identity = FileIdentity.of(file);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(AN_HOUR_AGO + 1000));
+
+        assertFalse(cache.putVerified(identity, "sha512:abc", System.currentTimeMillis()));
+    }
+
+    @Test
+    public void bounded() throws IOException {
+        for (String checksum : new String[] { "a", "b", "c" }) {
+            cache.putVerified(FileIdentity.of(file), checksum, System.currentTimeMillis());
+        }
+
+        assertEquals(2, cache.size());
+        assertFalse(cache.isVerified(file, "a"));
+    }
+
+    @Test
+    public void sidecarLoadedOnce() throws IOException {
+        AtomicInteger loads = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("abc", cache.getSidecar("http://example.com/foo.sha512", url -> load(loads)));
+        }
+        assertEquals(1, loads.get());
+
+        cache.setSidecarTtl(0);
+        cache.getSidecar("http://example.com/foo.sha512", url -> load(loads));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void sha512VerifierSkipsHashingAndSidecar() throws IOException {
+        Path sidecar = Files.write(dir.resolve("foo-1.2.3.sha512"),
+            (DigestUtils.sha512Hex("Test") + "  foo-1.2.3.zip").getBytes(StandardCharsets.UTF_8));
+        Sha512SumVerifier verifier = new Sha512SumVerifier();
+        verifier.setVerificationCache(cache);
+        FileVerifier.Context context = new FileVerifier.Context("foo", new Date(), "1.2.3", null,
+            file.toUri().toString(), ".sha512");
+
+        verifier.verify(context, file);
+        assertEquals(1, cache.size());
+
+        // neither the sidecar nor the content is read again
+        Files.delete(sidecar);
+        assertTrue(verifier.begin(context, file) == null);
+
+        // but a changed file is
+        Files.write(file, "Other".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(AN_HOUR_AGO));
+        try {
+            verifier.verify(context, file);
+            fail();
+        } catch (VerifyException e) {
+            // expected
+        }
+    }
+
+    private static String load(AtomicInteger loads) {
+        loads.incrementAndGet();
+
+        return "abc";
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pf4j.update.verifier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pf4j.update.FileVerifier;
+import org.pf4j.update.VerifyException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ZipStructureVerifierTest {
+
+    private Path dir;
+    private FileVerifier verifier;
+    private FileVerifier.Context context;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("pf4j-update-zip");
+        verifier = new ZipStructureVerifier();
+        context = new FileVerifier.Context("foo", new Date(), "1.2.3", null, "http://example.com/repo/foo-1.2.3.zip", null);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        for (Path file : Files.newDirectoryStream(dir)) {
+            Files.delete(file);
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void validZip() throws IOException {
+        verifier.verify(context, createZip("foo-1.2.3.zip", 3, "a comment"));
+    }
+
+    @Test
+    public void validZip64() throws IOException {
+        // more than 65535 entries need zip64 records
+        verifier.verify(context, createZip("foo-1.2.3.jar", 70_000, null));
+    }
+
+    @Test(expected = VerifyException.class)
+    public void truncatedZip() throws IOException {
+        Path file = createZip("foo-1.2.3.zip", 3, null);
+        byte[] content = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(content, content.length - 10));
+
+        verifier.verify(context, file);
+    }
+
+    @Test(expected = VerifyException.class)
+    public void bytesMissingInTheMiddle() throws IOException {
+        Path file = createZip("foo-1.2.3.zip", 3, null);
+        byte[] content = Files.readAllBytes(file);
+        byte[] damaged = new byte[content.length - 100];
+        System.arraycopy(content, 0, damaged, 0, 50);
+        System.arraycopy(content, 150, damaged, 50, content.length - 150);
+        Files.write(file, damaged);
+
+        verifier.verify(context, file);
+    }
+
+    @Test(expected = VerifyException.class)
+    public void notAZip() throws IOException {
+        Path file = dir.resolve("foo-1.2.3.zip");
+        Files.write(file, "<html>Not found</html>".getBytes(StandardCharsets.UTF_8));
+
+        verifier.verify(context, file);
+    }
+
+    @Test
+    public void otherFilesSkipped() throws IOException {
+        Path file = dir.resolve("foo-1.2.3.tar");
+        Files.write(file, "not a zip".getBytes(StandardCharsets.UTF_8));
+
+        verifier.verify(context, file);
+    }
+
+    private Path createZip(String name, int entries, String comment) throws IOException {
+        Path file = dir.resolve(name);
+        try (OutputStream out = Files.newOutputStream(file);
+             ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (int i = 0; i < entries; i++) {
+                zip.putNextEntry(new ZipEntry("entry-" + i + ".txt"));
+                zip.write(("content of entry " + i).getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+            if (comment != null) {
+                zip.setComment(comment);
+            }
+        }
+
+        return file;
+    }
+
+}